@@ -1,76 +1,40 @@
 
 
 import java.io.*;
-import java.util.StringTokenizer;
+
+import edu.ucla.sspace.lsa.FeedParser;
+import edu.ucla.sspace.lsa.MappedFeedReader;
+import edu.ucla.sspace.lsa.ParallelTasks;
 
 public class FormatIBMFeed {
 
 
+	/**
+	 * Writes the title and comment of each record of a raw feed file as a
+	 * line of the form {@code "title","comment "}.  The input and output files
+	 * may be given as arguments, and default to IBMFeed.dat and
+	 * IBMFeed_Matlab.dat.  Feeds compressed with gzip, whose names end in
+	 * .gz, are read directly.
+	 */
 	public static void main(String[] args) {
-		File inputFile = new File("IBMFeed.dat");
-		File outputFile = new File("IBMFeed_Matlab.dat");
-		FileReader fr;
-		BufferedReader br;
-		FileWriter fw;
-		BufferedWriter bw;
+		File inputFile = new File((args.length > 0) ? args[0] : "IBMFeed.dat");
+		File outputFile = new File((args.length > 1) ? args[1] : "IBMFeed_Matlab.dat");
 		try{
-			fr = new FileReader(inputFile);
-			fw = new FileWriter(outputFile);
-			br = new BufferedReader(fr);
-			bw = new BufferedWriter(fw);
-			String tempStr;
-			String tempToken;
-			String title;
-			StringTokenizer st;
-			int firstIndex = 0;
-			int lastIndex = 0;
-			while((tempStr = br.readLine()) != null){
-				st = new StringTokenizer(tempStr);
-				if(st.countTokens() < 4){
-					continue;
-				}
-				tempToken = st.nextToken();
-				if(!tempToken.equalsIgnoreCase("from")){
-					continue;
+			final BufferedWriter bw = new BufferedWriter(new FileWriter(outputFile));
+			FeedParser.RecordHandler writer = new FeedParser.RecordHandler() {
+				public void handle(String title, String comment) throws IOException {
+					bw.write("\"" + title + "\",\"" + comment + " \"\n");
 				}
-				System.out.println(tempStr);
-				firstIndex = tempStr.indexOf('\'');
-				lastIndex = tempStr.lastIndexOf('\'');
-				title = tempStr.substring(firstIndex+1, lastIndex);
-				System.out.println(title);
-				bw.write("\"" + title + "\",\"");
-				
-				if((tempStr = br.readLine()) != null){
-					System.out.println(tempStr);
-					bw.write(tempStr);
-					while((tempStr = br.readLine()) != null){
-						st = new StringTokenizer(tempStr);
-						if(st.countTokens() < 1){
-							break;
-						}
-						tempToken = st.nextToken();
-						if(tempToken.equalsIgnoreCase("add")){
-							tempToken = st.nextToken();
-							if(tempToken.equalsIgnoreCase("starLikeShareShare")){
-								break;
-							}
-							else{
-								System.out.println(tempStr);
-								bw.write(" " + tempStr);
-							}
-						}
-					}
-					bw.write(" \"\n");
-				}
-				
-				
+			};
+			// Uncompressed feeds are split and parsed by all processors
+			if(inputFile.getName().endsWith(".gz")){
+				new FeedParser(FeedParser.open(inputFile)).parse(writer);
+			}
+			else{
+				new MappedFeedReader(inputFile).parseInOrder(writer, ParallelTasks.defaultThreads());
 			}
-			bw.flush();
 			bw.close();
-			fw.close();
-			br.close();
-			fr.close();
-		} catch (Exception e){e.printStackTrace();}
+		} catch (IOException e){e.printStackTrace();}
 
 	}
 
@@ -0,0 +1,414 @@
+package edu.ucla.sspace.lsa;
+
+import java.io.File;
+import java.io.IOError;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+
+import java.nio.channels.FileChannel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import java.util.concurrent.Callable;
+
+import java.util.logging.Logger;
+
+import static edu.ucla.sspace.lsa.TermDocumentMatrixIO.BUFFER_BYTES;
+import static edu.ucla.sspace.lsa.TermDocumentMatrixIO.ENTRY_BYTES;
+import static edu.ucla.sspace.lsa.TermDocumentMatrixIO.HEADER_BYTES;
+
+/**
+ * A base class for transformers that replace each entry of a term-document
+ * matrix with a weight computed from the entry's value and statistics gathered
+ * over the entire matrix.  Subclasses define the statistics and the weighting
+ * by implementing {@link #createStatistics(int,int) createStatistics}.
+ *
+ * <p>
+ *
+ * A transform makes two passes over the matrix.  The first pass divides the
+ * entries into contiguous ranges, one per thread, and each thread gathers
+ * partial statistics for its range, which are then combined.  The second pass
+ * weights each range in parallel.  Because entries have a fixed width, each
+ * thread writes its weighted range directly to the same position in the
+ * output, so the output entries are in the same order as the input.  If the
+ * matrix fits in memory, it is read from disk only once.  An in-memory {@link
+ * SparseTermDocumentMatrix} is partitioned by ranges of columns and weighted
+ * in place.
+ */
+public abstract class AbstractMatrixTransformer implements MatrixTransformer {
+
+    private static final Logger LOGGER =
+        Logger.getLogger(AbstractMatrixTransformer.class.getName());
+
+    /**
+     * The fraction of the available heap that the matrix may occupy for it to
+     * be transformed in memory rather than by re-reading the input file.
+     */
+    private static final double IN_MEMORY_HEAP_FRACTION = 0.25;
+
+    /**
+     * Statistics about a term-document matrix that are used to weight its
+     * entries.  An instance is first filled by calls to {@link
+     * #add(int,int,float) add} with some of the entries of the matrix,
+     * possibly {@link #combine(TermDocumentStatistics) combined} with the
+     * statistics gathered from the remaining entries by other threads, and
+     * then {@link #finish() finished}, after which it may be used to {@link
+     * #weight(int,int,float) weight} entries from multiple threads.
+     */
+    protected abstract static class TermDocumentStatistics {
+
+        /**
+         * Updates the statistics with an entry of the matrix.
+         */
+        protected abstract void add(int term, int document, float value);
+
+        /**
+         * Adds the statistics gathered by {@code other} to these statistics.
+         * {@code other} is an instance of the same class, created with the
+         * same dimensions.
+         */
+        protected abstract void combine(TermDocumentStatistics other);
+
+        /**
+         * Called once all entries have been added, before any calls to {@code
+         * weight}.
+         */
+        protected void finish() { }
+
+        /**
+         * Returns the transformed value of the entry.
+         */
+        protected abstract double weight(int term, int document, float value);
+
+        /**
+         * Weights the entries of a document that is not part of the matrix,
+         * as described by {@link MatrixTransformer#weightDocument(int[],
+         * float[],int,double[])}.  This is only called once the statistics
+         * are finished.
+         */
+        protected abstract void weightDocument(int[] terms, float[] values,
+                                               int size, double[] weights);
+    }
+
+    /**
+     * The finished statistics of the matrix most recently transformed, or
+     * {@code null} if no matrix has been transformed
+     */
+    private volatile TermDocumentStatistics lastStatistics;
+
+    /**
+     * Returns new, empty statistics for a matrix with the provided number of
+     * terms and documents.  Both terms and documents are indexed from 1.
+     */
+    protected abstract TermDocumentStatistics createStatistics(int numTerms,
+                                                               int numDocs);
+
+    /**
+     * Transforms the matrix contained in the {@code input} argument, writing
+     * the results to the {@code output} file, using a single thread.
+     */
+    public void transform(File input, File output) throws IOException {
+        transform(input, output, 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void transform(File input, File output, int numThreads)
+            throws IOException {
+        numThreads = Math.max(1, numThreads);
+        TermDocumentMatrixReader reader = new TermDocumentMatrixReader(input);
+        int numTerms = reader.rows();
+        int numDocs = reader.columns();
+        long nonZeros = reader.nonZeros();
+
+        Runtime runtime = Runtime.getRuntime();
+        long freeHeap = runtime.maxMemory() -
+            (runtime.totalMemory() - runtime.freeMemory());
+        if (nonZeros * ENTRY_BYTES < freeHeap * IN_MEMORY_HEAP_FRACTION
+                && nonZeros <= Integer.MAX_VALUE) {
+            transformInMemory(reader, numTerms, numDocs, (int)nonZeros,
+                              output, numThreads);
+        }
+        else {
+            reader.close();
+            transformStreaming(input, numTerms, numDocs, nonZeros,
+                               output, numThreads);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void transform(SparseTermDocumentMatrix matrix, int numThreads) {
+        numThreads = Math.max(1, numThreads);
+        final int numTerms = matrix.rows();
+        final int numDocs = matrix.columns();
+        final int[] columnStarts = matrix.columnStarts();
+        final int[] rowIndices = matrix.rowIndices();
+        final float[] values = matrix.values();
+
+        LOGGER.fine("computing statistics for " + matrix.nonZeros() +
+                    " entries");
+
+        // Partition the columns so that each thread has about the same number
+        // of entries.  The matrix is indexed from 0, but the statistics use
+        // the same indices as the file format, which start at 1.
+        final int[] columnBounds = partitionColumns(columnStarts, numThreads);
+        List<Callable<TermDocumentStatistics>> statTasks =
+            new ArrayList<Callable<TermDocumentStatistics>>(numThreads);
+        for (int t = 0; t < numThreads; ++t) {
+            final int from = columnBounds[t];
+            final int to = columnBounds[t + 1];
+            statTasks.add(new Callable<TermDocumentStatistics>() {
+                    public TermDocumentStatistics call() {
+                        TermDocumentStatistics partial =
+                            createStatistics(numTerms, numDocs);
+                        for (int col = from; col < to; ++col) {
+                            int end = columnStarts[col + 1];
+                            for (int i = columnStarts[col]; i < end; ++i)
+                                partial.add(rowIndices[i] + 1, col + 1,
+                                            values[i]);
+                        }
+                        return partial;
+                    }
+                });
+        }
+
+        try {
+            final TermDocumentStatistics stats =
+                combine(ParallelTasks.invokeAll(statTasks, numThreads));
+
+            LOGGER.fine("weighting matrix");
+
+            List<Callable<Void>> weightTasks =
+                new ArrayList<Callable<Void>>(numThreads);
+            for (int t = 0; t < numThreads; ++t) {
+                final int from = columnBounds[t];
+                final int to = columnBounds[t + 1];
+                weightTasks.add(new Callable<Void>() {
+                        public Void call() {
+                            for (int col = from; col < to; ++col) {
+                                int end = columnStarts[col + 1];
+                                for (int i = columnStarts[col]; i < end; ++i)
+                                    values[i] = (float)stats.weight(
+                                        rowIndices[i] + 1, col + 1, values[i]);
+                            }
+                            return null;
+                        }
+                    });
+            }
+            ParallelTasks.invokeAll(weightTasks, numThreads);
+        } catch (IOException ioe) {
+            // the in-memory tasks do not perform any I/O
+            throw new IOError(ioe);
+        }
+    }
+
+    /**
+     * Returns the boundaries of {@code parts} contiguous ranges of columns
+     * that each contain about the same number of entries.  Range {@code i} is
+     * {@code [bounds[i], bounds[i + 1])}.
+     */
+    static int[] partitionColumns(int[] columnStarts, int parts) {
+        int columns = columnStarts.length - 1;
+        long[] entryBounds =
+            ParallelTasks.partition(columnStarts[columns], parts);
+        int[] bounds = new int[parts + 1];
+        for (int i = 1; i < parts; ++i) {
+            // find the first column that starts at or after the entry bound
+            int col = Arrays.binarySearch(columnStarts, (int)entryBounds[i]);
+            if (col < 0)
+                col = -col - 1;
+            else {
+                // skip back over any empty columns with the same start
+                while (col > 0 && columnStarts[col - 1] == columnStarts[col])
+                    col--;
+            }
+            bounds[i] = Math.max(bounds[i - 1], Math.min(col, columns));
+        }
+        bounds[parts] = columns;
+        return bounds;
+    }
+
+    /**
+     * Loads the entire matrix from the reader and then transforms it, writing
+     * the result to {@code output}.
+     */
+    private void transformInMemory(TermDocumentMatrixReader reader,
+                                   int numTerms, int numDocs, int nonZeros,
+                                   File output, int numThreads)
+            throws IOException {
+        final int[] terms = new int[nonZeros];
+        final int[] docs = new int[nonZeros];
+        final float[] values = new float[nonZeros];
+        for (int i = 0; reader.next(); ++i) {
+            terms[i] = reader.term();
+            docs[i] = reader.document();
+            values[i] = reader.value();
+        }
+        reader.close();
+
+        LOGGER.fine("computing statistics for " + nonZeros + " entries");
+
+        final long[] bounds = ParallelTasks.partition(nonZeros, numThreads);
+        List<Callable<TermDocumentStatistics>> statTasks =
+            new ArrayList<Callable<TermDocumentStatistics>>(numThreads);
+        for (int t = 0; t < numThreads; ++t) {
+            final TermDocumentStatistics partial =
+                createStatistics(numTerms, numDocs);
+            final int from = (int)bounds[t];
+            final int to = (int)bounds[t + 1];
+            statTasks.add(new Callable<TermDocumentStatistics>() {
+                    public TermDocumentStatistics call() {
+                        for (int i = from; i < to; ++i)
+                            partial.add(terms[i], docs[i], values[i]);
+                        return partial;
+                    }
+                });
+        }
+        final TermDocumentStatistics stats =
+            combine(ParallelTasks.invokeAll(statTasks, numThreads));
+
+        LOGGER.fine("generating new matrix");
+
+        List<Callable<Void>> weightTasks =
+            new ArrayList<Callable<Void>>(numThreads);
+        for (int t = 0; t < numThreads; ++t) {
+            final int from = (int)bounds[t];
+            final int to = (int)bounds[t + 1];
+            weightTasks.add(new Callable<Void>() {
+                    public Void call() {
+                        for (int i = from; i < to; ++i)
+                            values[i] = (float)
+                                stats.weight(terms[i], docs[i], values[i]);
+                        return null;
+                    }
+                });
+        }
+        ParallelTasks.invokeAll(weightTasks, numThreads);
+
+        TermDocumentMatrixWriter writer = new TermDocumentMatrixWriter(output);
+        for (int i = 0; i < nonZeros; ++i)
+            writer.write(terms[i], docs[i], values[i]);
+        writer.close();
+    }
+
+    /**
+     * Transforms the matrix stored in {@code input} using two passes over the
+     * file, in which each thread reads and writes its own range of entries.
+     */
+    private void transformStreaming(final File input, final int numTerms,
+                                    final int numDocs, long nonZeros,
+                                    final File output, int numThreads)
+            throws IOException {
+        final long[] bounds = ParallelTasks.partition(nonZeros, numThreads);
+
+        LOGGER.fine("computing statistics for " + nonZeros + " entries");
+
+        List<Callable<TermDocumentStatistics>> statTasks =
+            new ArrayList<Callable<TermDocumentStatistics>>(numThreads);
+        for (int t = 0; t < numThreads; ++t) {
+            final long from = bounds[t];
+            final long to = bounds[t + 1];
+            statTasks.add(new Callable<TermDocumentStatistics>() {
+                    public TermDocumentStatistics call() throws IOException {
+                        TermDocumentStatistics partial =
+                            createStatistics(numTerms, numDocs);
+                        TermDocumentMatrixReader reader =
+                            new TermDocumentMatrixReader(input, from, to);
+                        while (reader.next())
+                            partial.add(reader.term(), reader.document(),
+                                        reader.value());
+                        reader.close();
+                        return partial;
+                    }
+                });
+        }
+        final TermDocumentStatistics stats =
+            combine(ParallelTasks.invokeAll(statTasks, numThreads));
+
+        LOGGER.fine("generating new matrix");
+
+        // Size the output and write its header up front so that each thread
+        // can write its range of entries independently
+        RandomAccessFile raf = new RandomAccessFile(output, "rw");
+        raf.setLength(HEADER_BYTES + nonZeros * ENTRY_BYTES);
+        TermDocumentMatrixIO.writeHeader(raf.getChannel(), numTerms, numDocs,
+                                         nonZeros);
+        raf.close();
+
+        List<Callable<Void>> weightTasks =
+            new ArrayList<Callable<Void>>(numThreads);
+        for (int t = 0; t < numThreads; ++t) {
+            final long from = bounds[t];
+            final long to = bounds[t + 1];
+            weightTasks.add(new Callable<Void>() {
+                    public Void call() throws IOException {
+                        TermDocumentMatrixReader reader =
+                            new TermDocumentMatrixReader(input, from, to);
+                        RandomAccessFile out =
+                            new RandomAccessFile(output, "rw");
+                        FileChannel channel = out.getChannel();
+                        channel.position(HEADER_BYTES + from * ENTRY_BYTES);
+                        ByteBuffer buffer =
+                            ByteBuffer.allocateDirect(BUFFER_BYTES);
+                        while (reader.next()) {
+                            if (buffer.remaining() < ENTRY_BYTES)
+                                drain(buffer, channel);
+                            int term = reader.term();
+                            int doc = reader.document();
+                            buffer.putInt(term).putInt(doc).putFloat((float)
+                                stats.weight(term, doc, reader.value()));
+                        }
+                        drain(buffer, channel);
+                        reader.close();
+                        out.close();
+                        return null;
+                    }
+                });
+        }
+        ParallelTasks.invokeAll(weightTasks, numThreads);
+    }
+
+    /**
+     * Combines the partial statistics gathered by each thread and finishes the
+     * result, which is kept for weighting new documents.
+     */
+    private TermDocumentStatistics combine(
+            List<TermDocumentStatistics> partials) {
+        TermDocumentStatistics stats = partials.get(0);
+        for (int i = 1; i < partials.size(); ++i)
+            stats.combine(partials.get(i));
+        stats.finish();
+        lastStatistics = stats;
+        return stats;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void weightDocument(int[] terms, float[] values, int size,
+                               double[] weights) {
+        TermDocumentStatistics stats = lastStatistics;
+        if (stats == null)
+            throw new IllegalStateException(
+                "no matrix has been transformed by " + this);
+        stats.weightDocument(terms, values, size, weights);
+    }
+
+    /**
+     * Writes the contents of the buffer to the channel and clears the buffer.
+     */
+    private static void drain(ByteBuffer buffer, FileChannel channel)
+            throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+}
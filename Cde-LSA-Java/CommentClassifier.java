@@ -0,0 +1,633 @@
+package edu.ucla.sspace.lsa;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import java.util.concurrent.Callable;
+
+import edu.ucla.sspace.matrix.Matrix;
+
+/**
+ * Classifies each comment on a title as on topic, off topic or too short by
+ * comparing it with the title in a two-dimensional latent semantic space built
+ * from the title and its comments alone.  This is the Java counterpart of
+ * {@code TitleComments.getCommentComparisonMat} of the MATLAB code, and
+ * computes the same lengths, angles and codes.  For a title with {@code n - 1}
+ * comments,
+ *
+ * <ol>
+ *
+ *   <li> the word count matrix {@code A} has a column for each comment,
+ *   followed by one for the title.  Its words are the matches of {@code
+ *   (\w)*('')?(\w)*} in the title and comments, in lower case.  As in the
+ *   MATLAB code, whose word bank removes repeated words before converting
+ *   them to lower case, a word spelled in {@code k} different cases has
+ *   {@code k} identical rows.
+ *
+ *   <li> each column {@code i} of {@code A} is placed at the point {@code z}
+ *   given by column {@code i} of {@code inv(S) U' A}, where {@code U S V'} is
+ *   the rank-2 singular value decomposition of {@code A}, which is row {@code
+ *   i} of {@code V}.
+ *
+ *   <li> the length of a point is {@code |z(2) - z(1)|}, which is what the
+ *   MATLAB code's {@code distance(z(1), 0, z(2), 0)} computes (the arc
+ *   between two latitudes on the same meridian), rather than its distance
+ *   from the origin.  Its angle is {@code atan2(z(2), z(1))} in degrees,
+ *   between 0 and 360.
+ *
+ *   <li> a comment is {@link #ON_TOPIC} if its length is strictly within
+ *   {@code perLen} percent of the title's and its angle is strictly within
+ *   {@code angleDeg} degrees of the title's, and is {@link #OFF_TOPIC}
+ *   otherwise, unless it has fewer than {@code minLength} characters, in
+ *   which case it is {@link #SHORT}.
+ *
+ * </ol>
+ *
+ * The signs of singular vectors are arbitrary, and {@code svds} does not fix
+ * them, so both lengths and angles depend on the signs chosen.  Each singular
+ * vector is given the sign that makes its entry of largest magnitude
+ * negative.  Since the counts are not negative, every entry of the first
+ * vector is then zero or negative, and all angles lie between 90 and 270
+ * degrees, where the comparison of angles, which like the MATLAB code does
+ * not wrap around 360 degrees, is not split.  The codes match those of the
+ * MATLAB code whenever {@code svds} returns vectors with the same signs.  If
+ * the matrix has rank less than 2, the second coordinate, for which the MATLAB
+ * code divides by a zero singular value, is {@code NaN}, and every comment is
+ * {@code OFF_TOPIC} or {@code SHORT}.
+ *
+ * <p>
+ *
+ * Rather than decomposing {@code A}, which has a row for every word, the
+ * classifier forms the {@code n x n} matrix {@code A'A} from the nonzero
+ * counts of each word and finds its two leading eigenvectors, which are the
+ * first two columns of {@code V}, with the cyclic Jacobi eigenvalue method.
+ * This takes {@code O(n^2)} memory and {@code O(n^3)} time per sweep, which is
+ * small for the threads of at most a few dozen comments that make up almost
+ * all feeds, but grows to seconds at a few hundred comments.  Titles with more
+ * than {@value #MAX_JACOBI_COLUMNS} columns are instead decomposed by a {@link
+ * LanczosSVD} of the sparse word count matrix, whose cost grows with the
+ * number of counts rather than with {@code n^3}.  All arrays are kept in a
+ * workspace that is reused for every title classified by the same task.
+ * {@link #classifyAll(List,int)} classifies many titles in parallel.
+ * Instances are immutable and thread-safe.
+ */
+public class CommentClassifier {
+
+    /**
+     * The code of a comment that is close to the title
+     */
+    public static final int ON_TOPIC = 1;
+
+    /**
+     * The code of a comment that is too short to be compared with the title
+     */
+    public static final int SHORT = 2;
+
+    /**
+     * The code of a comment that is not close to the title
+     */
+    public static final int OFF_TOPIC = 3;
+
+    /**
+     * The maximum number of sweeps of the Jacobi eigenvalue method
+     */
+    private static final int MAX_SWEEPS = 60;
+
+    /**
+     * The largest number of columns for which {@code A'A} is formed and
+     * decomposed with the Jacobi eigenvalue method
+     */
+    private static final int MAX_JACOBI_COLUMNS = 128;
+
+    /**
+     * The residual, relative to the largest singular value, to which the
+     * singular vectors of larger titles are found
+     */
+    private static final String LANCZOS_TOLERANCE = "1e-12";
+
+    /**
+     * The maximum number of Lanczos steps for a larger title
+     */
+    private static final String LANCZOS_MAX_STEPS = "300";
+
+    /**
+     * The magnitude below which an entry of a unit singular vector found by
+     * {@link LanczosSVD} is taken to be zero
+     */
+    private static final double NEGLIGIBLE = 1e-9;
+
+    /**
+     * The machine precision
+     */
+    private static final double EPSILON = Math.ulp(1.0);
+
+    private final double perLen;
+
+    private final double angleDeg;
+
+    private final int minLength;
+
+    /**
+     * Creates a classifier with the parameters of {@code
+     * getCommentComparisonMat(perLen, angleDeg, tl)}: the percentage by which
+     * the length of a comment may differ from the title's, the number of
+     * degrees by which its angle may differ, and the number of characters
+     * below which a comment is too short.
+     */
+    public CommentClassifier(double perLen, double angleDeg, int minLength) {
+        this.perLen = perLen;
+        this.angleDeg = angleDeg;
+        this.minLength = minLength;
+    }
+
+    /**
+     * Returns the code of each comment on the title, in the order of its
+     * comments.
+     */
+    public int[] classify(TitleComments thread) {
+        double[][] comparison = compare(thread, new Workspace());
+        int[] codes = new int[comparison.length - 1];
+        for (int i = 0; i < codes.length; ++i)
+            codes[i] = (int)comparison[i][2];
+        return codes;
+    }
+
+    /**
+     * Returns the comparison matrix of {@code getCommentComparisonMat}, which
+     * has a row for each comment followed by one for the title, holding the
+     * length, the angle and the code.  The code of the title is 0.
+     */
+    public double[][] compare(TitleComments thread) {
+        return compare(thread, new Workspace());
+    }
+
+    /**
+     * Returns the codes of the comments on each of the titles, in the order of
+     * the titles, using up to {@code numThreads} threads.
+     */
+    public List<int[]> classifyAll(final List<TitleComments> threads,
+                                   int numThreads) throws IOException {
+        // Use several ranges of titles per thread so that threads given titles
+        // with fewer comments do not sit idle
+        final long[] bounds = ParallelTasks.partition(
+            threads.size(),
+            Math.max(1, Math.min(threads.size(), 4 * numThreads)));
+        List<Callable<List<int[]>>> tasks =
+            new ArrayList<Callable<List<int[]>>>();
+        for (int i = 0; i + 1 < bounds.length; ++i) {
+            final int start = (int)bounds[i];
+            final int end = (int)bounds[i + 1];
+            tasks.add(new Callable<List<int[]>>() {
+                    public List<int[]> call() {
+                        Workspace workspace = new Workspace();
+                        List<int[]> codes = new ArrayList<int[]>(end - start);
+                        for (int t = start; t < end; ++t) {
+                            double[][] comparison =
+                                compare(threads.get(t), workspace);
+                            int[] threadCodes = new int[comparison.length - 1];
+                            for (int c = 0; c < threadCodes.length; ++c)
+                                threadCodes[c] = (int)comparison[c][2];
+                            codes.add(threadCodes);
+                        }
+                        return codes;
+                    }
+                });
+        }
+        List<int[]> codes = new ArrayList<int[]>(threads.size());
+        for (List<int[]> range : ParallelTasks.invokeAll(tasks, numThreads))
+            codes.addAll(range);
+        return codes;
+    }
+
+    /**
+     * Computes the comparison matrix of the title using the workspace.
+     */
+    private double[][] compare(TitleComments thread, Workspace w) {
+        List<String> comments = thread.comments();
+        int n = comments.size() + 1;
+        w.reset(n);
+        for (int c = 0; c < n - 1; ++c)
+            w.count(comments.get(c), c);
+        w.count(thread.title(), n - 1);
+        if (n <= MAX_JACOBI_COLUMNS) {
+            w.computeGram();
+            w.decompose();
+        }
+        else
+            w.decomposeSparse();
+
+        double[][] comparison = new double[n][3];
+        for (int i = 0; i < n; ++i) {
+            double z1 = w.z1[i];
+            double z2 = w.z2[i];
+            comparison[i][0] = Math.abs(z2 - z1);
+            double angle = Math.toDegrees(Math.atan2(z2, z1));
+            comparison[i][1] = (angle < 0) ? 360 + angle : angle;
+        }
+
+        double titleLength = comparison[n - 1][0];
+        double titleAngle = comparison[n - 1][1];
+        for (int i = 0; i < n - 1; ++i) {
+            double length = comparison[i][0];
+            double angle = comparison[i][1];
+            int code = OFF_TOPIC;
+            if (length < (1 + perLen / 100) * titleLength &&
+                    length > (1 - perLen / 100) * titleLength &&
+                    angle < titleAngle + angleDeg &&
+                    angle > titleAngle - angleDeg)
+                code = ON_TOPIC;
+            if (comments.get(i).length() < minLength)
+                code = SHORT;
+            comparison[i][2] = code;
+        }
+        return comparison;
+    }
+
+    /**
+     * Returns whether the character matches {@code \w}.
+     */
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    /**
+     * The arrays used to classify the comments on a title, which grow as
+     * needed and are reused for the next title.
+     */
+    private static class Workspace {
+
+        /**
+         * The index of each word of the title, in lower case
+         */
+        final Map<String,Integer> wordIds = new HashMap<String,Integer>();
+
+        /**
+         * The spellings of the words of the title, before conversion to lower
+         * case
+         */
+        final Set<String> spellings = new HashSet<String>();
+
+        /**
+         * The number of spellings of each word, which is the number of rows
+         * it has in the MATLAB word count matrix
+         */
+        int[] spellingCounts = new int[64];
+
+        /**
+         * The column, and the index of the nonzero count in that column, in
+         * which each word was last counted
+         */
+        int[] lastColumn = new int[64];
+
+        int[] lastEntry = new int[64];
+
+        /**
+         * The word and count of each nonzero count, in column order
+         */
+        int[] entryWords = new int[256];
+
+        int[] entryCounts = new int[256];
+
+        int[] entryColumns = new int[256];
+
+        int entries;
+
+        /**
+         * The nonzero counts sorted by word, starting at {@code
+         * wordStarts[word]}
+         */
+        int[] wordStarts = new int[65];
+
+        int[] sortedColumns = new int[256];
+
+        int[] sortedCounts = new int[256];
+
+        /**
+         * The {@code n x n} matrix {@code A'A}, which is diagonalized in place,
+         * and its eigenvectors, both row-major
+         */
+        double[] gram = new double[64];
+
+        double[] vectors = new double[64];
+
+        /**
+         * The coordinates of the columns
+         */
+        double[] z1 = new double[8];
+
+        double[] z2 = new double[8];
+
+        int n;
+
+        /**
+         * Prepares the workspace for a title with {@code n} columns.
+         */
+        void reset(int n) {
+            this.n = n;
+            wordIds.clear();
+            spellings.clear();
+            entries = 0;
+            if (n <= MAX_JACOBI_COLUMNS && gram.length < n * n) {
+                gram = new double[n * n];
+                vectors = new double[n * n];
+            }
+            if (z1.length < n) {
+                z1 = new double[n];
+                z2 = new double[n];
+            }
+        }
+
+        /**
+         * Counts the words of the text in the column.  Words are the nonempty
+         * matches of {@code (\w)*('')?(\w)*}, found from left to right.
+         */
+        void count(String text, int column) {
+            int length = text.length();
+            int i = 0;
+            while (i < length) {
+                int end = i;
+                while (end < length && isWordChar(text.charAt(end)))
+                    end++;
+                if (end < length && text.charAt(end) == '\'') {
+                    end++;
+                    while (end < length && isWordChar(text.charAt(end)))
+                        end++;
+                }
+                if (end == i) {
+                    i++;
+                    continue;
+                }
+                addWord(text.substring(i, end), column);
+                i = end;
+            }
+        }
+
+        /**
+         * Adds an occurrence of the word, as spelled in the text, to the
+         * column.
+         */
+        private void addWord(String spelling, int column) {
+            String word = spelling.toLowerCase(Locale.ENGLISH);
+            Integer id = wordIds.get(word);
+            int w;
+            if (id == null) {
+                w = wordIds.size();
+                wordIds.put(word, w);
+                if (w == spellingCounts.length) {
+                    spellingCounts = Arrays.copyOf(spellingCounts, 2 * w);
+                    lastColumn = Arrays.copyOf(lastColumn, 2 * w);
+                    lastEntry = Arrays.copyOf(lastEntry, 2 * w);
+                }
+                spellingCounts[w] = 0;
+                lastColumn[w] = -1;
+            } else
+                w = id.intValue();
+            if (spellings.add(spelling))
+                spellingCounts[w]++;
+
+            if (lastColumn[w] == column) {
+                entryCounts[lastEntry[w]]++;
+                return;
+            }
+            if (entries == entryWords.length) {
+                entryWords = Arrays.copyOf(entryWords, 2 * entries);
+                entryCounts = Arrays.copyOf(entryCounts, 2 * entries);
+                entryColumns = Arrays.copyOf(entryColumns, 2 * entries);
+            }
+            entryWords[entries] = w;
+            entryCounts[entries] = 1;
+            entryColumns[entries] = column;
+            lastColumn[w] = column;
+            lastEntry[w] = entries;
+            entries++;
+        }
+
+        /**
+         * Computes {@code A'A}, in which the row of each word counts once for
+         * each of its spellings.
+         */
+        void computeGram() {
+            // Sort the nonzero counts by word
+            int words = wordIds.size();
+            if (wordStarts.length < words + 1)
+                wordStarts = new int[2 * words + 1];
+            if (sortedColumns.length < entries) {
+                sortedColumns = new int[entryWords.length];
+                sortedCounts = new int[entryWords.length];
+            }
+            Arrays.fill(wordStarts, 0, words + 1, 0);
+            for (int e = 0; e < entries; ++e)
+                wordStarts[entryWords[e] + 1]++;
+            for (int w = 0; w < words; ++w)
+                wordStarts[w + 1] += wordStarts[w];
+            // lastEntry is reused as the next free position of each word
+            for (int w = 0; w < words; ++w)
+                lastEntry[w] = wordStarts[w];
+            for (int e = 0; e < entries; ++e) {
+                int position = lastEntry[entryWords[e]]++;
+                sortedColumns[position] = entryColumns[e];
+                sortedCounts[position] = entryCounts[e];
+            }
+
+            Arrays.fill(gram, 0, n * n, 0);
+            for (int w = 0; w < words; ++w) {
+                int start = wordStarts[w];
+                int end = wordStarts[w + 1];
+                double weight = spellingCounts[w];
+                for (int a = start; a < end; ++a) {
+                    double weighted = weight * sortedCounts[a];
+                    int row = sortedColumns[a] * n;
+                    for (int b = a; b < end; ++b)
+                        gram[row + sortedColumns[b]] +=
+                            weighted * sortedCounts[b];
+                }
+            }
+            // Only the upper triangle was filled, since each word's columns
+            // are in increasing order
+            for (int i = 0; i < n; ++i)
+                for (int j = i + 1; j < n; ++j)
+                    gram[j * n + i] = gram[i * n + j];
+        }
+
+        /**
+         * Finds the two leading eigenvectors of {@code A'A} and stores them,
+         * with the signs described by {@link CommentClassifier}, in {@link
+         * #z1} and {@link #z2}.
+         */
+        void decompose() {
+            double[] a = gram;
+            double[] v = vectors;
+            Arrays.fill(v, 0, n * n, 0);
+            for (int i = 0; i < n; ++i)
+                v[i * n + i] = 1;
+
+            for (int sweep = 0; sweep < MAX_SWEEPS; ++sweep) {
+                boolean rotated = false;
+                for (int p = 0; p < n; ++p) {
+                    for (int q = p + 1; q < n; ++q) {
+                        double apq = a[p * n + q];
+                        double app = a[p * n + p];
+                        double aqq = a[q * n + q];
+                        // Entries that are negligible next to their diagonal
+                        // entries cannot be reduced any further
+                        if (Math.abs(apq) <=
+                                EPSILON * Math.sqrt(Math.abs(app * aqq)))
+                            continue;
+                        rotated = true;
+                        double theta = (aqq - app) / (2 * apq);
+                        double t = Math.signum(theta)
+                            / (Math.abs(theta) + Math.hypot(theta, 1));
+                        if (theta == 0)
+                            t = 1;
+                        double c = 1 / Math.sqrt(t * t + 1);
+                        double s = t * c;
+                        for (int k = 0; k < n; ++k) {
+                            double akp = a[k * n + p];
+                            double akq = a[k * n + q];
+                            a[k * n + p] = c * akp - s * akq;
+                            a[k * n + q] = s * akp + c * akq;
+                        }
+                        for (int k = 0; k < n; ++k) {
+                            double apk = a[p * n + k];
+                            double aqk = a[q * n + k];
+                            a[p * n + k] = c * apk - s * aqk;
+                            a[q * n + k] = s * apk + c * aqk;
+                        }
+                        a[p * n + q] = 0;
+                        a[q * n + p] = 0;
+                        for (int k = 0; k < n; ++k) {
+                            double vkp = v[k * n + p];
+                            double vkq = v[k * n + q];
+                            v[k * n + p] = c * vkp - s * vkq;
+                            v[k * n + q] = s * vkp + c * vkq;
+                        }
+                    }
+                }
+                if (!rotated)
+                    break;
+            }
+
+            int first = -1;
+            int second = -1;
+            for (int i = 0; i < n; ++i) {
+                double value = a[i * n + i];
+                if (first < 0 || value > a[first * n + first]) {
+                    second = first;
+                    first = i;
+                } else if (second < 0 || value > a[second * n + second])
+                    second = i;
+            }
+            double largest = Math.max(0, a[first * n + first]);
+            storeVector(first, largest, z1);
+            storeVector(second, largest, z2);
+        }
+
+        /**
+         * Finds the two leading right singular vectors of {@code A} with a
+         * {@link LanczosSVD} of the word count matrix, in which, as in the
+         * MATLAB code, a word has an identical row for each of its spellings,
+         * and stores them in {@link #z1} and {@link #z2} as {@link
+         * #decompose()} does.  The starting vector has a fixed seed, so a
+         * title is always given the same codes.
+         */
+        void decomposeSparse() {
+            int words = wordIds.size();
+            int[] rowStarts = new int[words + 1];
+            for (int w = 0; w < words; ++w)
+                rowStarts[w + 1] = rowStarts[w] + spellingCounts[w];
+            // The counts are already in column order
+            int[] columnStarts = new int[n + 1];
+            int nonZeros = 0;
+            for (int e = 0; e < entries; ++e) {
+                int copies = spellingCounts[entryWords[e]];
+                columnStarts[entryColumns[e] + 1] += copies;
+                nonZeros += copies;
+            }
+            for (int c = 0; c < n; ++c)
+                columnStarts[c + 1] += columnStarts[c];
+            int[] rowIndices = new int[nonZeros];
+            float[] values = new float[nonZeros];
+            for (int e = 0, i = 0; e < entries; ++e) {
+                int w = entryWords[e];
+                for (int row = rowStarts[w]; row < rowStarts[w + 1]; ++row) {
+                    rowIndices[i] = row;
+                    values[i] = entryCounts[e];
+                    i++;
+                }
+            }
+            if (nonZeros == 0) {
+                Arrays.fill(z1, 0, n, Double.NaN);
+                Arrays.fill(z2, 0, n, Double.NaN);
+                return;
+            }
+
+            Properties props = new Properties();
+            props.setProperty(LanczosSVD.TOLERANCE_PROPERTY, LANCZOS_TOLERANCE);
+            props.setProperty(LanczosSVD.MAX_ITERATIONS_PROPERTY,
+                              LANCZOS_MAX_STEPS);
+            props.setProperty(LanczosSVD.SEED_PROPERTY, "1");
+            Matrix[] usv = new LanczosSVD(props).svd(
+                new SparseTermDocumentMatrix(rowStarts[words], n, columnStarts,
+                                             rowIndices, values), 2);
+            int k = usv[1].rows();
+            double largest = (k > 0) ? usv[1].get(0, 0) : 0;
+            for (int c = 0; c < 2; ++c) {
+                double[] z = (c == 0) ? z1 : z2;
+                double value = (c < k) ? usv[1].get(c, c) : 0;
+                // The eigenvalues of A'A are the squared singular values
+                if (largest == 0 ||
+                        value * value <= n * EPSILON * largest * largest) {
+                    Arrays.fill(z, 0, n, Double.NaN);
+                    continue;
+                }
+                int peak = 0;
+                for (int i = 1; i < n; ++i) {
+                    if (Math.abs(usv[2].get(c, i)) >
+                            Math.abs(usv[2].get(c, peak)))
+                        peak = i;
+                }
+                double sign = (usv[2].get(c, peak) > 0) ? -1 : 1;
+                for (int i = 0; i < n; ++i) {
+                    // Entries that are zero in exact arithmetic, such as those
+                    // of comments that share no words with the others, are
+                    // left with rounding errors by the random starting vector.
+                    // They are made -0, which gives them the length and angle
+                    // that the Jacobi method gives them.
+                    double entry = sign * usv[2].get(c, i);
+                    z[i] = (Math.abs(entry) <= NEGLIGIBLE) ? -0.0 : entry;
+                }
+            }
+        }
+
+        /**
+         * Stores the eigenvector of the column with the sign that makes its
+         * entry of largest magnitude negative, or {@code NaN}s if there is no
+         * such column or its singular value is zero to within rounding.
+         */
+        private void storeVector(int column, double largest, double[] z) {
+            if (column < 0 || largest == 0 ||
+                    gram[column * n + column] <= n * EPSILON * largest) {
+                Arrays.fill(z, 0, n, Double.NaN);
+                return;
+            }
+            int peak = 0;
+            for (int i = 1; i < n; ++i) {
+                if (Math.abs(vectors[i * n + column]) >
+                        Math.abs(vectors[peak * n + column]))
+                    peak = i;
+            }
+            double sign = (vectors[peak * n + column] > 0) ? -1 : 1;
+            for (int i = 0; i < n; ++i)
+                z[i] = sign * vectors[i * n + column];
+        }
+    }
+}
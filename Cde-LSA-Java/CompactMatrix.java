@@ -0,0 +1,276 @@
+package edu.ucla.sspace.lsa;
+
+/**
+ * A dense, row-major matrix held in memory with the precision of an {@link
+ * ElementType}.  Storing the reduced spaces of {@link LatentSemanticAnalysis}
+ * as {@link ElementType#FLOAT} halves their size, and storing them as {@link
+ * ElementType#INT8} reduces it by nearly eight times, which also lets more of
+ * them stay in the processor cache during searches.
+ *
+ * <p>
+ *
+ * Rows of {@code INT8} values are scalar-quantized: each row is stored as
+ * bytes {@code q} and a scale {@code s}, chosen so that the largest magnitude
+ * in the row maps to {@code 127}, and value {@code j} is read as {@code s *
+ * q[j]}.  Dot products with a row are computed directly from the stored form,
+ * without first converting the row to {@code double}s.
+ *
+ * <p>
+ *
+ * Rows are set once, after which the matrix may be read by any number of
+ * threads concurrently.
+ */
+public class CompactMatrix {
+
+    private final int rows;
+
+    private final int columns;
+
+    private final ElementType type;
+
+    /**
+     * The values of a {@code DOUBLE} matrix, or {@code null}
+     */
+    private final double[] doubles;
+
+    /**
+     * The values of a {@code FLOAT} matrix, or {@code null}
+     */
+    private final float[] floats;
+
+    /**
+     * The quantized values of an {@code INT8} matrix, or {@code null}
+     */
+    private final byte[] bytes;
+
+    /**
+     * The scale of each row of an {@code INT8} matrix, or {@code null}
+     */
+    private final float[] scales;
+
+    /**
+     * Creates a matrix of the provided size whose values are all zero.
+     *
+     * @throws IllegalArgumentException if the matrix has more values than can
+     *         be held in an array
+     */
+    public CompactMatrix(int rows, int columns, ElementType type) {
+        long size = (long)rows * columns;
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException(
+                "too many values for an in-memory matrix: " + rows + " x " +
+                columns);
+        this.rows = rows;
+        this.columns = columns;
+        this.type = type;
+        doubles = (type == ElementType.DOUBLE) ? new double[(int)size] : null;
+        floats = (type == ElementType.FLOAT) ? new float[(int)size] : null;
+        bytes = (type == ElementType.INT8) ? new byte[(int)size] : null;
+        scales = (type == ElementType.INT8) ? new float[rows] : null;
+    }
+
+    /**
+     * Returns the number of rows.
+     */
+    public int rows() {
+        return rows;
+    }
+
+    /**
+     * Returns the number of columns.
+     */
+    public int columns() {
+        return columns;
+    }
+
+    /**
+     * Returns the precision with which the values are stored.
+     */
+    public ElementType getElementType() {
+        return type;
+    }
+
+    /**
+     * Returns the number of bytes used by the values of the matrix.
+     */
+    public long bytes() {
+        long values = (long)rows * columns * type.bytes();
+        return (type == ElementType.INT8) ? values + 4L * rows : values;
+    }
+
+    /**
+     * Sets the row to the first {@link #columns()} values of the array,
+     * rounding them to the precision of the matrix.
+     */
+    public void setRow(int row, double[] values) {
+        checkRow(row);
+        int offset = row * columns;
+        switch (type) {
+        case DOUBLE:
+            System.arraycopy(values, 0, doubles, offset, columns);
+            break;
+        case FLOAT:
+            for (int j = 0; j < columns; ++j)
+                floats[offset + j] = (float)values[j];
+            break;
+        default:
+            scales[row] = quantize(values, columns, bytes, offset);
+        }
+    }
+
+    /**
+     * Quantizes the first {@code length} values to bytes starting at {@code
+     * offset} in {@code quantized}, and returns the scale by which the bytes
+     * are multiplied to recover the values.
+     */
+    static float quantize(double[] values, int length, byte[] quantized,
+                          int offset) {
+        double max = 0;
+        for (int j = 0; j < length; ++j)
+            max = Math.max(max, Math.abs(values[j]));
+        if (max == 0) {
+            for (int j = 0; j < length; ++j)
+                quantized[offset + j] = 0;
+            return 0;
+        }
+        float scale = (float)(max / 127);
+        for (int j = 0; j < length; ++j)
+            quantized[offset + j] = (byte)Math.round(values[j] / scale);
+        return scale;
+    }
+
+    /**
+     * Returns the value at the provided row and column.
+     */
+    public double get(int row, int column) {
+        checkRow(row);
+        if (column < 0 || column >= columns)
+            throw new IndexOutOfBoundsException(
+                "column " + column + " is not in [0, " + columns + ")");
+        int index = row * columns + column;
+        switch (type) {
+        case DOUBLE:
+            return doubles[index];
+        case FLOAT:
+            return floats[index];
+        default:
+            return scales[row] * bytes[index];
+        }
+    }
+
+    /**
+     * Returns a copy of the row.
+     */
+    public double[] getRow(int row) {
+        double[] values = new double[columns];
+        getRow(row, values, 0);
+        return values;
+    }
+
+    /**
+     * Copies the row into {@code values} starting at {@code offset}.
+     */
+    public void getRow(int row, double[] values, int offset) {
+        checkRow(row);
+        int start = row * columns;
+        switch (type) {
+        case DOUBLE:
+            System.arraycopy(doubles, start, values, offset, columns);
+            break;
+        case FLOAT:
+            for (int j = 0; j < columns; ++j)
+                values[offset + j] = floats[start + j];
+            break;
+        default:
+            float scale = scales[row];
+            for (int j = 0; j < columns; ++j)
+                values[offset + j] = scale * bytes[start + j];
+        }
+    }
+
+    /**
+     * Returns the dot product of the row and the first {@link #columns()}
+     * values of the vector.
+     */
+    public double dot(int row, double[] vector) {
+        int start = row * columns;
+        double sum = 0;
+        switch (type) {
+        case DOUBLE:
+            for (int j = 0; j < columns; ++j)
+                sum += doubles[start + j] * vector[j];
+            return sum;
+        case FLOAT:
+            for (int j = 0; j < columns; ++j)
+                sum += floats[start + j] * vector[j];
+            return sum;
+        default:
+            for (int j = 0; j < columns; ++j)
+                sum += bytes[start + j] * vector[j];
+            return sum * scales[row];
+        }
+    }
+
+    /**
+     * Returns the dot product of two rows.  The product of two {@code INT8}
+     * rows is computed in integer arithmetic and scaled once.
+     */
+    public double dot(int row1, int row2) {
+        int start1 = row1 * columns;
+        int start2 = row2 * columns;
+        switch (type) {
+        case DOUBLE: {
+            double sum = 0;
+            for (int j = 0; j < columns; ++j)
+                sum += doubles[start1 + j] * doubles[start2 + j];
+            return sum;
+        }
+        case FLOAT: {
+            double sum = 0;
+            for (int j = 0; j < columns; ++j)
+                sum += floats[start1 + j] * floats[start2 + j];
+            return sum;
+        }
+        default: {
+            // 127 * 127 * columns does not overflow an int for fewer than
+            // about 133,000 columns
+            int sum = 0;
+            for (int j = 0; j < columns; ++j)
+                sum += bytes[start1 + j] * bytes[start2 + j];
+            return sum * (double)scales[row1] * scales[row2];
+        }
+        }
+    }
+
+    /**
+     * Scales each row to unit length, leaving rows of zero length as zero.
+     */
+    public void normalizeRows() {
+        double[] row = new double[columns];
+        for (int i = 0; i < rows; ++i) {
+            if (type == ElementType.INT8) {
+                // Only the scale needs to change
+                double norm = Math.sqrt(dot(i, i));
+                if (norm > 0)
+                    scales[i] = (float)(scales[i] / norm);
+                continue;
+            }
+            getRow(i, row, 0);
+            double sum = 0;
+            for (double d : row)
+                sum += d * d;
+            if (sum == 0)
+                continue;
+            double scale = 1 / Math.sqrt(sum);
+            for (int j = 0; j < columns; ++j)
+                row[j] *= scale;
+            setRow(i, row);
+        }
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= rows)
+            throw new IndexOutOfBoundsException(
+                "row " + row + " is not in [0, " + rows + ")");
+    }
+}
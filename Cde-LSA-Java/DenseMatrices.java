@@ -0,0 +1,116 @@
+package edu.ucla.sspace.lsa;
+
+import java.util.Arrays;
+
+/**
+ * Utility methods for small and tall-and-skinny dense matrices stored as
+ * row-major {@code double} arrays, as used by the SVD implementations in this
+ * package.  An {@code m x n} matrix {@code a} holds element {@code (i, j)} at
+ * {@code a[i * n + j]}.
+ */
+public class DenseMatrices {
+
+    /**
+     * Uninstantiable
+     */
+    private DenseMatrices() { }
+
+    /**
+     * Replaces the columns of {@code a} with an orthonormal basis for the space
+     * they span and returns the upper-triangular {@code cols x cols} matrix
+     * {@code R} such that the original matrix equals {@code Q R}.
+     *
+     * <p>
+     *
+     * This uses classical Gram-Schmidt with one reorthogonalization pass, which
+     * is as accurate as modified Gram-Schmidt but touches the row-major array
+     * one row at a time.  A column that is numerically dependent on the
+     * previous columns is replaced with zeros and given a zero diagonal in
+     * {@code R}.
+     */
+    public static double[] orthonormalizeColumns(double[] a, int rows,
+                                                 int cols) {
+        double[] r = new double[cols * cols];
+        double[] coefficients = new double[cols];
+        for (int c = 0; c < cols; ++c) {
+            double originalNorm = columnNorm(a, rows, cols, c);
+            for (int pass = 0; pass < 2 && c > 0; ++pass) {
+                // project the column onto the previous columns ...
+                Arrays.fill(coefficients, 0, c, 0);
+                for (int i = 0; i < rows; ++i) {
+                    int row = i * cols;
+                    double v = a[row + c];
+                    if (v == 0)
+                        continue;
+                    for (int j = 0; j < c; ++j)
+                        coefficients[j] += a[row + j] * v;
+                }
+                // ... and remove the projection
+                for (int i = 0; i < rows; ++i) {
+                    int row = i * cols;
+                    double dot = 0;
+                    for (int j = 0; j < c; ++j)
+                        dot += a[row + j] * coefficients[j];
+                    a[row + c] -= dot;
+                }
+                for (int j = 0; j < c; ++j)
+                    r[j * cols + c] += coefficients[j];
+            }
+
+            double norm = columnNorm(a, rows, cols, c);
+            if (norm <= 1e-12 * originalNorm || norm == 0) {
+                for (int i = 0; i < rows; ++i)
+                    a[i * cols + c] = 0;
+                continue;
+            }
+            r[c * cols + c] = norm;
+            for (int i = 0; i < rows; ++i)
+                a[i * cols + c] /= norm;
+        }
+        return r;
+    }
+
+    /**
+     * Returns the Euclidean norm of a column.
+     */
+    private static double columnNorm(double[] a, int rows, int cols, int c) {
+        double sum = 0;
+        for (int i = 0; i < rows; ++i) {
+            double v = a[i * cols + c];
+            sum += v * v;
+        }
+        return Math.sqrt(sum);
+    }
+
+    /**
+     * Returns the product of the {@code rows x inner} matrix {@code a} and the
+     * {@code inner x cols} matrix {@code b}.
+     */
+    public static double[] multiply(double[] a, int rows, int inner,
+                                    double[] b, int cols) {
+        double[] c = new double[rows * cols];
+        for (int i = 0; i < rows; ++i) {
+            int cRow = i * cols;
+            for (int k = 0; k < inner; ++k) {
+                double v = a[i * inner + k];
+                if (v == 0)
+                    continue;
+                int bRow = k * cols;
+                for (int j = 0; j < cols; ++j)
+                    c[cRow + j] += v * b[bRow + j];
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Returns the transpose of the {@code rows x cols} matrix {@code a}.
+     */
+    public static double[] transpose(double[] a, int rows, int cols) {
+        double[] t = new double[rows * cols];
+        for (int i = 0; i < rows; ++i)
+            for (int j = 0; j < cols; ++j)
+                t[j * rows + i] = a[i * cols + j];
+        return t;
+    }
+}
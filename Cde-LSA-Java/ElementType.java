@@ -0,0 +1,42 @@
+package edu.ucla.sspace.lsa;
+
+/**
+ * The precisions with which the vectors of a reduced space may be stored, both
+ * in memory by {@link CompactMatrix} and on disk by {@link MappedMatrix}.
+ */
+public enum ElementType {
+
+    /**
+     * Eight byte {@code double} values, which are stored exactly
+     */
+    DOUBLE(8),
+
+    /**
+     * Four byte {@code float} values, which halve the size of the vectors at
+     * the cost of about seven significant digits of precision
+     */
+    FLOAT(4),
+
+    /**
+     * One byte integers scaled by a {@code float} for each row.  Each value is
+     * stored as the nearest of 255 evenly spaced levels between plus and minus
+     * the largest magnitude in its row, which reduces the size of the vectors
+     * by nearly eight times and keeps about two significant digits of each
+     * value relative to the largest in its row.
+     */
+    INT8(1);
+
+    private final int bytes;
+
+    private ElementType(int bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * Returns the number of bytes used by each value, not including the scale
+     * of each row of {@link #INT8} values.
+     */
+    public int bytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,133 @@
+package edu.ucla.sspace.lsa;
+
+import edu.ucla.sspace.common.SemanticSpace;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Utility methods that pass the comments read by the feed parsers to a {@link
+ * SemanticSpace} as documents.  These are kept apart from {@link FeedParser},
+ * {@link MappedFeedReader} and {@link MailbucketParser}, which need only the
+ * JDK, so that only this class depends on the S-Space library.
+ */
+public class FeedDocuments {
+
+    /**
+     * Uninstantiable
+     */
+    private FeedDocuments() { }
+
+    /**
+     * Processes the comment of each of the remaining records of the feed as a
+     * document of the semantic space, and then closes the feed.
+     */
+    public static void processComments(FeedParser feed,
+                                       final SemanticSpace space)
+            throws IOException {
+        feed.parse(new FeedParser.RecordHandler() {
+                public void handle(String title, String comment)
+                        throws IOException {
+                    space.processDocument(
+                        new BufferedReader(new StringReader(comment)));
+                }
+            });
+    }
+
+    /**
+     * Processes the comment of each record of the feed as a document of the
+     * semantic space, using up to {@code numThreads} threads.  The space must
+     * support concurrent calls to {@code processDocument}.
+     */
+    public static void processComments(MappedFeedReader feed,
+                                       final SemanticSpace space,
+                                       int numThreads) throws IOException {
+        feed.parse(new FeedParser.RecordHandler() {
+                public void handle(String title, String comment)
+                        throws IOException {
+                    space.processDocument(
+                        new BufferedReader(new StringReader(comment)));
+                }
+            }, numThreads);
+    }
+
+    /**
+     * Processes the body of each of the remaining comments of the mailbucket
+     * dump as a document of the semantic space, and then closes the dump.
+     */
+    public static void processComments(MailbucketParser dump,
+                                       final SemanticSpace space)
+            throws IOException {
+        dump.parse(new MailbucketParser.CommentHandler() {
+                public void handle(String title, String commenter,
+                                   String timestamp, String body)
+                        throws IOException {
+                    space.processDocument(
+                        new BufferedReader(new StringReader(body)));
+                }
+            });
+    }
+
+    /**
+     * Processes the comments of each post in the mailbucket dump as a single
+     * document of the semantic space, and each comment whose post is not known
+     * as a document of its own.
+     *
+     * <p>
+     *
+     * The dump is read twice.  The first pass counts the comments on each
+     * post, so that during the second pass the document of a post is
+     * processed, and its comments released, as soon as its last comment has
+     * been read.  Only the comments of the posts that are still receiving
+     * comments at some point in the dump are held in memory, rather than the
+     * whole dump.
+     */
+    public static void processPosts(File dump, final SemanticSpace space)
+            throws IOException {
+        final Map<String,Integer> remaining = new HashMap<String,Integer>();
+        new MailbucketParser(MailbucketParser.open(dump)).parse(
+            new MailbucketParser.CommentHandler() {
+                public void handle(String title, String commenter,
+                                   String timestamp, String body) {
+                    if (title != null) {
+                        Integer count = remaining.get(title);
+                        remaining.put(title, (count == null)
+                                      ? 1 : count.intValue() + 1);
+                    }
+                }
+            });
+
+        final Map<String,StringBuilder> open =
+            new HashMap<String,StringBuilder>();
+        new MailbucketParser(MailbucketParser.open(dump)).parse(
+            new MailbucketParser.CommentHandler() {
+                public void handle(String title, String commenter,
+                                   String timestamp, String body)
+                        throws IOException {
+                    if (title == null) {
+                        space.processDocument(
+                            new BufferedReader(new StringReader(body)));
+                        return;
+                    }
+                    StringBuilder post = open.get(title);
+                    if (post == null) {
+                        post = new StringBuilder();
+                        open.put(title, post);
+                    }
+                    post.append(body).append('\n');
+                    int count = remaining.get(title).intValue() - 1;
+                    remaining.put(title, count);
+                    if (count == 0) {
+                        open.remove(title);
+                        space.processDocument(new BufferedReader(
+                            new StringReader(post.toString())));
+                    }
+                }
+            });
+    }
+}
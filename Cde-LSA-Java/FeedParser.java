@@ -0,0 +1,273 @@
+package edu.ucla.sspace.lsa;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+import java.nio.charset.Charset;
+
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A streaming parser for the comment feeds of IBM Many Eyes, in which each
+ * comment is recorded as
+ *
+ * <pre>
+ *   Jan 31, 2010 (14 hours ago)
+ *   from Anonymous on 'World aid to Haiti (Aid $ per capita)'
+ *   Where's India on the total population visual?
+ *
+ *   Add starLikeShareShare with noteEmailKeep unreadAdd tags
+ * </pre>
+ *
+ * A record starts with a header line of at least four words whose first word
+ * is {@code from}, and its title is the text between the first and last
+ * single quotes of the header.  The comment is the line after the header and
+ * any lines that follow it, joined by spaces, up to a blank line, a line
+ * starting with {@code Add starLikeShareShare}, or the header of the next
+ * record.  All other lines are ignored.
+ *
+ * <p>
+ *
+ * Records are read one at a time, either by calling {@link #next()} and
+ * reading {@link #title()} and {@link #comment()}, or by passing each to a
+ * {@link RecordHandler} with {@link #parse(RecordHandler)}, so a feed of any
+ * size may be parsed without being held in memory.  {@link
+ * FeedDocuments} passes the comments to a semantic space as documents.  This
+ * class needs only the JDK, so that the feed formatter can be built without
+ * the S-Space library, and is not thread-safe.
+ */
+public class FeedParser {
+
+    /**
+     * A consumer of the records of a feed.
+     */
+    public interface RecordHandler {
+
+        /**
+         * Handles the comment made on the item with the provided title.
+         */
+        void handle(String title, String comment) throws IOException;
+    }
+
+    /**
+     * The size of the buffers used to read a feed file
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The first word of the header of a record
+     */
+    private static final String HEADER_WORD = "from";
+
+    /**
+     * The first word of the line that ends a record
+     */
+    private static final String END_WORD = "add";
+
+    /**
+     * The second word of the line that ends a record
+     */
+    private static final String END_SECOND_WORD = "starLikeShareShare";
+
+    private final BufferedReader reader;
+
+    /**
+     * A header line that has been read but not yet started as a record, or
+     * {@code null} if there is none
+     */
+    private String pendingHeader;
+
+    /**
+     * The comment of the current record as it is built
+     */
+    private final StringBuilder commentBuilder;
+
+    private String title;
+
+    private String comment;
+
+    /**
+     * Creates a parser that reads the feed from the provided reader.
+     */
+    public FeedParser(Reader reader) {
+        this.reader = (reader instanceof BufferedReader)
+            ? (BufferedReader)reader
+            : new BufferedReader(reader, BUFFER_SIZE);
+        pendingHeader = null;
+        commentBuilder = new StringBuilder();
+        title = null;
+        comment = null;
+    }
+
+    /**
+     * Opens the feed file for reading with the platform's default character
+     * set.  Files compressed with gzip are detected by their first bytes and
+     * decompressed as they are read.
+     */
+    public static BufferedReader open(File feed) throws IOException {
+        return open(feed, Charset.defaultCharset());
+    }
+
+    /**
+     * Opens the feed file for reading with the provided character set,
+     * decompressing it if it was compressed with gzip.
+     */
+    public static BufferedReader open(File feed, Charset charset)
+            throws IOException {
+        InputStream in =
+            new BufferedInputStream(new FileInputStream(feed), BUFFER_SIZE);
+        in.mark(2);
+        int first = in.read();
+        int second = in.read();
+        in.reset();
+        if (first == (GZIPInputStream.GZIP_MAGIC & 0xff) &&
+                second == (GZIPInputStream.GZIP_MAGIC >>> 8))
+            in = new GZIPInputStream(in, BUFFER_SIZE);
+        return new BufferedReader(new InputStreamReader(in, charset),
+                                  BUFFER_SIZE);
+    }
+
+    /**
+     * Advances to the next record and returns {@code true}, or returns {@code
+     * false} if there are no more records.
+     */
+    public boolean next() throws IOException {
+        title = null;
+        comment = null;
+        String header = pendingHeader;
+        pendingHeader = null;
+        String line;
+        while (header == null) {
+            if ((line = reader.readLine()) == null)
+                return false;
+            if (isHeader(line))
+                header = line;
+        }
+
+        // The line after the header is always part of the comment, even if it
+        // is blank
+        if ((line = reader.readLine()) == null)
+            return false;
+        commentBuilder.setLength(0);
+        commentBuilder.append(line);
+        while ((line = reader.readLine()) != null) {
+            if (isBlank(line) || isEnd(line))
+                break;
+            if (isHeader(line)) {
+                pendingHeader = line;
+                break;
+            }
+            commentBuilder.append(' ').append(line);
+        }
+        title = header.substring(header.indexOf('\'') + 1,
+                                 header.lastIndexOf('\''));
+        comment = commentBuilder.toString();
+        return true;
+    }
+
+    /**
+     * Returns the title of the current record.
+     */
+    public String title() {
+        return title;
+    }
+
+    /**
+     * Returns the comment of the current record.
+     */
+    public String comment() {
+        return comment;
+    }
+
+    /**
+     * Passes each of the remaining records to the handler, and then closes the
+     * feed.
+     */
+    public void parse(RecordHandler handler) throws IOException {
+        try {
+            while (next())
+                handler.handle(title, comment);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Closes the feed.
+     */
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * Returns whether the line is the header of a record: at least four words,
+     * the first of which is {@code from}, and a title in single quotes.
+     */
+    static boolean isHeader(String line) {
+        int start = skipSpace(line, 0);
+        if (!line.regionMatches(true, start, HEADER_WORD, 0,
+                                HEADER_WORD.length()))
+            return false;
+        int end = start + HEADER_WORD.length();
+        if (end < line.length() && !isSpace(line.charAt(end)))
+            return false;
+        // Count the remaining words, stopping once there are enough
+        int words = 1;
+        for (int i = skipSpace(line, end); i < line.length() && words < 4;
+                 i = skipSpace(line, i)) {
+            words++;
+            while (i < line.length() && !isSpace(line.charAt(i)))
+                i++;
+        }
+        int firstQuote = line.indexOf('\'');
+        return words >= 4 && firstQuote < line.lastIndexOf('\'');
+    }
+
+    /**
+     * Returns whether the line starts with {@code Add starLikeShareShare}.
+     */
+    static boolean isEnd(String line) {
+        int start = skipSpace(line, 0);
+        if (!line.regionMatches(true, start, END_WORD, 0, END_WORD.length()))
+            return false;
+        int end = start + END_WORD.length();
+        if (end == line.length() || !isSpace(line.charAt(end)))
+            return false;
+        start = skipSpace(line, end);
+        end = start + END_SECOND_WORD.length();
+        return line.regionMatches(true, start, END_SECOND_WORD, 0,
+                                  END_SECOND_WORD.length())
+            && (end == line.length() || isSpace(line.charAt(end)));
+    }
+
+    /**
+     * Returns whether the line has no words.
+     */
+    private static boolean isBlank(String line) {
+        return skipSpace(line, 0) == line.length();
+    }
+
+    /**
+     * Returns the position of the first character at or after {@code i} that
+     * does not separate words.
+     */
+    private static int skipSpace(String line, int i) {
+        while (i < line.length() && isSpace(line.charAt(i)))
+            i++;
+        return i;
+    }
+
+    /**
+     * Returns whether the character separates words, using the same
+     * characters as the default {@link java.util.StringTokenizer}.
+     */
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+}
@@ -0,0 +1,439 @@
+package edu.ucla.sspace.lsa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import java.util.logging.Logger;
+
+
+/**
+ * A rank-{@code k} singular value decomposition {@code A ~ U S V'} that is
+ * updated as new columns are appended to {@code A}, without revisiting the
+ * existing columns.  This is the update described in
+ *
+ * <ul>
+ *
+ *   <li style="font-family:Garamond, Georgia, serif"> Brand, M. (2006).  Fast
+ *     low-rank modifications of the thin singular value decomposition.
+ *     <i>Linear Algebra and its Applications</i>, <b>415</b>, 20-30. </li>
+ *
+ * </ul>
+ *
+ * For a batch of {@code c} new columns {@code C}, the part of {@code C}
+ * outside the span of {@code U} is orthonormalized as {@code C - U U'C = J K},
+ * and the small {@code (k + c) x (k + c)} matrix {@code [S U'C; 0 K]} is
+ * decomposed.  Its leading {@code k} singular vectors rotate {@code [U J]}
+ * and {@code [V 0; 0 I]} into the factors of the updated matrix, and its
+ * remaining singular values are discarded.
+ *
+ * <p>
+ *
+ * The rows of {@code U} are updated in place, which takes {@code O(rows * k *
+ * (k + c))} time per batch.  So that the cost of a batch does not grow with
+ * the number of columns, {@code V} is kept as the product {@code B R} of a
+ * matrix {@code B} whose existing rows never change and a small {@code k x k}
+ * matrix {@code R} that accumulates the rotations.  Each row of {@code V} is
+ * computed from {@code B} and {@code R} when it is requested.  Rounding
+ * slowly erodes the orthogonality of the factors, so every few batches they
+ * are {@link #reorthogonalize() reorthogonalized}, which takes {@code O((rows
+ * + columns) * k^2)} time and resets {@code R}.
+ *
+ * <p>
+ *
+ * The columns of a batch may have more rows than the current factors, in
+ * which case the new rows of {@code A}, such as terms first seen in the batch,
+ * are zero in all of the existing columns.
+ *
+ * <p>
+ *
+ * This class is not thread-safe.
+ */
+public class IncrementalSVD {
+
+    /**
+     * The logger used to record all output
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(IncrementalSVD.class.getName());
+
+    /**
+     * The smallest ratio of the smallest to the largest singular value of the
+     * rotation of {@code B} for it to be inverted, rather than applied to
+     * {@code B} directly
+     */
+    private static final double MIN_RECIPROCAL_CONDITION = 1e-8;
+
+    /**
+     * The number of dimensions retained
+     */
+    private final int k;
+
+    /**
+     * The number of batches after which the factors are reorthogonalized, or
+     * 0 to never reorthogonalize them automatically
+     */
+    private final int reorthogonalizationInterval;
+
+    /**
+     * The rows of the left factor
+     */
+    private final List<double[]> u;
+
+    private double[] s;
+
+    /**
+     * The rows of the unrotated right factor {@code B}
+     */
+    private final List<double[]> b;
+
+    /**
+     * The {@code k x k} rotation {@code R} of the right factor, or {@code
+     * null} if it is the identity
+     */
+    private double[] r;
+
+    /**
+     * The inverse of {@link #r}, or {@code null} if it is the identity
+     */
+    private double[] rInverse;
+
+    /**
+     * The number of batches since the factors were last reorthogonalized
+     */
+    private int batchesSinceReorthogonalization;
+
+    /**
+     * The sum of the squares of the singular values discarded by all updates
+     */
+    private double discardedSquaredNorm;
+
+    /**
+     * The sum of the squares of the singular values of the initial
+     * decomposition and of the norms of all the columns added since
+     */
+    private double totalSquaredNorm;
+
+    /**
+     * Creates an incremental decomposition from an existing one, whose
+     * factors are copied.
+     *
+     * @param leftVectors the {@code rows x k} left singular vectors
+     * @param singularValues the {@code k} singular values
+     * @param rightVectors the {@code columns x k} right singular vectors,
+     *        which is the transpose of the third matrix returned by {@link
+     *        edu.ucla.sspace.matrix.SVD#svd(java.io.File,
+     *        edu.ucla.sspace.matrix.SVD.Algorithm,int) SVD.svd}
+     * @param reorthogonalizationInterval the number of batches after which
+     *        the factors are reorthogonalized, or 0 to only reorthogonalize
+     *        them when {@link #reorthogonalize()} is called
+     */
+    public IncrementalSVD(CompactMatrix leftVectors, double[] singularValues,
+                          CompactMatrix rightVectors,
+                          int reorthogonalizationInterval) {
+        k = singularValues.length;
+        if (leftVectors.columns() != k || rightVectors.columns() != k)
+            throw new IllegalArgumentException(
+                "the factors must have " + k + " columns");
+        if (reorthogonalizationInterval < 0)
+            throw new IllegalArgumentException(
+                "negative reorthogonalization interval: " +
+                reorthogonalizationInterval);
+        this.reorthogonalizationInterval = reorthogonalizationInterval;
+        u = new ArrayList<double[]>(leftVectors.rows());
+        for (int i = 0; i < leftVectors.rows(); ++i)
+            u.add(leftVectors.getRow(i));
+        b = new ArrayList<double[]>(rightVectors.rows());
+        for (int i = 0; i < rightVectors.rows(); ++i)
+            b.add(rightVectors.getRow(i));
+        s = singularValues.clone();
+        r = null;
+        rInverse = null;
+        batchesSinceReorthogonalization = 0;
+        discardedSquaredNorm = 0;
+        totalSquaredNorm = 0;
+        for (double sv : s)
+            totalSquaredNorm += sv * sv;
+    }
+
+    /**
+     * Returns the number of rows of the decomposed matrix.
+     */
+    public int rows() {
+        return u.size();
+    }
+
+    /**
+     * Returns the number of columns of the decomposed matrix.
+     */
+    public int columns() {
+        return b.size();
+    }
+
+    /**
+     * Returns the number of dimensions retained by the decomposition.
+     */
+    public int dimensions() {
+        return k;
+    }
+
+    /**
+     * Returns the singular values in descending order.
+     */
+    public double[] getSingularValues() {
+        return s.clone();
+    }
+
+    /**
+     * Returns a row of the left factor {@code U}.
+     */
+    public double[] getLeftVector(int row) {
+        return u.get(row).clone();
+    }
+
+    /**
+     * Returns a row of the right factor {@code V}, which corresponds to a
+     * column of the decomposed matrix.
+     */
+    public double[] getRightVector(int column) {
+        double[] row = b.get(column);
+        return (r == null)
+            ? row.clone()
+            : DenseMatrices.multiply(row, 1, k, r, k);
+    }
+
+    /**
+     * Returns a bound on how much less accurate the updated factors are than
+     * a full rebuild, relative to the norm of the decomposed matrix.  If the
+     * initial decomposition was an exact truncated SVD, the rows of its
+     * residual are orthogonal to {@code V}, and each update preserves this,
+     * so every update adds exactly the squares of its discarded singular
+     * values to the squared Frobenius error of the factors.  Appending columns
+     * never lowers the error of the best rank-{@code k} approximation, so the
+     * squared error of the updated factors exceeds that of a rank-{@code k}
+     * SVD of the whole matrix by at most the sum of those squares.  The square
+     * root of that sum is returned divided by the norm of the matrix, as
+     * estimated from the initial singular values and the added columns, which
+     * makes the bound conservative.
+     */
+    public double getDrift() {
+        return (totalSquaredNorm > 0)
+            ? Math.sqrt(discardedSquaredNorm / totalSquaredNorm)
+            : 0;
+    }
+
+    /**
+     * Appends the columns of the matrix to the decomposed matrix and updates
+     * the decomposition.  The matrix may have more rows than the decomposed
+     * matrix, but not fewer.
+     */
+    public void update(SparseTermDocumentMatrix columns) {
+        int m = columns.rows();
+        int c = columns.columns();
+        if (m < u.size())
+            throw new IllegalArgumentException(
+                "expected at least " + u.size() + " rows: " + m);
+        if (c == 0)
+            return;
+        while (u.size() < m)
+            u.add(new double[k]);
+        int[] columnStarts = columns.columnStarts();
+        int[] rowIndices = columns.rowIndices();
+        float[] values = columns.values();
+
+        // L = U'C, which is k x c, stored row-major
+        int l = k + c;
+        double[] projection = new double[k * c];
+        for (int col = 0; col < c; ++col) {
+            for (int i = columnStarts[col]; i < columnStarts[col + 1]; ++i) {
+                double[] row = u.get(rowIndices[i]);
+                double v = values[i];
+                totalSquaredNorm += v * v;
+                for (int d = 0; d < k; ++d)
+                    projection[d * c + col] += v * row[d];
+            }
+        }
+
+        // H = C - U L = J K, which is m x c
+        double[] h = new double[m * c];
+        for (int i = 0; i < m; ++i) {
+            double[] row = u.get(i);
+            for (int d = 0; d < k; ++d) {
+                double ud = row[d];
+                if (ud == 0)
+                    continue;
+                for (int col = 0; col < c; ++col)
+                    h[i * c + col] -= ud * projection[d * c + col];
+            }
+        }
+        for (int col = 0; col < c; ++col)
+            for (int i = columnStarts[col]; i < columnStarts[col + 1]; ++i)
+                h[rowIndices[i] * c + col] += values[i];
+        double[] kFactor = DenseMatrices.orthonormalizeColumns(h, m, c);
+
+        // M = [S L; 0 K]
+        double[] middle = new double[l * l];
+        for (int d = 0; d < k; ++d) {
+            middle[d * l + d] = s[d];
+            for (int col = 0; col < c; ++col)
+                middle[d * l + k + col] = projection[d * c + col];
+        }
+        for (int i = 0; i < c; ++i)
+            for (int j = 0; j < c; ++j)
+                middle[(k + i) * l + k + j] = kFactor[i * c + j];
+        JacobiSVD svd = new JacobiSVD(middle, l, l);
+        double[] mu = svd.getU();
+        double[] mv = svd.getV();
+        double[] ms = svd.getSingularValues();
+        for (int d = k; d < l; ++d)
+            discardedSquaredNorm += ms[d] * ms[d];
+        s = new double[k];
+        System.arraycopy(ms, 0, s, 0, k);
+
+        // U = [U J] Mu, keeping the first k columns of Mu
+        double[] updated = new double[k];
+        for (int i = 0; i < m; ++i) {
+            double[] row = u.get(i);
+            Arrays.fill(updated, 0);
+            for (int t = 0; t < l; ++t) {
+                double v = (t < k) ? row[t] : h[i * c + t - k];
+                if (v == 0)
+                    continue;
+                for (int d = 0; d < k; ++d)
+                    updated[d] += v * mu[t * l + d];
+            }
+            System.arraycopy(updated, 0, row, 0, k);
+        }
+
+        // V = [V 0; 0 I] Mv.  The existing rows become V Mv1 = B (R Mv1),
+        // and the new rows Mv2 are stored as Mv2 (R Mv1)^-1.
+        double[] mv1 = new double[k * k];
+        for (int t = 0; t < k; ++t)
+            System.arraycopy(mv, t * l, mv1, t * k, k);
+        JacobiSVD rotation = new JacobiSVD(mv1, k, k);
+        double[] rs = rotation.getSingularValues();
+        double[] newR = (r == null)
+            ? mv1
+            : DenseMatrices.multiply(r, k, k, mv1, k);
+        if (rs[k - 1] > MIN_RECIPROCAL_CONDITION * rs[0]) {
+            double[] mv1Inverse = inverse(rotation);
+            rInverse = (rInverse == null)
+                ? mv1Inverse
+                : DenseMatrices.multiply(mv1Inverse, k, k, rInverse, k);
+            r = newR;
+        }
+        else {
+            // The rotation is too close to singular to be inverted, so apply
+            // it to every existing row instead
+            LOGGER.fine("applying an ill-conditioned rotation to " + b.size() +
+                        " rows");
+            applyRotation(newR);
+        }
+        for (int col = 0; col < c; ++col) {
+            double[] row = new double[k];
+            System.arraycopy(mv, (k + col) * l, row, 0, k);
+            b.add((rInverse == null)
+                  ? row
+                  : DenseMatrices.multiply(row, 1, k, rInverse, k));
+        }
+
+        if (reorthogonalizationInterval > 0 &&
+                ++batchesSinceReorthogonalization >=
+                reorthogonalizationInterval)
+            reorthogonalize();
+    }
+
+    /**
+     * Returns the inverse of the square matrix with the provided
+     * decomposition, {@code Y S^-1 X'}.
+     */
+    private static double[] inverse(JacobiSVD svd) {
+        int n = svd.rows();
+        double[] x = svd.getU();
+        double[] y = svd.getV();
+        double[] sv = svd.getSingularValues();
+        double[] inv = new double[n * n];
+        for (int i = 0; i < n; ++i) {
+            for (int j = 0; j < n; ++j) {
+                double sum = 0;
+                for (int t = 0; t < n; ++t)
+                    sum += y[i * n + t] * x[j * n + t] / sv[t];
+                inv[i * n + j] = sum;
+            }
+        }
+        return inv;
+    }
+
+    /**
+     * Replaces each row of {@code B} with its product with the rotation and
+     * resets the rotation to the identity.
+     */
+    private void applyRotation(double[] rotation) {
+        for (int i = 0; i < b.size(); ++i)
+            b.set(i, DenseMatrices.multiply(b.get(i), 1, k, rotation, k));
+        r = null;
+        rInverse = null;
+    }
+
+    /**
+     * Restores the orthogonality of the factors, which is slowly lost to
+     * rounding as updates are applied.  Both factors are orthonormalized as
+     * {@code U = Qu Ru} and {@code V = Qv Rv}, and the small matrix {@code Ru
+     * S Rv'} is decomposed as {@code X S' Y'} to give the factors {@code Qu
+     * X}, {@code S'} and {@code Qv Y}.
+     */
+    public void reorthogonalize() {
+        batchesSinceReorthogonalization = 0;
+        int m = u.size();
+        int n = b.size();
+        double[] uArray = new double[m * k];
+        for (int i = 0; i < m; ++i)
+            System.arraycopy(u.get(i), 0, uArray, i * k, k);
+        double[] vArray = new double[n * k];
+        for (int i = 0; i < n; ++i)
+            System.arraycopy(getRightVector(i), 0, vArray, i * k, k);
+        double[] ru = DenseMatrices.orthonormalizeColumns(uArray, m, k);
+        double[] rv = DenseMatrices.orthonormalizeColumns(vArray, n, k);
+        LOGGER.fine("orthogonality error before reorthogonalization: " +
+                    Math.max(orthogonalityError(ru), orthogonalityError(rv)));
+
+        // Ru S Rv'
+        double[] core = new double[k * k];
+        for (int i = 0; i < k; ++i)
+            for (int j = 0; j < k; ++j) {
+                double sum = 0;
+                for (int t = 0; t < k; ++t)
+                    sum += ru[i * k + t] * s[t] * rv[j * k + t];
+                core[i * k + j] = sum;
+            }
+        JacobiSVD svd = new JacobiSVD(core, k, k);
+        s = svd.getSingularValues().clone();
+        double[] newU = DenseMatrices.multiply(uArray, m, k, svd.getU(), k);
+        double[] newV = DenseMatrices.multiply(vArray, n, k, svd.getV(), k);
+        for (int i = 0; i < m; ++i)
+            System.arraycopy(newU, i * k, u.get(i), 0, k);
+        for (int i = 0; i < n; ++i) {
+            double[] row = new double[k];
+            System.arraycopy(newV, i * k, row, 0, k);
+            b.set(i, row);
+        }
+        r = null;
+        rInverse = null;
+    }
+
+    /**
+     * Returns the largest entry of {@code R'R - I}, which equals {@code Q'Q -
+     * I} for the matrix {@code Q R} whose columns were orthonormalized.
+     */
+    private double orthogonalityError(double[] rFactor) {
+        double max = 0;
+        for (int i = 0; i < k; ++i)
+            for (int j = 0; j < k; ++j) {
+                double sum = 0;
+                for (int t = 0; t < k; ++t)
+                    sum += rFactor[t * k + i] * rFactor[t * k + j];
+                max = Math.max(max, Math.abs(sum - (i == j ? 1 : 0)));
+            }
+        return max;
+    }
+}
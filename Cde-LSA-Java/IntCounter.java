@@ -0,0 +1,193 @@
+package edu.ucla.sspace.lsa;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing map from {@code int} keys to {@code int} counts that does
+ * not box its keys or values.  Keys are stored in the order in which they were
+ * first counted, and may be iterated over by position:
+ *
+ * <pre>
+ *   for (int i = 0; i &lt; counter.size(); ++i)
+ *       process(counter.key(i), counter.count(i));
+ * </pre>
+ *
+ * {@link #clear()} only touches the entries that were used, so a single
+ * instance may be cheaply reused for many small sets of counts, such as the
+ * term counts of each document processed by a thread.
+ *
+ * <p>
+ *
+ * This class is not thread-safe.
+ */
+public class IntCounter {
+
+    /**
+     * The default number of distinct keys for which space is allocated
+     */
+    private static final int DEFAULT_EXPECTED_SIZE = 256;
+
+    /**
+     * The hash table, where each slot holds one plus the position of the key
+     * in {@link #keys}, or {@code 0} if the slot is empty.
+     */
+    private int[] table;
+
+    /**
+     * The distinct keys in the order in which they were added
+     */
+    private int[] keys;
+
+    /**
+     * The count for the key at the same position in {@link #keys}
+     */
+    private int[] counts;
+
+    /**
+     * The slot in {@link #table} used by the key at the same position in
+     * {@link #keys}
+     */
+    private int[] slots;
+
+    /**
+     * The number of distinct keys
+     */
+    private int size;
+
+    /**
+     * Creates an empty counter.
+     */
+    public IntCounter() {
+        this(DEFAULT_EXPECTED_SIZE);
+    }
+
+    /**
+     * Creates an empty counter with space for the expected number of distinct
+     * keys.
+     */
+    public IntCounter(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2)
+            capacity <<= 1;
+        table = new int[capacity];
+        keys = new int[capacity >> 1];
+        counts = new int[capacity >> 1];
+        slots = new int[capacity >> 1];
+        size = 0;
+    }
+
+    /**
+     * Returns the first slot to probe for the provided key.
+     */
+    private static int hash(int key, int mask) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Returns the slot containing the key, or the empty slot where it would be
+     * inserted.
+     */
+    private int find(int key) {
+        int mask = table.length - 1;
+        int slot = hash(key, mask);
+        for (int pos; (pos = table[slot]) != 0; slot = (slot + 1) & mask) {
+            if (keys[pos - 1] == key)
+                break;
+        }
+        return slot;
+    }
+
+    /**
+     * Increments the count for the key by one, returning the new count.
+     */
+    public int increment(int key) {
+        return add(key, 1);
+    }
+
+    /**
+     * Adds {@code delta} to the count for the key, returning the new count.
+     */
+    public int add(int key, int delta) {
+        int slot = find(key);
+        int pos = table[slot];
+        if (pos != 0)
+            return counts[pos - 1] += delta;
+
+        if (size == keys.length) {
+            grow();
+            slot = find(key);
+        }
+        keys[size] = key;
+        counts[size] = delta;
+        slots[size] = slot;
+        table[slot] = ++size;
+        return delta;
+    }
+
+    /**
+     * Returns the count for the key, or {@code 0} if the key has not been
+     * counted.
+     */
+    public int get(int key) {
+        int pos = table[find(key)];
+        return (pos == 0) ? 0 : counts[pos - 1];
+    }
+
+    /**
+     * Returns the number of distinct keys that have been counted.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns {@code true} if no keys have been counted.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the key at the provided position, where positions are assigned
+     * in the order keys were first counted.
+     */
+    public int key(int position) {
+        return keys[position];
+    }
+
+    /**
+     * Returns the count of the key at the provided position.
+     */
+    public int count(int position) {
+        return counts[position];
+    }
+
+    /**
+     * Removes all the counts.
+     */
+    public void clear() {
+        for (int i = 0; i < size; ++i)
+            table[slots[i]] = 0;
+        size = 0;
+    }
+
+    /**
+     * Doubles the capacity of the table and reinserts the existing keys.
+     */
+    private void grow() {
+        int capacity = table.length << 1;
+        table = new int[capacity];
+        keys = Arrays.copyOf(keys, capacity >> 1);
+        counts = Arrays.copyOf(counts, capacity >> 1);
+        slots = Arrays.copyOf(slots, capacity >> 1);
+        int mask = capacity - 1;
+        for (int i = 0; i < size; ++i) {
+            int slot = hash(keys[i], mask);
+            while (table[slot] != 0)
+                slot = (slot + 1) & mask;
+            table[slot] = i + 1;
+            slots[i] = slot;
+        }
+    }
+}
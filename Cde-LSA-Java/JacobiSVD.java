@@ -0,0 +1,193 @@
+package edu.ucla.sspace.lsa;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The singular value decomposition of a small, dense matrix computed with the
+ * one-sided Jacobi method.  The method repeatedly rotates pairs of columns
+ * until all columns are orthogonal, which gives singular values that are
+ * accurate to full relative precision.  Its cost is {@code O(rows * cols^2)}
+ * per sweep, so it is intended for matrices with at most a few hundred
+ * columns, such as the reduced problems produced by the randomized and Lanczos
+ * SVD methods.
+ *
+ * <p>
+ *
+ * Matrices are row-major {@code double} arrays, as described by {@link
+ * DenseMatrices}.  For an {@code m x n} input with {@code m >= n}, this
+ * computes {@code A = U S V'}, where {@code U} is {@code m x n}, {@code S} is
+ * a diagonal of {@code n} singular values sorted in descending order and
+ * {@code V} is {@code n x n}.
+ */
+public class JacobiSVD {
+
+    /**
+     * The maximum number of sweeps over all column pairs
+     */
+    private static final int MAX_SWEEPS = 60;
+
+    /**
+     * The machine precision, which scaled by the number of rows is the
+     * relative tolerance below which two columns are considered orthogonal
+     */
+    private static final double EPSILON = Math.ulp(1.0);
+
+    private final int rows;
+
+    private final int cols;
+
+    private final double[] u;
+
+    private final double[] s;
+
+    private final double[] v;
+
+    /**
+     * Computes the decomposition of the {@code rows x cols} matrix {@code a},
+     * which is not modified.
+     *
+     * @throws IllegalArgumentException if {@code rows < cols}
+     */
+    public JacobiSVD(double[] a, int rows, int cols) {
+        if (rows < cols)
+            throw new IllegalArgumentException(
+                "matrix must have at least as many rows as columns; " +
+                "decompose the transpose instead");
+        this.rows = rows;
+        this.cols = cols;
+
+        // Work with the columns of A and V stored as rows so that each
+        // rotation touches contiguous memory
+        double[][] w = new double[cols][rows];
+        for (int i = 0; i < rows; ++i)
+            for (int j = 0; j < cols; ++j)
+                w[j][i] = a[i * cols + j];
+        double[][] vt = new double[cols][cols];
+        for (int j = 0; j < cols; ++j)
+            vt[j][j] = 1;
+
+        // Rounding limits how orthogonal two columns can be made, and columns
+        // that are only rounding noise are left alone, since rotating them
+        // would never converge
+        double tolerance = EPSILON * rows;
+        double squaredNorm = 0;
+        for (int i = 0; i < a.length && i < rows * cols; ++i)
+            squaredNorm += a[i] * a[i];
+        double negligible = EPSILON * EPSILON * squaredNorm;
+
+        for (int sweep = 0; sweep < MAX_SWEEPS; ++sweep) {
+            boolean rotated = false;
+            for (int p = 0; p < cols - 1; ++p) {
+                for (int q = p + 1; q < cols; ++q) {
+                    double[] wp = w[p];
+                    double[] wq = w[q];
+                    double alpha = 0;
+                    double beta = 0;
+                    double gamma = 0;
+                    for (int i = 0; i < rows; ++i) {
+                        alpha += wp[i] * wp[i];
+                        beta += wq[i] * wq[i];
+                        gamma += wp[i] * wq[i];
+                    }
+                    if (gamma == 0 || alpha <= negligible || beta <= negligible
+                            || Math.abs(gamma) <=
+                               tolerance * Math.sqrt(alpha * beta))
+                        continue;
+                    rotated = true;
+
+                    double zeta = (beta - alpha) / (2 * gamma);
+                    double t = Math.signum(zeta) /
+                        (Math.abs(zeta) + Math.sqrt(1 + zeta * zeta));
+                    if (zeta == 0)
+                        t = 1;
+                    double c = 1 / Math.sqrt(1 + t * t);
+                    double sn = c * t;
+                    rotate(wp, wq, c, sn);
+                    rotate(vt[p], vt[q], c, sn);
+                }
+            }
+            if (!rotated)
+                break;
+        }
+
+        // The singular values are the column norms, and the left singular
+        // vectors are the normalized columns.  Sort by decreasing value.
+        final double[] norms = new double[cols];
+        Integer[] order = new Integer[cols];
+        for (int j = 0; j < cols; ++j) {
+            double sum = 0;
+            for (int i = 0; i < rows; ++i)
+                sum += w[j][i] * w[j][i];
+            norms[j] = Math.sqrt(sum);
+            order[j] = Integer.valueOf(j);
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+                public int compare(Integer i, Integer j) {
+                    return Double.compare(norms[j], norms[i]);
+                }
+            });
+
+        u = new double[rows * cols];
+        s = new double[cols];
+        v = new double[cols * cols];
+        for (int k = 0; k < cols; ++k) {
+            int j = order[k].intValue();
+            s[k] = norms[j];
+            if (norms[j] > 0) {
+                for (int i = 0; i < rows; ++i)
+                    u[i * cols + k] = w[j][i] / norms[j];
+            }
+            for (int i = 0; i < cols; ++i)
+                v[i * cols + k] = vt[j][i];
+        }
+    }
+
+    /**
+     * Applies the plane rotation to the pair of vectors.
+     */
+    private static void rotate(double[] x, double[] y, double c, double s) {
+        for (int i = 0; i < x.length; ++i) {
+            double xi = x[i];
+            double yi = y[i];
+            x[i] = c * xi - s * yi;
+            y[i] = s * xi + c * yi;
+        }
+    }
+
+    /**
+     * Returns the {@code rows x cols} matrix of left singular vectors.  The
+     * columns for zero singular values are zero.
+     */
+    public double[] getU() {
+        return u;
+    }
+
+    /**
+     * Returns the singular values in descending order.
+     */
+    public double[] getSingularValues() {
+        return s;
+    }
+
+    /**
+     * Returns the {@code cols x cols} matrix of right singular vectors.
+     */
+    public double[] getV() {
+        return v;
+    }
+
+    /**
+     * Returns the number of rows in the decomposed matrix.
+     */
+    public int rows() {
+        return rows;
+    }
+
+    /**
+     * Returns the number of columns in the decomposed matrix.
+     */
+    public int columns() {
+        return cols;
+    }
+}
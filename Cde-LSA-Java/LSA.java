@@ -1,8 +1,5 @@
 package edu.ucla.sspace.lsa;
 
-import edu.ucla.sspace.common.Index;
-import edu.ucla.sspace.common.BoundedSortedMap;
-import edu.ucla.sspace.common.Similarity;
 import edu.ucla.sspace.common.SemanticSpace;
 
 import java.io.BufferedReader;
@@ -10,19 +7,24 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileReader;
+import java.io.IOError;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
 
 // import Jama.Matrix;
 // import Jama.SingularValueDecomposition;
@@ -35,9 +37,46 @@ public class LSA implements SemanticSpace {
 
     private static final int MAX_LINES = 500;
 
-    private final Map<Index,Integer> wordToDocumentCount;
+    /**
+     * An empty array, used for documents that have no words
+     */
+    private static final int[] NO_WORDS = new int[0];
 
-    private final Map<Index,Double> termFreqInvDocFreqMatrix;
+    /**
+     * A mapping from each word to its id, which is its position in {@link
+     * #words}
+     */
+    private final Map<String,Integer> wordIds;
+
+    /**
+     * A mapping from each document to its id, which is its position in {@link
+     * #documents}
+     */
+    private final Map<String,Integer> documentIds;
+
+    /**
+     * The ids of the words that occur in each document, in increasing order,
+     * indexed by document id
+     */
+    private final List<int[]> documentWords;
+
+    /**
+     * The number of occurrences of each word of {@link #documentWords},
+     * indexed by document id.  The counts of a document are {@code null} once
+     * they have been replaced by its weights.
+     */
+    private final List<int[]> documentCounts;
+
+    /**
+     * The TF-IDF weight of each word of {@link #documentWords}, indexed by
+     * document id, which are computed by {@link #processSpace()}
+     */
+    private final List<double[]> documentWeights;
+
+    /**
+     * The counter of the words of the document being parsed
+     */
+    private final IntCounter wordCounts;
 
     /**
      * A mapping from a word to the reconstructed vector that best approximates
@@ -47,20 +86,54 @@ public class LSA implements SemanticSpace {
      */
     private final Map<String,double[]> wordToApprox;
 
+    /**
+     * The words of {@link #wordToApprox} in the order of their rows in {@link
+     * #neighbors}, or {@code null} if the index has not been built.
+     */
+    private List<String> indexedWords;
+
+    /**
+     * A mapping from each word to its row in {@link #neighbors}.
+     */
+    private Map<String,Integer> wordToRow;
+
+    /**
+     * The index used to find the most similar words, which is built from the
+     * approximated vectors when it is first needed.
+     */
+    private NearestNeighbors neighbors;
+
+    /**
+     * The words that have been seen, in the order of their ids
+     */
     public final Set<String> words;
 
+    /**
+     * The documents that have been seen, in the order of their ids
+     */
     public final Set<String> documents;
 
+    /**
+     * The tokenizer used to split and clean the lines of each document, which
+     * is reused so that the strings of words already seen are not recreated.
+     */
+    private final Tokenizer tokenizer;
+
     //private final SpellChecker spellChecker;
 
     //private SingularValueDecomposition svd;
 
     public LSA() {
-        wordToDocumentCount = new HashMap<Index,Integer>();
-        termFreqInvDocFreqMatrix = new HashMap<Index,Double>();
+        wordIds = new HashMap<String,Integer>();
+        documentIds = new HashMap<String,Integer>();
+        documentWords = new ArrayList<int[]>();
+        documentCounts = new ArrayList<int[]>();
+        documentWeights = new ArrayList<double[]>();
+        wordCounts = new IntCounter();
         wordToApprox = new HashMap<String,double[]>();
         words = new LinkedHashSet<String>();
         documents = new LinkedHashSet<String>();
+        tokenizer = new Tokenizer();
         //spellChecker = loadSpellChecker();
     }
 
@@ -90,7 +163,16 @@ public class LSA implements SemanticSpace {
     */
 
     public void parseDocument(String filename) throws IOException {
-        documents.add(filename);
+        int document = getDocumentId(filename);
+        // If the document has been parsed before, add to its existing counts
+        wordCounts.clear();
+        int[] previousWords = documentWords.get(document);
+        int[] previousCounts = documentCounts.get(document);
+        if (previousCounts != null) {
+            for (int i = 0; i < previousWords.length; ++i)
+                wordCounts.add(previousWords[i], previousCounts[i]);
+        }
+
         BufferedReader br = new BufferedReader(new FileReader(filename));
         String line = null;
         int lineNum = 0;
@@ -101,75 +183,207 @@ public class LSA implements SemanticSpace {
             if (lineNum > MAX_LINES)
                 break;
 
-            // split the line based on whitespace
-            String[] text = line.split("\\s");
-            for (String word : text) {
-                // clean up each word before entering it into the matrix
-                String cleaned = cleanup(word);
+            // split the line based on whitespace, removing all non-letter
+            // characters from each word and making it lower case
+            tokenizer.reset(line);
+            while (tokenizer.next()) {
+                String cleaned = tokenizer.term();
                 // skip any mispelled or unknown words
                 if (!isValid(cleaned))
                     continue;
-                words.add(cleaned);
-                wordToDocumentCount.put(
-                                        new Index(cleaned, filename),
-                                        Integer.valueOf(1 + getCount(cleaned, filename)));
+                wordCounts.increment(getWordId(cleaned));
             }
         }
         br.close();
+        setCounts(document, wordCounts);
     }
 
+    /**
+     * Returns the id of the word, assigning it the next id if the word has not
+     * been seen before.
+     */
+    private int getWordId(String word) {
+        Integer id = wordIds.get(word);
+        if (id == null) {
+            id = Integer.valueOf(wordIds.size());
+            wordIds.put(word, id);
+            words.add(word);
+        }
+        return id.intValue();
+    }
+
+    /**
+     * Returns the id of the document, assigning it the next id with no words
+     * if the document has not been seen before.
+     */
+    private int getDocumentId(String document) {
+        Integer id = documentIds.get(document);
+        if (id == null) {
+            id = Integer.valueOf(documentIds.size());
+            documentIds.put(document, id);
+            documents.add(document);
+            documentWords.add(NO_WORDS);
+            documentCounts.add(NO_WORDS);
+        }
+        return id.intValue();
+    }
+
+    /**
+     * Replaces the counts of the document with those of the counter, which
+     * are sorted by word id.
+     */
+    private void setCounts(int document, IntCounter counts) {
+        // Pack each word id above its count so that sorting the packed values
+        // sorts the counts by word id
+        long[] packed = new long[counts.size()];
+        for (int i = 0; i < packed.length; ++i)
+            packed[i] = ((long)counts.key(i) << 32) | counts.count(i);
+        Arrays.sort(packed);
+        int[] wordIdsOfDocument = new int[packed.length];
+        int[] countsOfDocument = new int[packed.length];
+        for (int i = 0; i < packed.length; ++i) {
+            wordIdsOfDocument[i] = (int)(packed[i] >>> 32);
+            countsOfDocument[i] = (int)packed[i];
+        }
+        documentWords.set(document, wordIdsOfDocument);
+        documentCounts.set(document, countsOfDocument);
+    }
+
+    /**
+     * Computes the TF-IDF weight of every word in every document using all
+     * available processors.
+     */
     public void processSpace() {
+        processSpace(ParallelTasks.defaultThreads());
+    }
+
+    /**
+     * Computes the TF-IDF weight of every word in every document using up to
+     * {@code numThreads} threads.  Only the words that occur in each document
+     * are visited, so the time taken is linear in the number of non-zero
+     * counts.  The counts are discarded once the weights are known.
+     */
+    public void processSpace(int numThreads) {
+        numThreads = Math.max(1, numThreads);
+        final int numWords = words.size();
+        final int numDocuments = documents.size();
+
         // Compute a how many terms occur in each document.  This allows us to
         // normalize the frequency to prevent biasing towards larger document
-        // with more words
-        Map<String,Integer> documentToTermCount = new HashMap<String,Integer>();
-        for (String document : documents) {
-            int terms = 0;
-            for (String word :  words) {
-                terms += getCount(word, document);
-            }
-            documentToTermCount.put(document, terms);
+        // with more words.  At the same time, count the number of documents
+        // in which each word occurs.  Each thread counts the documents of a
+        // contiguous range, and the document frequencies are then summed.
+        final int[] documentToTermCount = new int[numDocuments];
+        final long[] bounds = ParallelTasks.partition(numDocuments, numThreads);
+        List<Callable<int[]>> countTasks =
+            new ArrayList<Callable<int[]>>(numThreads);
+        for (int t = 0; t < numThreads; ++t) {
+            final int from = (int)bounds[t];
+            final int to = (int)bounds[t + 1];
+            countTasks.add(new Callable<int[]>() {
+                    public int[] call() {
+                        int[] docFreqs = new int[numWords];
+                        for (int document = from; document < to; ++document) {
+                            int[] wordIdsOfDocument =
+                                documentWords.get(document);
+                            int[] counts = documentCounts.get(document);
+                            if (counts == null)
+                                continue;
+                            int terms = 0;
+                            for (int i = 0; i < counts.length; ++i) {
+                                terms += counts[i];
+                                docFreqs[wordIdsOfDocument[i]]++;
+                            }
+                            documentToTermCount[document] = terms;
+                        }
+                        return docFreqs;
+                    }
+                });
         }
 
-        // The inverse document frequency is a measure of the general importance
-        // of the term (obtained by dividing the number of all documents by the
-        // number of documents containing the term, and then taking the
-        // logarithm of that quotient).  (from Wikipedia)
+        // Documents whose counts were discarded by an earlier call keep the
+        // weights they were given then
+        while (documentWeights.size() < numDocuments)
+            documentWeights.add(null);
+        for (int document = 0; document < numDocuments; ++document) {
+            if (documentCounts.get(document) != null)
+                documentWeights.set(document,
+                    new double[documentWords.get(document).length]);
+        }
 
-        for (String word : words) {
-            double docFreq = 0;
-            for (String document : documents) {
-                if (getCount(word, document) > 0)
-                    docFreq++;
+        try {
+            // The inverse document frequency is a measure of the general
+            // importance of the term (obtained by dividing the number of all
+            // documents by the number of documents containing the term, and
+            // then taking the logarithm of that quotient).  (from Wikipedia)
+            final double[] invDocFreqs = new double[numWords];
+            for (int[] docFreqs : ParallelTasks.invokeAll(countTasks,
+                                                          numThreads)) {
+                for (int word = 0; word < numWords; ++word)
+                    invDocFreqs[word] += docFreqs[word];
             }
-
-            double invDocFreq = Math.log(documents.size() / docFreq);
-
-            // now divide each term's frequency by the frequency for all the
-            // documents
-            for (String document : documents) {
-                double freq = getCount(word, document);
-                if (freq > 0) {
-                    // normalize the frequency by the number of terms in the
-                    // document
-                    double norm = freq / documentToTermCount.get(document);
-
-                    termFreqInvDocFreqMatrix.put(new Index(word, document),
-                                                 norm * invDocFreq);
-                }
+            for (int word = 0; word < numWords; ++word)
+                invDocFreqs[word] = Math.log(numDocuments / invDocFreqs[word]);
+
+            // now divide each term's frequency by the number of terms in the
+            // document and weight it by the term's inverse document frequency
+            List<Callable<Void>> weightTasks =
+                new ArrayList<Callable<Void>>(numThreads);
+            for (int t = 0; t < numThreads; ++t) {
+                final int from = (int)bounds[t];
+                final int to = (int)bounds[t + 1];
+                weightTasks.add(new Callable<Void>() {
+                        public Void call() {
+                            for (int document = from; document < to;
+                                     ++document) {
+                                int[] wordIdsOfDocument =
+                                    documentWords.get(document);
+                                int[] counts = documentCounts.get(document);
+                                if (counts == null)
+                                    continue;
+                                double[] weights =
+                                    documentWeights.get(document);
+                                double termCount =
+                                    documentToTermCount[document];
+                                for (int i = 0; i < counts.length; ++i) {
+                                    double norm = counts[i] / termCount;
+                                    weights[i] = norm *
+                                        invDocFreqs[wordIdsOfDocument[i]];
+                                }
+                            }
+                            return null;
+                        }
+                    });
             }
+            ParallelTasks.invokeAll(weightTasks, numThreads);
+        } catch (IOException ioe) {
+            // the in-memory tasks do not perform any I/O
+            throw new IOError(ioe);
         }
-        wordToDocumentCount.clear();
+
+        // The counts are no longer needed once the weights are known
+        for (int document = 0; document < numDocuments; ++document)
+            documentCounts.set(document, null);
+    }
+
+    /**
+     * Returns the position of the word in the arrays of the document, or a
+     * negative value if the word does not occur in it.
+     */
+    private int find(int word, int document) {
+        return Arrays.binarySearch(documentWords.get(document), word);
     }
 
     /**
      * Returns the number of occurrences of the provided word in the provided
      * document.
      */
-    private int getCount(String word, String document) {
-        Index index = new Index(word, document);
-        Integer occurrence = wordToDocumentCount.get(index);
-        return (occurrence == null) ? 0 : occurrence.intValue();
+    private int getCount(int word, int document) {
+        int[] counts = documentCounts.get(document);
+        if (counts == null)
+            return 0;
+        int position = find(word, document);
+        return (position < 0) ? 0 : counts[position];
     }
 
     /**
@@ -185,26 +399,28 @@ public class LSA implements SemanticSpace {
         return true;
     }
 
-    private static String cleanup(String word) {
-        // remove all non-letter characters
-        word = word.replaceAll("\\W", "");
-        // make the string lower case
-        return word.toLowerCase();
-    }
-
     public void loadWordDocumentMatrix(String inputFile) throws IOException {
         // first clear any old data
         documents.clear();
         words.clear();
-        wordToDocumentCount.clear();
+        wordIds.clear();
+        documentIds.clear();
+        documentWords.clear();
+        documentCounts.clear();
+        documentWeights.clear();
 
         BufferedReader br = new BufferedReader(new FileReader(inputFile));
         // the first line must contain the listing of documents in the order in
         // which their data will be presented
         String documentsLine = br.readLine();
         String[] docs = documentsLine.split(" ");
-        for (String document : docs)
-            documents.add(document);
+        int[] columnToDocument = new int[docs.length];
+        for (int i = 0; i < docs.length; ++i)
+            columnToDocument[i] = getDocumentId(docs[i]);
+
+        IntCounter[] counts = new IntCounter[documents.size()];
+        for (int i = 0; i < counts.length; ++i)
+            counts[i] = new IntCounter(16);
 
         String line = null;
         int lineNum = 0;
@@ -217,16 +433,17 @@ public class LSA implements SemanticSpace {
                 throw new IllegalStateException(
                                                 "Missing occurrence counts on line " + lineNum);
 
-            String word = wordAndOccurrences[0];
-            Iterator<String> docIter = documents.iterator();
+            int word = getWordId(wordAndOccurrences[0]);
             for (int i = 1; i < wordAndOccurrences.length; ++i) {
-                Integer occurrence = Integer.valueOf(wordAndOccurrences[i]);
-                // only put positive numbers in the backing map to reduce the
-                // memory footprint
-                if (occurrence.intValue() > 0)
-                    wordToDocumentCount.put(new Index(word, docIter.next()), occurrence);
+                int occurrence = Integer.parseInt(wordAndOccurrences[i]);
+                // only store positive numbers to reduce the memory footprint
+                if (occurrence > 0)
+                    counts[columnToDocument[i - 1]].add(word, occurrence);
             }
         }
+        br.close();
+        for (int document = 0; document < counts.length; ++document)
+            setCounts(document, counts[document]);
     }
 
     public void saveWordDocumentMatrix(String outputFile) throws IOException {
@@ -243,18 +460,18 @@ public class LSA implements SemanticSpace {
         pw.println(sb);
 
         // then for each word, write out the occurences for each document
+        int numDocuments = documents.size();
+        int wordId = 0;
         for (String word : words) {
-            sb = new StringBuilder(3 * documents.size());
+            sb = new StringBuilder(3 * numDocuments);
             sb.append(word).append(" ");
-            docIter = documents.iterator();
-            while (docIter.hasNext()) {
-                Index index = new Index(word, docIter.next());
-                Integer count = wordToDocumentCount.get(index);
-                sb.append((count == null) ? "0" : count);
-                if (docIter.hasNext())
+            for (int document = 0; document < numDocuments; ++document) {
+                sb.append(getCount(wordId, document));
+                if (document + 1 < numDocuments)
                     sb.append(" ");
             }
             pw.println(sb);
+            wordId++;
         }
         pw.close();
     }
@@ -271,43 +488,17 @@ public class LSA implements SemanticSpace {
     private Matrix convertMapToMatrix() {
         Matrix matrix = new Matrix(words.size(), documents.size());
 
-        // Calculate these maps on the fly to avoid having to persist them in
-        // memory during the remaining computation
-        Map<String,Integer> wordToIndex = new HashMap<String,Integer>();
-        int i = 0;
-        for (String word : words)
-            wordToIndex.put(word, Integer.valueOf(i++));
-
-        Map<String,Integer> docToIndex = new HashMap<String,Integer>();
-        i = 0;
-        for (String doc : documents)
-            docToIndex.put(doc, Integer.valueOf(i++));
-
         // if we've already calculated the tf-idf for the words, then use those
         // values for filling the matrix
-        if (termFreqInvDocFreqMatrix.size() > 0) {
-            for (Map.Entry<Index,Double> e :
-                     termFreqInvDocFreqMatrix.entrySet()) {
-                Index index = e.getKey();
-
-                matrix.set(wordToIndex.get(index.word).intValue(),
-                           docToIndex.get(index.document).intValue(),
-                           e.getValue().doubleValue());
-            }
-            // last, clear the maps to free the space used by it
-            termFreqInvDocFreqMatrix.clear();
-            wordToDocumentCount.clear();
-        }
-        else {
-            for (Map.Entry<Index,Integer> e : wordToDocumentCount.entrySet()) {
-                Index index = e.getKey();
-
-                matrix.set(wordToIndex.get(index.word).intValue(),
-                           docToIndex.get(index.document).intValue(),
-                           e.getValue().doubleValue());
+        boolean useWeights = !documentWeights.isEmpty();
+        for (int document = 0; document < documents.size(); ++document) {
+            int[] wordIdsOfDocument = documentWords.get(document);
+            for (int i = 0; i < wordIdsOfDocument.length; ++i) {
+                double value = (useWeights)
+                    ? documentWeights.get(document)[i]
+                    : documentCounts.get(document)[i];
+                matrix.set(wordIdsOfDocument[i], document, value);
             }
-            // last, clear the map to free the space used by it
-            wordToDocumentCount.clear();
         }
         return matrix;
     }
@@ -410,28 +601,53 @@ public class LSA implements SemanticSpace {
     return 0.0;
   }
 
-  public void computeDistances(String filename, int similarCount) {
-    System.out.print("computing word similarities ...");
-    long startTime = System.currentTimeMillis();
-    Map<String,BoundedSortedMap<Double,String>> wordToMostSimilar =
-        new HashMap<String,BoundedSortedMap<Double,String>>();
-
-        for (Map.Entry<String,double[]> e : wordToApprox.entrySet()) {
-            String word = e.getKey();
-            double[] vec = e.getValue();
-            BoundedSortedMap<Double,String> mostSimilar =
-                new BoundedSortedMap<Double,String>(similarCount);
-            wordToMostSimilar.put(word, mostSimilar);
-
-            for (Map.Entry<String,double[]> f : wordToApprox.entrySet()) {
-                String other = f.getKey();
-                if (word.equals(other))
-                    continue;
-                double[] vec2 = f.getValue();
-                Double cosDist = Double.valueOf(Similarity.cosineSimilarity(vec, vec2));
-                mostSimilar.put(cosDist,other);
+    /**
+     * Builds the nearest neighbor index over the approximated word vectors if
+     * it has not already been built.
+     */
+    private NearestNeighbors getNeighbors() {
+        if (neighbors == null) {
+            indexedWords = new ArrayList<String>(wordToApprox.size());
+            wordToRow = new HashMap<String,Integer>();
+            double[][] vectors = new double[wordToApprox.size()][];
+            for (Map.Entry<String,double[]> e : wordToApprox.entrySet()) {
+                wordToRow.put(e.getKey(), Integer.valueOf(indexedWords.size()));
+                vectors[indexedWords.size()] = e.getValue();
+                indexedWords.add(e.getKey());
             }
+            neighbors = new NearestNeighbors(vectors);
         }
+        return neighbors;
+    }
+
+    /**
+     * Returns up to {@code count} words most similar to the provided word,
+     * sorted by decreasing cosine similarity, or an empty list if the word has
+     * no approximated vector.
+     */
+    public List<String> getMostSimilar(String word, int count) {
+        NearestNeighbors index = getNeighbors();
+        Integer row = wordToRow.get(word);
+        List<String> mostSimilar = new ArrayList<String>();
+        if (row == null)
+            return mostSimilar;
+        TopKHeap nearest = index.nearest(row.intValue(), count);
+        for (int i = 0; i < nearest.size(); ++i)
+            mostSimilar.add(indexedWords.get(nearest.getId(i)));
+        return mostSimilar;
+    }
+
+    /**
+     * Writes the {@code similarCount} most similar words for every word to the
+     * file, or to standard out if {@code filename} is {@code null}.  Each
+     * word's neighbors are listed from the least to the most similar.  The
+     * search is split between all available processors, and each word is
+     * written as soon as its neighbors are found.
+     */
+    public void computeDistances(String filename, final int similarCount) {
+        System.out.print("computing word similarities ...");
+        long startTime = System.currentTimeMillis();
+        NearestNeighbors index = getNeighbors();
 
         PrintWriter pw = null;
         if (filename != null) {
@@ -443,24 +659,33 @@ public class LSA implements SemanticSpace {
             }
         }
 
-        for (Map.Entry<String,BoundedSortedMap<Double,String>> e :
-                 wordToMostSimilar.entrySet()) {
-
-            StringBuilder sb = new StringBuilder((1 + similarCount) * 8);
-            sb.append(e.getKey()).append(":\n");
-            for (String s : e.getValue().values())
-                sb.append("  ").append(s);
-
-            if (pw == null)
-                System.out.println(sb.toString());
-            else
-                pw.println(sb.toString());
+        final PrintWriter out = (pw == null)
+            ? new PrintWriter(new OutputStreamWriter(System.out))
+            : pw;
+        try {
+            index.allNearest(similarCount, ParallelTasks.defaultThreads(),
+                             new NearestNeighbors.NeighborHandler() {
+                    public void handle(int row, TopKHeap nearest) {
+                        StringBuilder sb =
+                            new StringBuilder((1 + similarCount) * 8);
+                        sb.append(indexedWords.get(row)).append(":\n");
+                        for (int i = nearest.size() - 1; i >= 0; --i)
+                            sb.append("  ").append(
+                                indexedWords.get(nearest.getId(i)));
+                        out.println(sb.toString());
+                    }
+                });
+        } catch (IOException ioe) {
+            throw new IOError(ioe);
         }
         if (pw != null) {
             pw.close();
+        } else {
+            out.flush();
         }
         long endTime = System.currentTimeMillis();
-        System.out.printf("...complete (%.3f seconds)%n",
-                          (endTime - startTime) / 1000d);
+        double seconds = (endTime - startTime) / 1000d;
+        System.out.printf("...complete (%.3f seconds, %.0f words/second)%n",
+                          seconds, index.rows() / Math.max(seconds, 0.001));
     }
 }
\ No newline at end of file
@@ -0,0 +1,472 @@
+package edu.ucla.sspace.lsa;
+
+import java.io.IOError;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import java.util.concurrent.Callable;
+
+import java.util.logging.Logger;
+
+import edu.ucla.sspace.matrix.ArrayMatrix;
+import edu.ucla.sspace.matrix.Matrix;
+
+/**
+ * A truncated singular value decomposition of a {@link
+ * SparseTermDocumentMatrix} computed with Golub-Kahan-Lanczos
+ * bidiagonalization.  Starting from a random vector, each step multiplies one
+ * vector by the matrix and one by its transpose, building orthonormal bases
+ * {@code U} and {@code V} of two Krylov spaces such that {@code A V = U B} for
+ * an upper-bidiagonal matrix {@code B}.  The singular values of {@code B}
+ * converge to the largest singular values of {@code A} well before the bases
+ * span the whole space.  The bases are fully reorthogonalized at each step,
+ * which keeps the method stable at the cost of {@code O(j * (rows +
+ * columns))} time at step {@code j}.
+ *
+ * <p>
+ *
+ * The sparse products are split between threads, as described by {@link
+ * SparseTermDocumentMatrix#transposeMultiply(double[],int,int)}, and so is
+ * the reorthogonalization, which at the later steps costs more than the
+ * products.  Each thread computes the dot products of a range of the rows of
+ * the new vector with every basis vector, and after they are summed, removes
+ * the projections from the same range.  The
+ * decomposition of {@code B} is checked periodically once it has at least the
+ * requested number of dimensions, and the iteration stops when the residual
+ * {@code ||A'u - s v||} of every requested singular triplet is within the
+ * tolerance relative to the largest singular value.  The number of steps and
+ * the residuals are logged at each check.  Every step keeps two vectors, so
+ * the bases use {@code 8 * steps * (rows + columns)} bytes.
+ *
+ * <p>
+ *
+ * This class supports the following properties:
+ *
+ * <dl style="margin-left: 1em">
+ *
+ * <dt> <i>Property:</i> <code><b>{@value #TOLERANCE_PROPERTY}
+ *      </b></code> <br>
+ *      <i>Default:</i> {@code 1e-6}
+ *
+ * <dd style="padding-top: .5em">The largest residual of a singular triplet,
+ *       relative to the largest singular value, for it to be considered
+ *       converged.  Larger values stop the iteration sooner.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>{@value #MAX_ITERATIONS_PROPERTY}
+ *      </b></code> <br>
+ *      <i>Default:</i> twice the number of dimensions, plus 50
+ *
+ * <dd style="padding-top: .5em">The maximum number of Lanczos steps.  If the
+ *       singular triplets have not converged after this many steps, the
+ *       current approximations are returned and a warning is logged.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>{@value #SEED_PROPERTY}
+ *      </b></code> <br>
+ *      <i>Default:</i> unset
+ *
+ * <dd style="padding-top: .5em">The seed of the random starting vector.  If
+ *       unset, a different seed is used for each decomposition.<p>
+ *
+ * </dl>
+ *
+ * @see LatentSemanticAnalysis#LSA_SVD_ALGORITHM_PROPERTY
+ */
+public class LanczosSVD {
+
+    /**
+     * The prefix for naming publically accessible properties
+     */
+    private static final String PROPERTY_PREFIX =
+        "edu.ucla.sspace.lsa.LanczosSVD";
+
+    /**
+     * The property to set the relative residual at which a singular triplet
+     * has converged
+     */
+    public static final String TOLERANCE_PROPERTY =
+        PROPERTY_PREFIX + ".tolerance";
+
+    /**
+     * The property to set the maximum number of Lanczos steps
+     */
+    public static final String MAX_ITERATIONS_PROPERTY =
+        PROPERTY_PREFIX + ".maxIterations";
+
+    /**
+     * The property to set the seed of the starting vector
+     */
+    public static final String SEED_PROPERTY =
+        PROPERTY_PREFIX + ".seed";
+
+    /**
+     * The logger used to record all output
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(LanczosSVD.class.getName());
+
+    /**
+     * The norm, relative to the largest singular value estimate, below which
+     * a new basis vector is treated as zero because the Krylov space is
+     * exhausted
+     */
+    private static final double BREAKDOWN = 1e-12;
+
+    private final double tolerance;
+
+    /**
+     * The maximum number of steps, or {@code -1} to use the default for the
+     * number of dimensions
+     */
+    private final int maxIterations;
+
+    private final Random random;
+
+    /**
+     * Creates a decomposition with the default tolerance and number of
+     * steps.
+     */
+    public LanczosSVD() {
+        this(new Properties());
+    }
+
+    /**
+     * Creates a decomposition configured by the provided properties.
+     */
+    public LanczosSVD(Properties properties) {
+        String tol = properties.getProperty(TOLERANCE_PROPERTY);
+        try {
+            tolerance = (tol == null) ? 1e-6 : Double.parseDouble(tol);
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException(
+                TOLERANCE_PROPERTY + " is not a number: " + tol);
+        }
+        if (!(tolerance > 0))
+            throw new IllegalArgumentException(
+                TOLERANCE_PROPERTY + " must be positive: " + tol);
+
+        String maxIter = properties.getProperty(MAX_ITERATIONS_PROPERTY);
+        try {
+            maxIterations = (maxIter == null) ? -1 : Integer.parseInt(maxIter);
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException(
+                MAX_ITERATIONS_PROPERTY + " is not an integer: " + maxIter);
+        }
+        if (maxIter != null && maxIterations < 1)
+            throw new IllegalArgumentException(
+                MAX_ITERATIONS_PROPERTY + " must be positive: " + maxIter);
+
+        String seed = properties.getProperty(SEED_PROPERTY);
+        try {
+            random = (seed == null)
+                ? new Random()
+                : new Random(Long.parseLong(seed));
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException(
+                SEED_PROPERTY + " is not an integer: " + seed);
+        }
+    }
+
+    /**
+     * Computes the leading singular triplets of the matrix using one thread.
+     *
+     * @see #svd(SparseTermDocumentMatrix,int,int)
+     */
+    public Matrix[] svd(SparseTermDocumentMatrix matrix, int dimensions) {
+        return svd(matrix, dimensions, 1);
+    }
+
+    /**
+     * Computes the leading singular triplets of the matrix and returns them in
+     * the same form as {@link edu.ucla.sspace.matrix.SVD#svd(java.io.File,
+     * edu.ucla.sspace.matrix.SVD.Algorithm,int) SVD.svd}: the {@code rows x k}
+     * left singular vectors, the {@code k x k} diagonal matrix of singular
+     * values in descending order and the {@code k x columns} transposed right
+     * singular vectors.  If the matrix has fewer than {@code dimensions} rows
+     * or columns, {@code k} is the smaller of the two, and if its rank is lower
+     * still, only as many triplets as its rank are returned.  With more than
+     * one thread, a transposed copy of the matrix is made so that both products
+     * can be split between the threads.
+     */
+    public Matrix[] svd(SparseTermDocumentMatrix matrix, int dimensions,
+                        int numThreads) {
+        SparseTermDocumentMatrix transpose =
+            (numThreads > 1) ? matrix.transpose() : null;
+        int m = matrix.rows();
+        int n = matrix.columns();
+        int k = Math.min(dimensions, Math.min(m, n));
+        int maxSteps = Math.min(Math.min(m, n), (maxIterations < 0)
+                                ? Math.max(2 * k, k + 50)
+                                : Math.max(maxIterations, k));
+        int checkInterval = Math.max(10, k / 4);
+
+        double[][] us = new double[maxSteps][];
+        double[][] vs = new double[maxSteps + 1][];
+        double[] alphas = new double[maxSteps];
+        double[] betas = new double[maxSteps];
+
+        // Start from a random unit vector in the column space
+        double[] v = new double[n];
+        for (int i = 0; i < n; ++i)
+            v[i] = random.nextGaussian();
+        scale(v, 1 / norm(v));
+        vs[0] = v;
+        double[] u = multiply(matrix, transpose, v, numThreads);
+        alphas[0] = norm(u);
+        if (alphas[0] > 0)
+            scale(u, 1 / alphas[0]);
+        us[0] = u;
+        double largest = alphas[0];
+
+        JacobiSVD bidiagonal = null;
+        int steps = 0;
+        boolean extended = false;
+        boolean converged = false;
+        while (true) {
+            int j = steps++;
+
+            // v_j+1 = A'u_j - alpha_j v_j, orthogonalized against all v
+            double[] r = matrix.transposeMultiply(us[j], 1, numThreads);
+            axpy(-alphas[j], vs[j], r);
+            reorthogonalize(r, vs, j + 1, numThreads);
+            betas[j] = norm(r);
+            largest = Math.max(largest, Math.max(alphas[j], betas[j]));
+            boolean exhausted = betas[j] <= BREAKDOWN * largest
+                || steps == maxSteps;
+
+            if (steps >= k && (exhausted || (steps - k) % checkInterval == 0)) {
+                bidiagonal = decomposeBidiagonal(alphas, betas, steps, false);
+                converged = logResiduals(bidiagonal, betas[j], k, steps);
+                if (converged || exhausted)
+                    break;
+            }
+            else if (exhausted) {
+                bidiagonal = null;
+                break;
+            }
+
+            scale(r, 1 / betas[j]);
+            vs[j + 1] = r;
+
+            // u_j+1 = A v_j+1 - beta_j u_j, orthogonalized against all u
+            double[] p = multiply(matrix, transpose, r, numThreads);
+            axpy(-betas[j], us[j], p);
+            reorthogonalize(p, us, j + 1, numThreads);
+            alphas[j + 1] = norm(p);
+            if (alphas[j + 1] <= BREAKDOWN * largest) {
+                // The column space is exhausted, so A V = U B holds exactly
+                // for the steps x (steps + 1) matrix B that includes the last
+                // beta, and its triplets are exact
+                bidiagonal = decomposeBidiagonal(alphas, betas, steps, true);
+                extended = true;
+                converged = true;
+                LOGGER.info("Lanczos step " + steps + ": invariant subspace " +
+                            "found");
+                break;
+            }
+            scale(p, 1 / alphas[j + 1]);
+            us[j + 1] = p;
+        }
+        if (bidiagonal == null)
+            bidiagonal = decomposeBidiagonal(alphas, betas, steps, false);
+
+        if (!converged)
+            LOGGER.warning("Lanczos SVD stopped after " + steps + " steps " +
+                           "without converging to a tolerance of " +
+                           tolerance);
+        else
+            LOGGER.info("Lanczos SVD converged after " + steps + " steps");
+
+        // Singular triplets of B give those of A: A (V y) = s (U x).  The
+        // extended B was decomposed as its transpose, which swaps x and y.
+        k = Math.min(k, steps);
+        int vSteps = extended ? steps + 1 : steps;
+        double[] x = extended ? bidiagonal.getV() : bidiagonal.getU();
+        double[] y = extended ? bidiagonal.getU() : bidiagonal.getV();
+        double[] s = bidiagonal.getSingularValues();
+        Matrix uMatrix = new ArrayMatrix(m, k);
+        Matrix vtMatrix = new ArrayMatrix(k, n);
+        double[] row = new double[k];
+        for (int i = 0; i < m; ++i) {
+            Arrays.fill(row, 0);
+            for (int t = 0; t < steps; ++t) {
+                double ut = us[t][i];
+                for (int c = 0; c < k; ++c)
+                    row[c] += ut * x[t * steps + c];
+            }
+            for (int c = 0; c < k; ++c)
+                uMatrix.set(i, c, row[c]);
+        }
+        for (int i = 0; i < n; ++i) {
+            Arrays.fill(row, 0);
+            for (int t = 0; t < vSteps; ++t) {
+                double vt = vs[t][i];
+                for (int c = 0; c < k; ++c)
+                    row[c] += vt * y[t * steps + c];
+            }
+            for (int c = 0; c < k; ++c)
+                vtMatrix.set(c, i, row[c]);
+        }
+        Matrix sMatrix = new ArrayMatrix(k, k);
+        for (int c = 0; c < k; ++c)
+            sMatrix.set(c, c, s[c]);
+        return new Matrix[] { uMatrix, sMatrix, vtMatrix };
+    }
+
+    /**
+     * Returns the decomposition of the {@code size x size} upper-bidiagonal
+     * matrix with the provided diagonal and superdiagonal.  If {@code
+     * extended} is {@code true}, the matrix has an additional column holding
+     * {@code betas[size - 1]}, and the decomposition is of its transpose.
+     */
+    private static JacobiSVD decomposeBidiagonal(double[] alphas,
+                                                 double[] betas, int size,
+                                                 boolean extended) {
+        int cols = extended ? size + 1 : size;
+        double[] b = new double[size * cols];
+        for (int t = 0; t < size; ++t) {
+            b[t * cols + t] = alphas[t];
+            if (t + 1 < cols)
+                b[t * cols + t + 1] = betas[t];
+        }
+        return extended
+            ? new JacobiSVD(DenseMatrices.transpose(b, size, cols), cols, size)
+            : new JacobiSVD(b, size, size);
+    }
+
+    /**
+     * Logs the residuals of the leading {@code k} singular triplets of the
+     * bidiagonal matrix and returns whether they have all converged.  The
+     * residual of triplet {@code i} is {@code beta |x_i[last]|}, where {@code
+     * beta} is the norm of the next, unnormalized basis vector.
+     */
+    private boolean logResiduals(JacobiSVD bidiagonal, double beta, int k,
+                                 int steps) {
+        double[] x = bidiagonal.getU();
+        double[] s = bidiagonal.getSingularValues();
+        int count = Math.min(k, steps);
+        double threshold = tolerance * s[0];
+        double maxResidual = 0;
+        int numConverged = 0;
+        for (int i = 0; i < count; ++i) {
+            double residual = Math.abs(beta * x[(steps - 1) * steps + i]);
+            maxResidual = Math.max(maxResidual, residual);
+            if (residual <= threshold)
+                numConverged++;
+        }
+        LOGGER.info("Lanczos step " + steps + ": " + numConverged + " of " +
+                    count + " singular values converged, largest relative " +
+                    "residual " + (s[0] > 0 ? maxResidual / s[0] : 0));
+        return numConverged == count;
+    }
+
+    /**
+     * Returns the product of the matrix and the vector, using its transpose
+     * if one is available so that the product can be computed in parallel.
+     */
+    private static double[] multiply(SparseTermDocumentMatrix matrix,
+                                     SparseTermDocumentMatrix transpose,
+                                     double[] x, int numThreads) {
+        return (transpose == null)
+            ? matrix.multiply(x, 1)
+            : transpose.transposeMultiply(x, 1, numThreads);
+    }
+
+    /**
+     * Removes the components of {@code x} along the first {@code count}
+     * orthonormal vectors of {@code basis} using {@code numThreads} threads.
+     * This is classical Gram-Schmidt with a second pass, which is orthogonal to
+     * working precision like the modified method, but computes all of the
+     * dot products of a pass at once, so that each thread can work on its own
+     * range of rows.
+     */
+    private static void reorthogonalize(final double[] x,
+                                        final double[][] basis,
+                                        final int count, int numThreads) {
+        final long[] bounds = ParallelTasks.partition(x.length, numThreads);
+        final double[][] partialDots = new double[numThreads][count];
+        final double[] coefficients = new double[count];
+        List<Callable<Void>> dotTasks =
+            new ArrayList<Callable<Void>>(numThreads);
+        List<Callable<Void>> updateTasks =
+            new ArrayList<Callable<Void>>(numThreads);
+        for (int t = 0; t < numThreads; ++t) {
+            final int from = (int)bounds[t];
+            final int to = (int)bounds[t + 1];
+            final double[] dots = partialDots[t];
+            dotTasks.add(new Callable<Void>() {
+                    public Void call() {
+                        for (int b = 0; b < count; ++b) {
+                            double[] v = basis[b];
+                            double sum = 0;
+                            for (int i = from; i < to; ++i)
+                                sum += v[i] * x[i];
+                            dots[b] = sum;
+                        }
+                        return null;
+                    }
+                });
+            updateTasks.add(new Callable<Void>() {
+                    public Void call() {
+                        for (int b = 0; b < count; ++b) {
+                            double[] v = basis[b];
+                            double c = coefficients[b];
+                            for (int i = from; i < to; ++i)
+                                x[i] -= c * v[i];
+                        }
+                        return null;
+                    }
+                });
+        }
+
+        for (int pass = 0; pass < 2; ++pass) {
+            invokeAll(dotTasks, numThreads);
+            Arrays.fill(coefficients, 0);
+            for (double[] dots : partialDots)
+                for (int b = 0; b < count; ++b)
+                    coefficients[b] += dots[b];
+            invokeAll(updateTasks, numThreads);
+        }
+    }
+
+    /**
+     * Runs the in-memory tasks with {@code numThreads} threads.
+     */
+    private static void invokeAll(List<Callable<Void>> tasks,
+                                  int numThreads) {
+        try {
+            ParallelTasks.invokeAll(tasks, numThreads);
+        } catch (IOException ioe) {
+            // the in-memory tasks do not perform any I/O
+            throw new IOError(ioe);
+        }
+    }
+
+    private static double dot(double[] x, double[] y) {
+        double sum = 0;
+        for (int i = 0; i < x.length; ++i)
+            sum += x[i] * y[i];
+        return sum;
+    }
+
+    private static double norm(double[] x) {
+        return Math.sqrt(dot(x, x));
+    }
+
+    private static void scale(double[] x, double a) {
+        for (int i = 0; i < x.length; ++i)
+            x[i] *= a;
+    }
+
+    /**
+     * Computes {@code y += a x}.
+     */
+    private static void axpy(double a, double[] x, double[] y) {
+        for (int i = 0; i < x.length; ++i)
+            y[i] += a * x[i];
+    }
+}
@@ -25,27 +25,28 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOError;
 import java.io.IOException;
-import java.io.PrintWriter;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Queue;
 import java.util.Set;
 
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import java.util.logging.Logger;
 
 import edu.ucla.sspace.common.SemanticSpace;
 
-import edu.ucla.sspace.matrix.Matrices;
 import edu.ucla.sspace.matrix.Matrix;
 import edu.ucla.sspace.matrix.SVD;
 
@@ -105,7 +106,7 @@ import edu.ucla.sspace.text.IteratorFactory;
  * <p>
  *
  * This class offers configurable preprocessing and dimensionality reduction.
- * through three parameters.
+ * through nine parameters.
  *
  * <dl style="margin-left: 1em">
  *
@@ -133,7 +134,74 @@ import edu.ucla.sspace.text.IteratorFactory;
  * <dd style="padding-top: .5em">This property sets the specific SVD algorithm
  *       that LSA will use to reduce the dimensionality of the word-document
  *       matrix.  In general, users should not need to set this property, as the
- *       default behavior will choose the fastest available on the system.<p>
+ *       default behavior will choose the fastest available on the system.  The
+ *       values {@value #RANDOMIZED_SVD} and {@value #LANCZOS_SVD} select the
+ *       pure-Java {@link RandomizedSVD} and {@link LanczosSVD}, which use
+ *       {@value #LSA_THREADS_PROPERTY} threads and are configured by their own
+ *       properties.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>{@value LSA_THREADS_PROPERTY}
+ *      </b></code> <br>
+ *      <i>Default:</i> the number of available processors
+ *
+ * <dd style="padding-top: .5em">The number of threads used by {@code
+ *       processSpace} when transforming the word-document matrix, and by
+ *       {@code findSimilarDocuments} when searching the documents.  It must
+ *       be at least 1.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>{@value LSA_IN_MEMORY_ENTRIES_PROPERTY}
+ *      </b></code> <br>
+ *      <i>Default:</i> enough entries to fill a quarter of the maximum heap
+ *
+ * <dd style="padding-top: .5em">The maximum number of non-zero entries of the
+ *       word-document matrix to keep in memory.  Smaller matrices are built,
+ *       transformed and handed to the SVD without being written to disk;
+ *       larger ones are spilled to disk as they are built.  This property is
+ *       read when the instance is constructed.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>{@value LSA_CLEAN_TOKENS_PROPERTY}
+ *      </b></code> <br>
+ *      <i>Default:</i> {@code false}
+ *
+ * <dd style="padding-top: .5em">If {@code true}, documents are split on
+ *       whitespace by a {@link Tokenizer}, which removes the characters of
+ *       each word that are not letters or digits and makes it lower case.
+ *       Otherwise documents are tokenized by {@link IteratorFactory}, which
+ *       keeps each word as it is but applies any filtering or stemming that
+ *       it has been configured with.  This property is read when the instance
+ *       is constructed.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>{@value LSA_UPDATE_BATCH_SIZE_PROPERTY}
+ *      </b></code> <br>
+ *      <i>Default:</i> {@code 100}
+ *
+ * <dd style="padding-top: .5em">The number of documents added by {@link
+ *       #updateDocument(BufferedReader) updateDocument} that are buffered
+ *       before the SVD is updated with them.  Larger batches are cheaper per
+ *       document but delay the vectors of the new documents.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>{@value
+ *      LSA_REORTHOGONALIZATION_INTERVAL_PROPERTY} </b></code> <br>
+ *      <i>Default:</i> {@code 10}
+ *
+ * <dd style="padding-top: .5em">The number of batches of updated documents
+ *       after which the factors of the SVD are reorthogonalized, or {@code 0}
+ *       to never reorthogonalize them.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>{@value LSA_STORAGE_PROPERTY}
+ *      </b></code> <br>
+ *      <i>Default:</i> {@link ElementType#DOUBLE DOUBLE}
+ *
+ * <dd style="padding-top: .5em">The precision with which the word and document
+ *       spaces and the index of {@code findSimilarDocuments} are held in
+ *       memory, as the name of an {@link ElementType}.  {@code FLOAT} halves
+ *       their size and {@code INT8} reduces it by nearly eight times, at the
+ *       cost of less accurate vectors.  Rounded or quantized factors are
+ *       not exactly orthonormal, so the first call of {@code
+ *       updateDocument} reorthogonalizes them before updating the SVD, and
+ *       the updated space keeps the rounding error of the stored factors.
+ *       Documents added by {@code updateDocument} are always held as {@code
+ *       double}s.<p>
  *
  * </dl> <p>
  *
@@ -142,9 +210,14 @@ import edu.ucla.sspace.text.IteratorFactory;
  * This class is thread-safe for concurrent calls of {@link
  * #processDocument(BufferedReader) processDocument}.  Once {@link
  * #processSpace(Properties) processSpace} has been called, no further calls to
- * {@code processDocument} should be made.  This implementation does not support
- * access to the semantic vectors until after {@code processSpace} has been
- * called.
+ * {@code processDocument} should be made.  Instead, new documents may be
+ * projected into the existing space with {@link
+ * #foldInDocument(BufferedReader,boolean) foldInDocument}, which reuses the
+ * singular values and the weighting statistics of the transform.  Documents
+ * similar to an existing document or to new text may be found with {@link
+ * #findSimilarDocuments(int,int) findSimilarDocuments}.  This implementation
+ * does not support access to the semantic vectors until after {@code
+ * processSpace} has been called.
  *
  * @see MatrixTransformer
  * @see SVD
@@ -176,13 +249,70 @@ public class LatentSemanticAnalysis implements SemanticSpace {
     /**
      * The property to set the specific SVD algorithm used by an instance during
      * {@code processSpace}.  The value should be the name of a {@link
-     * edu.ucla.sspace.matrix.SVD.Algorithm}.  If this property is unset, any
-     * available algorithm will be used according to the ordering defined in
-     * {@link SVD}.
+     * edu.ucla.sspace.matrix.SVD.Algorithm}, {@value #RANDOMIZED_SVD} or
+     * {@value #LANCZOS_SVD}.  If this property is unset, any available
+     * algorithm will be used according to the ordering defined in {@link SVD}.
      */
     public static final String LSA_SVD_ALGORITHM_PROPERTY =
         PROPERTY_PREFIX + ".svd.algorithm";
 
+    /**
+     * The property to set the number of documents added by {@code
+     * updateDocument} that are buffered before the SVD is updated.
+     */
+    public static final String LSA_UPDATE_BATCH_SIZE_PROPERTY =
+        PROPERTY_PREFIX + ".updateBatchSize";
+
+    /**
+     * The property to set the number of batches of updated documents after
+     * which the factors of the SVD are reorthogonalized.
+     */
+    public static final String LSA_REORTHOGONALIZATION_INTERVAL_PROPERTY =
+        PROPERTY_PREFIX + ".reorthogonalizationInterval";
+
+    /**
+     * The property to set the precision with which the reduced spaces are
+     * stored.
+     */
+    public static final String LSA_STORAGE_PROPERTY =
+        PROPERTY_PREFIX + ".storage";
+
+    /**
+     * The value of {@link #LSA_SVD_ALGORITHM_PROPERTY} that selects the
+     * built-in {@link RandomizedSVD}, which decomposes the term-document matrix
+     * in memory rather than through an external program.
+     */
+    public static final String RANDOMIZED_SVD = "RANDOMIZED";
+
+    /**
+     * The value of {@link #LSA_SVD_ALGORITHM_PROPERTY} that selects the
+     * built-in {@link LanczosSVD}, which decomposes the term-document matrix in
+     * memory rather than through an external program.
+     */
+    public static final String LANCZOS_SVD = "LANCZOS";
+
+    /**
+     * The property to set the number of threads used by {@code processSpace}.
+     */
+    public static final String LSA_THREADS_PROPERTY =
+        PROPERTY_PREFIX + ".threads";
+
+    /**
+     * The property to set the maximum number of non-zero entries of the
+     * term-document matrix that are kept in memory during {@code
+     * processDocument}.  If the matrix grows beyond this size, it is spilled to
+     * disk and transformed from there.
+     */
+    public static final String LSA_IN_MEMORY_ENTRIES_PROPERTY =
+        PROPERTY_PREFIX + ".inMemoryEntries";
+
+    /**
+     * The property to tokenize documents with a {@link Tokenizer} instead of
+     * {@link IteratorFactory}.
+     */
+    public static final String LSA_CLEAN_TOKENS_PROPERTY =
+        PROPERTY_PREFIX + ".cleanTokens";
+
     /**
      * The name prefix used with {@link #getName()}
      */
@@ -199,13 +329,7 @@ public class LatentSemanticAnalysis implements SemanticSpace {
      * A mapping from a word to the row index in the that word-document matrix
      * that contains occurrence counts for that word.
      */
-    private final ConcurrentMap<String,Integer> termToIndex;
-
-    /**
-     * The counter for recording the current, largest word index in the
-     * word-document matrix.
-     */
-    private final AtomicInteger termIndexCounter;
+    private final TermDictionary termToIndex;
 
     /**
      * The counter for recording the current, largest document index in the
@@ -214,29 +338,148 @@ public class LatentSemanticAnalysis implements SemanticSpace {
     private final AtomicInteger docIndexCounter;
 
     /**
-     * A file in {@link edu.ucla.sspace.common.MatrixIO.Format#MATLAB_SPARSE
-     * MATLAB_SPARSE} format.
+     * A file containing the raw term counts in the binary format described by
+     * {@link TermDocumentMatrixIO}.  This file is only filled if the segments
+     * have been spilled to disk, when {@link #processSpace(Properties)
+     * processSpace} merges them.
      */
     private final File rawTermDocMatrix;
 
     /**
-     * The writer to the {@code rawTermDocMatrix}.
+     * The segment of the raw term-document matrix owned by the current thread.
+     * Each thread writes its documents to its own segment so that {@code
+     * processDocument} never blocks on another thread's output.
+     */
+    private final ThreadLocal<TermDocumentSegment> threadSegment;
+
+    /**
+     * Every segment that has been created, in the order in which they were
+     * created.
+     */
+    private final Queue<TermDocumentSegment> segments;
+
+    /**
+     * The maximum number of entries that may be buffered in memory by all the
+     * segments before they are spilled to disk.
+     */
+    private final long maxInMemoryEntries;
+
+    /**
+     * The number of entries buffered in memory by all the segments
      */
-    private final PrintWriter rawTermDocMatrixWriter;
+    private final AtomicLong inMemoryEntries;
+
+    /**
+     * Whether the segments should be spilled to disk because the matrix is too
+     * large to be kept in memory.  Once set, this is never cleared.
+     */
+    private volatile boolean spillSegments;
+
+    /**
+     * The counter of term occurrences in the document currently being
+     * processed by each thread.  The counter is reused for each document to
+     * avoid allocating a new map per document.
+     */
+    private final ThreadLocal<IntCounter> documentTermCounts;
+
+    /**
+     * Whether documents are tokenized with a {@link Tokenizer} rather than
+     * {@link IteratorFactory}
+     */
+    private final boolean cleanTokens;
+
+    /**
+     * The tokenizer used by each thread when {@link #cleanTokens} is set.
+     * Each tokenizer keeps the terms it has seen, so the strings of known
+     * terms are not recreated for every occurrence.
+     */
+    private final ThreadLocal<Tokenizer> tokenizers;
 
     /**
      * The word space of the LSA model, which is the left factor matrix of the
      * SVD of the word-document matrix.  This matrix is only available after the
      * {@link #processSpace(Properties) processSpace} method has been called.
      */
-    private Matrix wordSpace;
+    private volatile CompactMatrix wordSpace;
 
     /**
      * The document space of the LSA model, which is the right factor matrix of
      * the SVD of the word-document matrix.  This matrix is only available after the
      * {@link #processSpace(Properties) processSpace} method has been called.
      */
-    private Matrix documentSpace;
+    private volatile CompactMatrix documentSpace;
+
+    /**
+     * The singular values of the word-document matrix, in the same order as
+     * the dimensions of {@link #wordSpace} and {@link #documentSpace}.  These
+     * are only available after {@code processSpace} has been called.
+     */
+    private volatile double[] singularValues;
+
+    /**
+     * The transform applied to the word-document matrix by {@code
+     * processSpace}, which holds the statistics used to weight documents that
+     * are folded in afterwards.
+     */
+    private MatrixTransformer transform;
+
+    /**
+     * The vectors of the documents folded into the space after {@code
+     * processSpace}, in the order in which they were folded in.  Their
+     * document numbers follow those of the rows of {@link #documentSpace}.
+     */
+    private final List<double[]> foldedDocumentVectors;
+
+    /**
+     * The vectors of the terms first seen in documents folded into the space,
+     * in the order of their indices, which follow those of the rows of {@link
+     * #wordSpace}.
+     */
+    private final List<double[]> foldedTermVectors;
+
+    /**
+     * The SVD that is updated with the documents added by {@code
+     * updateDocument}, or {@code null} if no documents have been added.  Once
+     * set, this replaces {@link #wordSpace} and {@link #documentSpace}.
+     */
+    private volatile IncrementalSVD incrementalSVD;
+
+    /**
+     * The terms of the documents added by {@code updateDocument} that have
+     * not yet been applied to the SVD
+     */
+    private final List<int[]> pendingTerms;
+
+    /**
+     * The weights of the terms in {@link #pendingTerms}
+     */
+    private final List<float[]> pendingWeights;
+
+    /**
+     * The number of added documents applied to the SVD at once
+     */
+    private int updateBatchSize;
+
+    /**
+     * The number of batches after which the updated SVD is reorthogonalized
+     */
+    private int reorthogonalizationInterval;
+
+    /**
+     * The number of threads used to process the space and search it
+     */
+    private int numThreads;
+
+    /**
+     * The index of the document vectors used by {@code findSimilarDocuments},
+     * or {@code null} if it must be rebuilt because documents were added.
+     */
+    private NearestNeighbors documentIndex;
+
+    /**
+     * The precision with which the reduced spaces are stored
+     */
+    private ElementType storage;
 
     /**
      * Constructs the {@code LatentSemanticAnalysis} using the system properties
@@ -258,49 +501,79 @@ public class LatentSemanticAnalysis implements SemanticSpace {
      */
     public LatentSemanticAnalysis(Properties properties) throws IOException {
 
-        termToIndex = new ConcurrentHashMap<String,Integer>();
-        termIndexCounter = new AtomicInteger(0);
+        termToIndex = new TermDictionary();
         docIndexCounter = new AtomicInteger(0);
 
         rawTermDocMatrix =
             File.createTempFile("lsa-term-document-matrix", "dat");
-        rawTermDocMatrixWriter = new PrintWriter(rawTermDocMatrix);
+        // The file is only written if the matrix is spilled, and is deleted
+        // once it has been transformed
+        rawTermDocMatrix.deleteOnExit();
+        threadSegment = new ThreadLocal<TermDocumentSegment>();
+        segments = new ConcurrentLinkedQueue<TermDocumentSegment>();
+
+        // By default, allow the buffered entries to use a quarter of the heap,
+        // leaving room to build the compressed matrix from them
+        long defaultMaxEntries = Runtime.getRuntime().maxMemory() / 4 /
+            TermDocumentMatrixIO.ENTRY_BYTES;
+        String maxEntriesProp =
+            properties.getProperty(LSA_IN_MEMORY_ENTRIES_PROPERTY);
+        try {
+            maxInMemoryEntries = (maxEntriesProp == null)
+                ? defaultMaxEntries
+                : Long.parseLong(maxEntriesProp);
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException(
+                LSA_IN_MEMORY_ENTRIES_PROPERTY + " is not an integer: " +
+                maxEntriesProp);
+        }
+        inMemoryEntries = new AtomicLong(0);
+        spillSegments = false;
+        documentTermCounts = new ThreadLocal<IntCounter>() {
+            protected IntCounter initialValue() {
+                return new IntCounter();
+            }
+        };
+        cleanTokens = Boolean.parseBoolean(
+            properties.getProperty(LSA_CLEAN_TOKENS_PROPERTY));
+        tokenizers = new ThreadLocal<Tokenizer>() {
+            protected Tokenizer initialValue() {
+                return new Tokenizer();
+            }
+        };
 
         wordSpace = null;
         documentSpace = null;
+        singularValues = null;
+        transform = null;
+        foldedDocumentVectors =
+            Collections.synchronizedList(new ArrayList<double[]>());
+        foldedTermVectors =
+            Collections.synchronizedList(new ArrayList<double[]>());
+        incrementalSVD = null;
+        pendingTerms = new ArrayList<int[]>();
+        pendingWeights = new ArrayList<float[]>();
     }
 
     /**
      * Parses the document.
      *
+     * <p>
+     *
+     * This method is thread-safe and may be called in parallel with separate
+     * documents to speed up overall processing time.  Each calling thread
+     * writes its term counts to a separate segment of the term-document
+     * matrix, so threads do not contend on a shared writer.
+     *
      * @param document {@inheritDoc}
      */
     public void processDocument(BufferedReader document) throws IOException {
 
-        Map<String,Integer> termCounts =
-            new LinkedHashMap<String,Integer>(1 << 10, 16f);
-
-            Iterator<String> documentTokens =
-                IteratorFactory.tokenize(document);
-
-            // for each word in the text document, keep a count of how many
-            // times it has occurred
-            while (documentTokens.hasNext()) {
-                String word = documentTokens.next();
-
-                // Add the term to the total list of terms to ensure it has a
-                // proper index.  If the term was already added, this method is
-                // a no-op
-                addTerm(word);
-                Integer termCount = termCounts.get(word);
-
-                // update the term count
-                termCounts.put(word, (termCount == null)
-                               ? Integer.valueOf(1)
-                               : Integer.valueOf(1 + termCount.intValue()));
-            }
-
-        document.close();
+        // for each word in the text document, keep a count of how many times
+        // it has occurred.  Each term is added to the total list of terms to
+        // ensure it has a proper index.
+        IntCounter termCounts = documentTermCounts.get();
+        countTerms(document, termCounts, true);
 
         // check that we actually loaded in some terms before we increase the
         // documentIndex.  This could possibly save some dimensions in the final
@@ -312,53 +585,87 @@ public class LatentSemanticAnalysis implements SemanticSpace {
         int documentIndex = docIndexCounter.incrementAndGet();
 
         // Once the document has been fully parsed, output all of the sparse
-        // data points using the writer.  Synchronize on the writer to prevent
-        // any interleaving of output by other threads
-        synchronized(rawTermDocMatrixWriter) {
-            for (Map.Entry<String,Integer> e : termCounts.entrySet()) {
-                String term = e.getKey();
-                int count = e.getValue().intValue();
-                StringBuffer sb = new StringBuffer(32);
-                sb.append(termToIndex.get(term).intValue()).append(" ").
-                    append(documentIndex).append(" ").append(count);
-                rawTermDocMatrixWriter.println(sb.toString());
-            }
+        // data points to this thread's segment.  No other thread writes to the
+        // segment, so no synchronization is needed.
+        TermDocumentSegment segment = getSegment();
+        if (spillSegments && !segment.isSpilled())
+            spill(segment);
+        for (int i = 0; i < termCounts.size(); ++i)
+            segment.add(termCounts.key(i), documentIndex, termCounts.count(i));
 
-            rawTermDocMatrixWriter.flush();
+        // If the matrix has grown too large to keep in memory, signal all the
+        // threads to spill their segments to disk
+        if (!segment.isSpilled() && inMemoryEntries.addAndGet(
+                termCounts.size()) > maxInMemoryEntries && !spillSegments) {
+            LSA_LOGGER.info("term-document matrix exceeds " +
+                            maxInMemoryEntries + " entries; spilling to disk");
+            spillSegments = true;
         }
-
     }
 
     /**
-     * Adds the term to the list of terms and gives it an index, or if the term
-     * has already been added, does nothing.
+     * Clears the counter and counts the occurrences of each term of the
+     * document in it, then closes the document.  Terms that have not been
+     * seen before are assigned an index if {@code addNewTerms} is {@code
+     * true}, and are otherwise ignored.
      */
-    private void addTerm(String term) {
-
-        Integer index = termToIndex.get(term);
-
-        if (index == null) {
-
-            synchronized(this) {
-
-                // recheck to see if the term was added while blocking
-                index = termToIndex.get(term);
-                // if some other thread has not already added this term while
-                // the current thread was blocking waiting on the lock, then add
-                // it.
-                if (index == null) {
-                    index = Integer.valueOf(termIndexCounter.incrementAndGet());
-                    termToIndex.put(term, index);
-                }
+    private void countTerms(BufferedReader document, IntCounter termCounts,
+                            boolean addNewTerms) throws IOException {
+        termCounts.clear();
+        if (cleanTokens) {
+            Tokenizer tokenizer = tokenizers.get();
+            tokenizer.reset(document);
+            while (tokenizer.next()) {
+                String term = tokenizer.term();
+                int index = (addNewTerms)
+                    ? termToIndex.index(term)
+                    : termToIndex.find(term);
+                if (index > 0)
+                    termCounts.increment(index);
             }
         }
+        else {
+            Iterator<String> documentTokens =
+                IteratorFactory.tokenize(document);
+            while (documentTokens.hasNext()) {
+                String term = documentTokens.next();
+                int index = (addNewTerms)
+                    ? termToIndex.index(term)
+                    : termToIndex.find(term);
+                if (index > 0)
+                    termCounts.increment(index);
+            }
+        }
+        document.close();
+    }
+
+    /**
+     * Returns the current thread's segment of the raw term-document matrix,
+     * creating the segment if this is the first document the thread has
+     * processed.
+     */
+    private TermDocumentSegment getSegment() {
+        TermDocumentSegment segment = threadSegment.get();
+        if (segment == null) {
+            segment = new TermDocumentSegment();
+            threadSegment.set(segment);
+            segments.add(segment);
+        }
+        return segment;
+    }
+
+    /**
+     * Spills the segment to a new temporary file.
+     */
+    private static void spill(TermDocumentSegment segment) throws IOException {
+        segment.spill(File.createTempFile("lsa-term-document-segment", "dat"));
     }
 
     /**
      * {@inheritDoc}
      */
     public Set<String> getWords() {
-        return Collections.unmodifiableSet(termToIndex.keySet());
+        return termToIndex.terms();
     }
 
     /**
@@ -367,13 +674,27 @@ public class LatentSemanticAnalysis implements SemanticSpace {
     public double[] getVectorFor(String word) {
 
         // determine the index for the word
-        Integer index = termToIndex.get(word);
+        int index = termToIndex.find(word);
+
+        if (index < 0)
+            return null;
+        CompactMatrix words = wordSpace;
+        if (words == null)
+            return getUpdatedTermVector(index);
 
         // NB: substract 1 from the index value because our output starts at
         // index 1 (not 0), but the wordSpace Matrix starts indexing at 0.
-        return (index == null)
-            ? null
-            : wordSpace.getRow(index.intValue() - 1);
+        if (index <= words.rows())
+            return words.getRow(index - 1);
+
+        // The word was first seen in a folded-in document.  Its vector is
+        // added just after its index is assigned, so it may not be there yet.
+        int folded = index - 1 - words.rows();
+        synchronized (foldedTermVectors) {
+            return (folded < foldedTermVectors.size())
+                ? foldedTermVectors.get(folded).clone()
+                : null;
+        }
     }
 
     /**
@@ -393,18 +714,522 @@ public class LatentSemanticAnalysis implements SemanticSpace {
      * original ordering.  However, in a single-threaded environment, the
      * ordering will be maintained.
      *
+     * Documents folded into the space by {@link
+     * #foldInDocument(BufferedReader,boolean) foldInDocument} or added by
+     * {@link #updateDocument(BufferedReader) updateDocument} are numbered
+     * after the processed documents.
+     *
      * @param documentNumber the number of the document according to when it was
      *        processed
      *
      * @return the semantics of the document in the document space
      */
     public double[] getDocumentVector(int documentNumber) {
-        if (documentNumber < 0 || documentNumber >= documentSpace.rows()) {
+        CompactMatrix documents = documentSpace;
+        if (documents == null)
+            return getUpdatedDocumentVector(documentNumber);
+        if (documentNumber >= 0 && documentNumber < documents.rows())
+            return documents.getRow(documentNumber);
+        int folded = documentNumber - documents.rows();
+        synchronized (foldedDocumentVectors) {
+            if (documentNumber < 0 || folded >= foldedDocumentVectors.size()) {
+                throw new IllegalArgumentException(
+                    "Document number is not within the bounds of the number " +
+                    "of documents: " + documentNumber);
+            }
+            return foldedDocumentVectors.get(folded).clone();
+        }
+    }
+
+    /**
+     * Returns the number of documents in the document space, including those
+     * that have been folded in or added.  This method is only to be used after
+     * {@code processSpace} has been called.
+     */
+    public synchronized int getDocumentCount() {
+        return (incrementalSVD != null)
+            ? incrementalSVD.columns() + pendingTerms.size()
+            : documentSpace.rows() + foldedDocumentVectors.size();
+    }
+
+    /**
+     * Folds the document into the space without adding any new terms.
+     *
+     * @see #foldInDocument(BufferedReader,boolean)
+     */
+    public int foldInDocument(BufferedReader document) throws IOException {
+        return foldInDocument(document, false);
+    }
+
+    /**
+     * Projects a new document into the existing document space and returns
+     * its document number, which may be used with {@link
+     * #getDocumentVector(int) getDocumentVector}.  Unlike {@link
+     * #processDocument(BufferedReader) processDocument}, this may be called
+     * after {@code processSpace}, and it does not change the vectors of any
+     * other word or document.
+     *
+     * <p>
+     *
+     * The document's term counts are weighted with the statistics that the
+     * {@link MatrixTransformer} gathered from the word-document matrix, giving
+     * the column {@code a}, which is projected as {@code a' U S^-1}, the same
+     * mapping that the SVD applies to the documents of the matrix.  This
+     * costs {@code O(terms * dimensions)} time.  The projection is only an
+     * approximation of recomputing the SVD, which becomes worse as more
+     * documents that differ from the original ones are folded in.
+     *
+     * <p>
+     *
+     * If {@code addNewTerms} is {@code true}, words that are not yet in the
+     * space are added to it, and their vectors are folded in from the new
+     * document's vector as {@code w d S^-1}, where {@code w} is the word's
+     * weight in the document.  Such a word is weighted as if it occurred in
+     * no other document, and its vector is not updated by later documents.
+     * Otherwise, these words are ignored.
+     *
+     * @return the number of the new document, or {@code -1} if the document
+     *         had no words
+     */
+    public synchronized int foldInDocument(BufferedReader document,
+                                           boolean addNewTerms)
+            throws IOException {
+        if (wordSpace == null)
+            throw new IllegalStateException(
+                "processSpace must be called before folding in documents");
+        if (incrementalSVD != null)
+            throw new IllegalStateException(
+                "documents cannot be folded into an updated space");
+
+        IntCounter termCounts = documentTermCounts.get();
+        countTerms(document, termCounts, addNewTerms);
+        if (termCounts.isEmpty())
+            return -1;
+
+        int size = termCounts.size();
+        int[] terms = new int[size];
+        float[] counts = new float[size];
+        for (int i = 0; i < size; ++i) {
+            terms[i] = termCounts.key(i);
+            counts[i] = termCounts.count(i);
+        }
+        double[] weights = new double[size];
+        transform.weightDocument(terms, counts, size, weights);
+
+        double[] documentVector = project(terms, weights, size);
+
+        // Fold in any words seen for the first time, in the order of their
+        // indices
+        if (addNewTerms) {
+            int dimensions = singularValues.length;
+            int numTerms = wordSpace.rows();
+            for (int i = 0; i < size; ++i) {
+                int folded = terms[i] - 1 - numTerms;
+                if (folded < foldedTermVectors.size())
+                    continue;
+                double[] termVector = new double[dimensions];
+                for (int d = 0; d < dimensions; ++d)
+                    termVector[d] = weights[i] * documentVector[d];
+                scaleByInverse(termVector);
+                foldedTermVectors.add(termVector);
+            }
+        }
+
+        documentIndex = null;
+        synchronized (foldedDocumentVectors) {
+            foldedDocumentVectors.add(documentVector);
+            return documentSpace.rows() + foldedDocumentVectors.size() - 1;
+        }
+    }
+
+    /**
+     * Sums the weighted vectors of the terms, skipping those without a vector,
+     * and scales each dimension by the inverse of its singular value.  The
+     * terms are indexed from 1.
+     */
+    private double[] project(int[] terms, double[] weights, int size) {
+        int dimensions = singularValues.length;
+        double[] documentVector = new double[dimensions];
+        CompactMatrix words = wordSpace;
+        for (int i = 0; i < size; ++i) {
+            int row = terms[i] - 1;
+            double[] termVector = null;
+            if (words == null)
+                termVector = getUpdatedTermVector(terms[i]);
+            else if (row < words.rows())
+                termVector = words.getRow(row);
+            else if (row - words.rows() < foldedTermVectors.size())
+                termVector = foldedTermVectors.get(row - words.rows());
+            if (termVector == null)
+                continue;
+            for (int d = 0; d < dimensions; ++d)
+                documentVector[d] += weights[i] * termVector[d];
+        }
+        scaleByInverse(documentVector);
+        return documentVector;
+    }
+
+    /**
+     * Returns the vector that the document would have in the document space,
+     * without adding the document or any of its words to the space.  The
+     * vector is computed as {@link #foldInDocument(BufferedReader,boolean)
+     * foldInDocument} computes it, from the words that are already in the
+     * space, and may be compared with the vectors returned by {@link
+     * #getDocumentVector(int) getDocumentVector}.  Unlike folding in, this may
+     * also be used after documents have been added with {@link
+     * #updateDocument(BufferedReader) updateDocument}.
+     *
+     * @return the document's vector, or {@code null} if none of its words are
+     *         in the space
+     */
+    public synchronized double[] projectDocument(BufferedReader document)
+            throws IOException {
+        if (wordSpace == null && incrementalSVD == null)
+            throw new IllegalStateException(
+                "processSpace must be called before projecting documents");
+
+        IntCounter termCounts = documentTermCounts.get();
+        countTerms(document, termCounts, false);
+        if (termCounts.isEmpty())
+            return null;
+
+        int size = termCounts.size();
+        int[] terms = new int[size];
+        float[] counts = new float[size];
+        for (int i = 0; i < size; ++i) {
+            terms[i] = termCounts.key(i);
+            counts[i] = termCounts.count(i);
+        }
+        double[] weights = new double[size];
+        transform.weightDocument(terms, counts, size, weights);
+        return project(terms, weights, size);
+    }
+
+    /**
+     * Returns the {@code k} documents most similar to the provided document,
+     * not including the document itself, as a heap sorted by decreasing
+     * similarity whose identifiers are document numbers.
+     *
+     * <p>
+     *
+     * Documents are compared by the cosine similarity of their vectors scaled
+     * by the singular values, which weights each dimension by its importance
+     * in the word-document matrix.  The scaled vectors of all documents are
+     * normalized and indexed by a {@link NearestNeighbors} index the first
+     * time the space is searched, and again after documents have been folded
+     * in or added.  Each query then scans the index with {@value
+     * #LSA_THREADS_PROPERTY} threads.
+     *
+     * @throws IllegalArgumentException if the document number is not in the
+     *         space
+     */
+    public TopKHeap findSimilarDocuments(int documentNumber, int k) {
+        NearestNeighbors index = getDocumentIndex();
+        if (documentNumber < 0 || documentNumber >= index.rows()) {
+            throw new IllegalArgumentException(
+                "Document number is not within the bounds of the number of "
+                + "documents: " + documentNumber);
+        }
+        return index.nearestToRow(documentNumber, k, numThreads);
+    }
+
+    /**
+     * Returns the {@code k} documents most similar to the text of the provided
+     * document, as a heap sorted by decreasing similarity whose identifiers are
+     * document numbers.  The text is projected into the space by {@link
+     * #projectDocument(BufferedReader) projectDocument} and is not added to it.
+     * Documents are compared as described for {@link
+     * #findSimilarDocuments(int,int)}.
+     *
+     * @return the most similar documents, which are none if none of the
+     *         document's words are in the space
+     */
+    public TopKHeap findSimilarDocuments(BufferedReader document, int k)
+            throws IOException {
+        double[] vector = projectDocument(document);
+        NearestNeighbors index = getDocumentIndex();
+        if (vector == null) {
+            TopKHeap none = new TopKHeap(0);
+            none.sort();
+            return none;
+        }
+        for (int d = 0; d < vector.length; ++d)
+            vector[d] *= singularValues[d];
+        return index.nearest(vector, k, numThreads);
+    }
+
+    /**
+     * Returns the index of the document vectors scaled by the singular values,
+     * building it if documents have been added since it was last built.
+     */
+    private synchronized NearestNeighbors getDocumentIndex() {
+        flushUpdates();
+        if (documentIndex != null)
+            return documentIndex;
+        int documents = getDocumentCount();
+        int dimensions = singularValues.length;
+        CompactMatrix vectors =
+            new CompactMatrix(documents, dimensions, storage);
+        for (int doc = 0; doc < documents; ++doc) {
+            double[] vector = getDocumentVector(doc);
+            for (int d = 0; d < dimensions; ++d)
+                vector[d] *= singularValues[d];
+            vectors.setRow(doc, vector);
+        }
+        documentIndex = new NearestNeighbors(vectors);
+        return documentIndex;
+    }
+
+    /**
+     * Adds a new document to the space by updating its SVD, rather than only
+     * projecting the document as {@link #foldInDocument(BufferedReader,
+     * boolean) foldInDocument} does, and returns the document's number.  Words
+     * not yet in the space are added to it.
+     *
+     * <p>
+     *
+     * The document's term counts are weighted with the statistics of the
+     * word-document matrix, as for folding in, and buffered.  Once {@value
+     * #LSA_UPDATE_BATCH_SIZE_PROPERTY} documents have been buffered, or when
+     * the vector of any word or document is requested, the buffered documents
+     * are applied to the SVD with an {@link IncrementalSVD} rank-{@code k}
+     * update.  Every vector may change as a result, but only the new documents
+     * and the current factors are used, so the cost of an update does not
+     * depend on how many documents were processed before it.  {@link
+     * #getUpdateDrift()} bounds how far the updated space has drifted from a
+     * full rebuild.  The weighting statistics are not updated.
+     *
+     * <p>
+     *
+     * Updating and folding in cannot be combined in the same space.
+     *
+     * @return the number of the new document, or {@code -1} if the document
+     *         had no words
+     */
+    public synchronized int updateDocument(BufferedReader document)
+            throws IOException {
+        if (wordSpace == null && incrementalSVD == null)
+            throw new IllegalStateException(
+                "processSpace must be called before updating documents");
+        if (!foldedDocumentVectors.isEmpty() || !foldedTermVectors.isEmpty())
+            throw new IllegalStateException(
+                "documents cannot be updated in a space with folded-in " +
+                "documents");
+        if (incrementalSVD == null) {
+            incrementalSVD = new IncrementalSVD(wordSpace, singularValues,
+                                                documentSpace,
+                                                reorthogonalizationInterval);
+            // Rounded or quantized factors are not orthonormal
+            if (storage != ElementType.DOUBLE)
+                incrementalSVD.reorthogonalize();
+            // The incremental SVD holds its own copies of the factors
+            wordSpace = null;
+            documentSpace = null;
+        }
+
+        IntCounter termCounts = documentTermCounts.get();
+        countTerms(document, termCounts, true);
+        if (termCounts.isEmpty())
+            return -1;
+
+        int size = termCounts.size();
+        int[] terms = new int[size];
+        float[] counts = new float[size];
+        for (int i = 0; i < size; ++i) {
+            terms[i] = termCounts.key(i);
+            counts[i] = termCounts.count(i);
+        }
+        double[] weights = new double[size];
+        transform.weightDocument(terms, counts, size, weights);
+        float[] values = new float[size];
+        for (int i = 0; i < size; ++i)
+            values[i] = (float)weights[i];
+        pendingTerms.add(terms);
+        pendingWeights.add(values);
+
+        int documentNumber = getDocumentCount() - 1;
+        if (pendingTerms.size() >= updateBatchSize)
+            flushUpdates();
+        return documentNumber;
+    }
+
+    /**
+     * Applies any documents buffered by {@link #updateDocument(BufferedReader)
+     * updateDocument} to the SVD.
+     */
+    public synchronized void flushUpdates() {
+        if (pendingTerms.isEmpty())
+            return;
+
+        // Build the batch's columns, indexed from 0
+        int columns = pendingTerms.size();
+        int[] columnStarts = new int[columns + 1];
+        for (int col = 0; col < columns; ++col)
+            columnStarts[col + 1] =
+                columnStarts[col] + pendingTerms.get(col).length;
+        int[] rowIndices = new int[columnStarts[columns]];
+        float[] values = new float[columnStarts[columns]];
+        for (int col = 0; col < columns; ++col) {
+            int[] terms = pendingTerms.get(col);
+            for (int i = 0; i < terms.length; ++i)
+                rowIndices[columnStarts[col] + i] = terms[i] - 1;
+            System.arraycopy(pendingWeights.get(col), 0, values,
+                             columnStarts[col], terms.length);
+        }
+        pendingTerms.clear();
+        pendingWeights.clear();
+        documentIndex = null;
+
+        incrementalSVD.update(new SparseTermDocumentMatrix(
+            termToIndex.size(), columns, columnStarts, rowIndices, values));
+        singularValues = incrementalSVD.getSingularValues();
+        LSA_LOGGER.fine("updated the SVD with " + columns + " documents; " +
+                        "drift " + incrementalSVD.getDrift());
+    }
+
+    /**
+     * Returns a bound on how much less accurate the space is than if it were
+     * rebuilt from all of its documents, as a fraction of the norm of the
+     * weighted word-document matrix.  This is {@code 0} until documents have
+     * been added with {@link #updateDocument(BufferedReader) updateDocument},
+     * and is described further by {@link IncrementalSVD#getDrift()}.
+     */
+    public synchronized double getUpdateDrift() {
+        flushUpdates();
+        return (incrementalSVD == null) ? 0 : incrementalSVD.getDrift();
+    }
+
+    /**
+     * Returns how similar the word space of this instance is to that of
+     * another, such as a full rebuild of an updated space, as the mean squared
+     * cosine of the principal angles between the two spaces.  This is {@code
+     * 1} if they span the same subspace and {@code 0} if they are orthogonal,
+     * and it does not depend on the order or sign of the dimensions.  Words
+     * are matched by name, and words in only one of the spaces are ignored.
+     */
+    public double compareWordSpace(LatentSemanticAnalysis other) {
+        int k = getVectorSize();
+        int otherK = other.getVectorSize();
+        double[] product = new double[k * otherK];
+        for (String word : getWords()) {
+            double[] x = getVectorFor(word);
+            double[] y = other.getVectorFor(word);
+            if (x == null || y == null)
+                continue;
+            for (int i = 0; i < k; ++i) {
+                if (x[i] == 0)
+                    continue;
+                for (int j = 0; j < otherK; ++j)
+                    product[i * otherK + j] += x[i] * y[j];
+            }
+        }
+        // ||U1'U2||_F^2 is the sum of the squared cosines of the angles
+        double sum = 0;
+        for (double p : product)
+            sum += p * p;
+        return sum / Math.min(k, otherK);
+    }
+
+    /**
+     * Saves the word and document spaces as {@code double} values.
+     *
+     * @see #save(File,ElementType)
+     */
+    public void save(File file) throws IOException {
+        save(file, ElementType.DOUBLE);
+    }
+
+    /**
+     * Saves the vocabulary, the singular values and the word and document
+     * spaces to the file, which may then be opened as a {@link
+     * MappedSemanticSpace}.  Documents that have been folded in or added are
+     * saved with the rest; buffered updates are applied first.  The weighting
+     * statistics of the transform are not saved, so the opened space can be
+     * queried but not extended with new documents.
+     *
+     * @param type the type used to store the vectors
+     */
+    public synchronized void save(File file, ElementType type)
+            throws IOException {
+        if (wordSpace == null && incrementalSVD == null)
+            throw new IllegalStateException(
+                "processSpace must be called before saving the space");
+        flushUpdates();
+
+        final String[] terms = new String[termToIndex.size()];
+        for (String term : termToIndex.terms())
+            terms[termToIndex.find(term) - 1] = term;
+        MappedSemanticSpace.write(
+            file, terms, singularValues,
+            new MappedSemanticSpace.RowSource() {
+                public double[] getRow(int row) {
+                    return getVectorFor(terms[row]);
+                }
+            },
+            getDocumentCount(),
+            new MappedSemanticSpace.RowSource() {
+                public double[] getRow(int row) {
+                    return getDocumentVector(row);
+                }
+            },
+            type);
+    }
+
+    /**
+     * Returns the vector of the term with the provided index from the updated
+     * SVD.
+     */
+    private synchronized double[] getUpdatedTermVector(int index) {
+        flushUpdates();
+        return (index <= incrementalSVD.rows())
+            ? incrementalSVD.getLeftVector(index - 1)
+            : null;
+    }
+
+    /**
+     * Returns the vector of the document from the updated SVD.
+     */
+    private synchronized double[] getUpdatedDocumentVector(int documentNumber) {
+        flushUpdates();
+        if (documentNumber < 0 || documentNumber >= incrementalSVD.columns()) {
             throw new IllegalArgumentException(
                 "Document number is not within the bounds of the number of "
                 + "documents: " + documentNumber);
         }
-        return documentSpace.getRow(documentNumber);
+        return incrementalSVD.getRightVector(documentNumber);
+    }
+
+    /**
+     * Returns the non-negative integer value of the property, or the default
+     * value if the property is unset.
+     */
+    private static int getIntProperty(Properties properties, String property,
+                                      int defaultValue) {
+        String value = properties.getProperty(property);
+        if (value == null)
+            return defaultValue;
+        try {
+            int i = Integer.parseInt(value);
+            if (i < 0)
+                throw new IllegalArgumentException(
+                    property + " must not be negative: " + value);
+            return i;
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException(
+                property + " is not an integer: " + value);
+        }
+    }
+
+    /**
+     * Divides each dimension of the vector by its singular value, leaving the
+     * dimensions with a singular value of zero as zero.
+     */
+    private void scaleByInverse(double[] vector) {
+        for (int d = 0; d < vector.length; ++d) {
+            vector[d] = (singularValues[d] > 0)
+                ? vector[d] / singularValues[d]
+                : 0;
+        }
     }
 
     /**
@@ -418,7 +1243,7 @@ public class LatentSemanticAnalysis implements SemanticSpace {
      * {@inheritDoc}
      */
     public int getVectorSize() {
-      return wordSpace.columns();
+      return singularValues.length;
     }
 
     /**
@@ -426,8 +1251,9 @@ public class LatentSemanticAnalysis implements SemanticSpace {
      *
      * <p>
      *
-     * This method is thread-safe and may be called in parallel with separate
-     * documents to speed up overall processing time.
+     * This method merges the matrix segments written by each thread that
+     * called {@link #processDocument(BufferedReader) processDocument} before
+     * transforming the matrix.
      *
      * @param properties {@inheritDoc} See this class's {@link
      *        LatentSemanticAnalysis javadoc} for the full list of supported
@@ -435,11 +1261,6 @@ public class LatentSemanticAnalysis implements SemanticSpace {
      */
     public void processSpace(Properties properties) {
         try {
-            // first ensure that we are no longer writing to the matrix
-            synchronized(rawTermDocMatrix) {
-                rawTermDocMatrixWriter.close();
-            }
-
             MatrixTransformer transform = new LogEntropyTransformer();
 
             String transformClass =
@@ -459,9 +1280,53 @@ public class LatentSemanticAnalysis implements SemanticSpace {
 
             LSA_LOGGER.info("performing " + transform + " transform");
 
-            // Convert the raw term counts using the specified transform
-            File processedTermDocumentMatrix =
-                transform.transform(rawTermDocMatrix);
+            updateBatchSize =
+                getIntProperty(properties, LSA_UPDATE_BATCH_SIZE_PROPERTY, 100);
+            reorthogonalizationInterval = getIntProperty(
+                properties, LSA_REORTHOGONALIZATION_INTERVAL_PROPERTY, 10);
+            String storageProp = properties.getProperty(LSA_STORAGE_PROPERTY);
+            try {
+                storage = (storageProp == null)
+                    ? ElementType.DOUBLE
+                    : ElementType.valueOf(storageProp);
+            } catch (IllegalArgumentException iae) {
+                throw new IllegalArgumentException(
+                    LSA_STORAGE_PROPERTY + " is not an element type: " +
+                    storageProp);
+            }
+
+            numThreads = ParallelTasks.defaultThreads();
+            String userSpecifiedThreads =
+                properties.getProperty(LSA_THREADS_PROPERTY);
+            if (userSpecifiedThreads != null) {
+                try {
+                    numThreads = Integer.parseInt(userSpecifiedThreads);
+                } catch (NumberFormatException nfe) {
+                    throw new IllegalArgumentException(
+                        LSA_THREADS_PROPERTY + " is not an integer: " +
+                        userSpecifiedThreads);
+                }
+                if (numThreads < 1)
+                    throw new IllegalArgumentException(
+                        LSA_THREADS_PROPERTY + " must be at least 1: " +
+                        userSpecifiedThreads);
+            }
+
+            // Convert the raw term counts using the specified transform.  The
+            // matrix is kept in memory unless it was spilled while the
+            // documents were processed.
+            SparseTermDocumentMatrix matrix = null;
+            File processedTermDocumentMatrix = null;
+            if (spillSegments) {
+                processedTermDocumentMatrix =
+                    transformSpilledSegments(transform, numThreads);
+            }
+            else {
+                matrix = SparseTermDocumentMatrix.fromSegments(
+                    termToIndex.size(), docIndexCounter.get(), segments);
+                segments.clear();
+                transform.transform(matrix, numThreads);
+            }
 
             int dimensions = 300; // default
             String userSpecfiedDims =
@@ -479,26 +1344,107 @@ public class LatentSemanticAnalysis implements SemanticSpace {
             LSA_LOGGER.info("reducing to " + dimensions + " dimensions");
 
             String svdProp = properties.getProperty(LSA_SVD_ALGORITHM_PROPERTY);
-            SVD.Algorithm alg = (svdProp == null)
-                ? SVD.Algorithm.ANY
-                : SVD.Algorithm.valueOf(svdProp);
+            Matrix[] usv = null;
+            File svdInput = null;
+            try {
+                if (RANDOMIZED_SVD.equals(svdProp) ||
+                        LANCZOS_SVD.equals(svdProp)) {
+                    // The built-in SVDs work directly on the sparse matrix, so
+                    // a spilled matrix is read back into memory for them
+                    if (matrix == null)
+                        matrix = TermDocumentMatrixIO.read(
+                            processedTermDocumentMatrix);
+                    usv = (RANDOMIZED_SVD.equals(svdProp))
+                        ? new RandomizedSVD(properties).svd(
+                              matrix, dimensions, numThreads)
+                        : new LanczosSVD(properties).svd(
+                              matrix, dimensions, numThreads);
+                }
+                else {
+                    SVD.Algorithm alg = (svdProp == null)
+                        ? SVD.Algorithm.ANY
+                        : SVD.Algorithm.valueOf(svdProp);
 
-            // Compute SVD on the pre-processed matrix.
-            Matrix[] usv = SVD.svd(processedTermDocumentMatrix,
-                                   alg,
-                                   dimensions);
+                    // The SVD implementations only read text formats, so the
+                    // processed matrix is exported to MATLAB_SPARSE just for
+                    // the SVD.
+                    svdInput = (matrix == null)
+                        ? TermDocumentMatrixIO.toMatlabSparse(
+                              processedTermDocumentMatrix)
+                        : TermDocumentMatrixIO.toMatlabSparse(matrix);
+                    matrix = null;
+
+                    // Compute SVD on the pre-processed matrix.
+                    usv = SVD.svd(svdInput, alg, dimensions);
+                }
+            } finally {
+                // The transformed matrix and its export are each as large as
+                // the matrix, and are not needed once the SVD has been read
+                if (processedTermDocumentMatrix != null)
+                    processedTermDocumentMatrix.delete();
+                if (svdInput != null)
+                    svdInput.delete();
+            }
 
             // Load the left factor matrix, which is the word semantic space
-            wordSpace = usv[0];
+            Matrix u = usv[0];
+            CompactMatrix words =
+                new CompactMatrix(u.rows(), u.columns(), storage);
+            for (int row = 0; row < u.rows(); ++row)
+                words.setRow(row, u.getRow(row));
+            wordSpace = words;
             // We transpose the document space to provide easier access to the
             // document vectors, which in the un-transposed version are the
-            // columns.  NOTE: if the Matrix interface ever adds a getColumn()
-            // method, it might be better to use that instead.
-            documentSpace = Matrices.transpose(usv[2]);
+            // columns.  The columns are copied one at a time so that no
+            // transposed double matrix is needed.
+            Matrix vt = usv[2];
+            CompactMatrix documents =
+                new CompactMatrix(vt.columns(), vt.rows(), storage);
+            double[] column = new double[vt.rows()];
+            for (int doc = 0; doc < vt.columns(); ++doc) {
+                for (int d = 0; d < column.length; ++d)
+                    column[d] = vt.get(d, doc);
+                documents.setRow(doc, column);
+            }
+            documentSpace = documents;
+
+            // Keep what is needed to fold in new documents
+            singularValues = new double[usv[1].rows()];
+            for (int d = 0; d < singularValues.length; ++d)
+                singularValues[d] = usv[1].get(d, d);
+            this.transform = transform;
 
         } catch (IOException ioe) {
             //rethrow as Error
             throw new IOError(ioe);
         }
     }
+
+    /**
+     * Spills any in-memory segments, merges all the segments into the raw
+     * term-document matrix file and transforms it, returning the file
+     * containing the processed matrix.
+     */
+    private File transformSpilledSegments(MatrixTransformer transform,
+                                          int numThreads) throws IOException {
+        List<File> segmentFiles = new ArrayList<File>(segments.size());
+        for (TermDocumentSegment segment : segments) {
+            if (!segment.isSpilled())
+                spill(segment);
+            segmentFiles.add(segment.close());
+        }
+        segments.clear();
+        LSA_LOGGER.fine("merging " + segmentFiles.size() +
+                        " term-document matrix segments");
+        TermDocumentMatrixIO.concatenate(segmentFiles, rawTermDocMatrix);
+        for (File segmentFile : segmentFiles)
+            segmentFile.delete();
+
+        File processedTermDocumentMatrix = File.createTempFile(
+            rawTermDocMatrix.getName() + ".transform", "dat");
+        transform.transform(rawTermDocMatrix, processedTermDocumentMatrix,
+                            numThreads);
+        rawTermDocMatrix.delete();
+        return processedTermDocumentMatrix;
+    }
 }
\ No newline at end of file
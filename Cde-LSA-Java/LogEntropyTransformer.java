@@ -21,16 +21,8 @@
 
 package edu.ucla.sspace.lsa;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.PrintWriter;
-
-import java.util.HashMap;
-import java.util.Map;
-
-import java.util.logging.Logger;
 
 import static edu.ucla.sspace.common.Statistics.log2;
 import static edu.ucla.sspace.common.Statistics.log2_1p;
@@ -59,15 +51,7 @@ import static edu.ucla.sspace.common.Statistics.log2_1p;
  *
  * @author David Jurgens
  */
-public class LogEntropyTransformer implements MatrixTransformer {
-
-    /*
-     * Implementation Reminder: This class could be improved through converting
-     * it to use the common.Matrix implementations.
-     */
-
-    private static final Logger LOGGER =
-        Logger.getLogger(LogEntropyTransformer.class.getName());
+public class LogEntropyTransformer extends AbstractMatrixTransformer {
 
     /**
      *
@@ -83,95 +67,88 @@ public class LogEntropyTransformer implements MatrixTransformer {
     }
 
     /**
-     * Transforms the matrix contained in the {@code input} argument, writing
-     * the results to the {@code output} file.
+     * {@inheritDoc}
      */
-    public void transform(File input, File output) throws IOException {
-
-        Map<Integer,Integer> docToNumTerms = new HashMap<Integer,Integer>();
-
-        int numDocs = 0;
-
-        Map<Integer,Integer> termToGlobalCount = new HashMap<Integer,Integer>();
-
-        int globalTermCount = 0;
-
-        // calculate how many terms were in each document for the original
-        // term-document matrix
-        BufferedReader br = new BufferedReader(new FileReader(input));
-        for (String line = null; (line = br.readLine()) != null; ) {
-
-            String[] termDocCount = line.split("\\s+");
-
-            Integer term  = Integer.valueOf(termDocCount[0]);
-            int doc   = Integer.parseInt(termDocCount[1]);
-            Integer count = Integer.valueOf(termDocCount[2]);
-
-            if (doc > numDocs)
-                numDocs = doc;
+    protected TermDocumentStatistics createStatistics(int numTerms,
+                                                      int numDocs) {
+        return new LogEntropyStatistics(numTerms, numDocs);
+    }
 
-            Integer termGlobalCount = termToGlobalCount.get(term);
-            termToGlobalCount.put(term, (termGlobalCount == null)
-                                  ? count
-                                  : termGlobalCount + count);
+    /**
+     * The global count and entropy of each term.  Each term's entropy is
+     * computed from the sum of {@code count * log2(count)} over its documents,
+     * which, unlike the sum of each document's {@code p * log2(p)}, does not
+     * require the term's global count to be known in advance.  With {@code p =
+     * count / gf}, the sum of {@code p * log2(p)} is {@code sum(count *
+     * log2(count)) / gf - log2(gf)}.
+     */
+    private static class LogEntropyStatistics extends TermDocumentStatistics {
+
+        private final int numDocs;
+
+        /**
+         * The total number of occurrences of each term in all documents
+         */
+        private final double[] termToGlobalCount;
+
+        /**
+         * The sum of {@code count * log2(count)} over each term's documents,
+         * which is replaced by the term's entropy weight once finished
+         */
+        private final double[] termToEntropy;
+
+        public LogEntropyStatistics(int numTerms, int numDocs) {
+            this.numDocs = numDocs;
+            // Terms are indexed from 1, so the arrays need one extra, unused
+            // element
+            termToGlobalCount = new double[numTerms + 1];
+            termToEntropy = new double[numTerms + 1];
         }
 
-        br.close();
-
-        LOGGER.fine("calculating term entropy");
-
-        Map<Integer,Double> termToEntropySum = new HashMap<Integer,Double>();
-
-        // now go through and find the probability that the term appears in the
-        // document given how many terms it has to begin with
-        br = new BufferedReader(new FileReader(input));
-        for (String line = null; (line = br.readLine()) != null; ) {
-            String[] termDocCount = line.split("\\s+");
-
-            Integer term  = Integer.valueOf(termDocCount[0]);
-            Integer doc   = Integer.valueOf(termDocCount[1]);
-            Integer count = Integer.valueOf(termDocCount[2]);
-
-            double probability = count.doubleValue() /
-                termToGlobalCount.get(term).doubleValue();
-
-            double d = (probability * log2(probability));
-
-            // NOTE: keep the entropy sum a positive value
-            Double entropySum = termToEntropySum.get(term);
-            termToEntropySum.put(term, (entropySum == null)
-                                 ? d : entropySum + d);
+        protected void add(int term, int document, float value) {
+            termToGlobalCount[term] += value;
+            termToEntropy[term] += value * log2(value);
         }
-        br.close();
 
+        protected void combine(TermDocumentStatistics other) {
+            LogEntropyStatistics o = (LogEntropyStatistics)other;
+            for (int term = 0; term < termToGlobalCount.length; ++term) {
+                termToGlobalCount[term] += o.termToGlobalCount[term];
+                termToEntropy[term] += o.termToEntropy[term];
+            }
+        }
 
-        LOGGER.fine("generating new matrix");
-
-        PrintWriter pw = new PrintWriter(output);
-
-        // Last, rewrite the original matrix using the log-entropy
-        // transformation describe on page 17 of Landauer et al. "An
-        // Introduction to Latent Semantic Analysis"
-        br = new BufferedReader(new FileReader(input));
-        for (String line = null; (line = br.readLine()) != null; ) {
-            String[] termDocCount = line.split("\\s+");
-
-            Integer term  = Integer.valueOf(termDocCount[0]);
-            Integer doc   = Integer.valueOf(termDocCount[1]);
-            Integer count = Integer.valueOf(termDocCount[2]);
-
-            double log = log2_1p(count);
+        protected void finish() {
+            // Compute the global weight of each term using the log-entropy
+            // transformation describe on page 17 of Landauer et al. "An
+            // Introduction to Latent Semantic Analysis"
+            double logNumDocs = log2(numDocs);
+            for (int term = 0; term < termToEntropy.length; ++term) {
+                double globalCount = termToGlobalCount[term];
+                // NOTE: keep the entropy sum a positive value
+                double entropySum = (globalCount > 0)
+                    ? termToEntropy[term] / globalCount - log2(globalCount)
+                    : 0;
+                termToEntropy[term] = 1 + (entropySum / logNumDocs);
+            }
+        }
 
-            double entropySum = termToEntropySum.get(term).doubleValue();
-            double entropy = 1 + (entropySum / log2(numDocs));
+        protected double weight(int term, int document, float value) {
+            return log2_1p(value) * termToEntropy[term];
+        }
 
-            // now print out the noralized values
-            pw.println(term + "\t" +
-                       doc + "\t" +
-                       (log * entropy));
+        protected void weightDocument(int[] terms, float[] values, int size,
+                                      double[] weights) {
+            for (int i = 0; i < size; ++i) {
+                // A term not seen in the matrix occurs in just this document,
+                // so its entropy weight is 1
+                int term = terms[i];
+                double entropy = (term < termToEntropy.length)
+                    ? termToEntropy[term]
+                    : 1;
+                weights[i] = log2_1p(values[i]) * entropy;
+            }
         }
-        br.close();
-        pw.close();
     }
 
     public String toString() {
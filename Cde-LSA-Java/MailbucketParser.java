@@ -0,0 +1,428 @@
+package edu.ucla.sspace.lsa;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+
+import java.nio.charset.Charset;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A streaming parser for mailbucket dumps of the comment notifications sent by
+ * Blogger, such as {@code Mailbuck_freshblogcomments.dat}.  Each notification
+ * is recorded as
+ *
+ * <pre>
+ *   Apr 18, 2009 9:25 AM
+ *   [Freshblog] New comment on Reverse Post Order and Random Post Hacks.
+ *   Darren Bourne has left a new comment on your post "Reverse Post Order
+ *   and Random Post Hacks":
+ *
+ *   difficult to follow &amp; impossible to execute. ...
+ *
+ *   Moderate comments for this blog:
+ *   http://www.blogger.com/moderate-comment.g?blogID=5573108
+ *
+ *   Posted by Darren Bourne to Freshblog at 4/18/2009 06:16:00 AM
+ *   Add starLikeShareShare with noteEmailAdd tags
+ * </pre>
+ *
+ * A record starts with a subject line in square brackets directly after a
+ * date line, and ends with a line starting with {@code Add
+ * starLikeShareShare} or at the date line of the next record.  Two older
+ * forms of notification are also read: those whose subject holds only a
+ * timestamp and whose body ends with {@code --Posted by}, which may be
+ * quoted-printable encoded, and those wrapped in MIME headers, whose
+ * plain-text part is used.
+ *
+ * <p>
+ *
+ * For each record, the title of the post, the commenter, the timestamp of the
+ * comment and its body are extracted.  The title is {@code null} for
+ * notifications that do not name the post.  The timestamp is the one given
+ * after {@code Posted by}, or else the one in the subject, or else the date
+ * line of the record.
+ *
+ * <p>
+ *
+ * Only the lines of the current record are held in memory.  This class is not
+ * thread-safe.
+ */
+public class MailbucketParser {
+
+    /**
+     * A consumer of the comments of a dump.
+     */
+    public interface CommentHandler {
+
+        /**
+         * Handles a comment, whose title is {@code null} if the post it was
+         * made on is not known.
+         */
+        void handle(String title, String commenter, String timestamp,
+                    String body) throws IOException;
+    }
+
+    /**
+     * The text of a subject that precedes the title of the post
+     */
+    private static final String NEW_COMMENT = "New comment on ";
+
+    /**
+     * The text that follows the commenter's name in the header of a comment
+     */
+    private static final String HAS_LEFT =
+        " has left a new comment on your post ";
+
+    /**
+     * The line that starts the moderation link after the body of a comment
+     */
+    private static final String MODERATE = "Moderate comments for this blog:";
+
+    /**
+     * The text that starts the line naming the commenter and the timestamp
+     */
+    private static final String POSTED_BY = "Posted by ";
+
+    /**
+     * The text that separates the body of an older comment from its author
+     */
+    private static final String INLINE_POSTED_BY = "--" + POSTED_BY;
+
+    /**
+     * The abbreviations of the months that start a date line
+     */
+    private static final String MONTHS =
+        "JanFebMarAprMayJunJulAugSepOctNovDec";
+
+    /**
+     * The character set of the dumps
+     */
+    private static final Charset LATIN_1 = Charset.forName("ISO-8859-1");
+
+    /**
+     * The character set of the text of quoted-printable notifications
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final BufferedReader reader;
+
+    /**
+     * The previous line read outside of a record, which is the date of a
+     * record if the current line is its subject
+     */
+    private String previousLine;
+
+    /**
+     * The date and subject lines of the next record, if they were read while
+     * reading the previous record, or {@code null}
+     */
+    private String pendingDate;
+
+    private String pendingSubject;
+
+    /**
+     * The lines of the current record after its subject
+     */
+    private final List<String> lines;
+
+    private String title;
+
+    private String commenter;
+
+    private String timestamp;
+
+    private String body;
+
+    /**
+     * Creates a parser that reads the dump from the provided reader.
+     */
+    public MailbucketParser(Reader reader) {
+        this.reader = (reader instanceof BufferedReader)
+            ? (BufferedReader)reader
+            : new BufferedReader(reader);
+        previousLine = null;
+        pendingDate = null;
+        pendingSubject = null;
+        lines = new ArrayList<String>();
+    }
+
+    /**
+     * Opens the dump for reading with the ISO-8859-1 character set in which
+     * the dumps are written, decompressing it if it was compressed with gzip.
+     */
+    public static BufferedReader open(File dump) throws IOException {
+        return FeedParser.open(dump, LATIN_1);
+    }
+
+    /**
+     * Advances to the next comment and returns {@code true}, or returns {@code
+     * false} if there are no more comments.
+     */
+    public boolean next() throws IOException {
+        String date = pendingDate;
+        String subject = pendingSubject;
+        pendingDate = null;
+        pendingSubject = null;
+        String line;
+        while (subject == null) {
+            if ((line = reader.readLine()) == null)
+                return false;
+            if (isSubject(line) && isDate(previousLine)) {
+                date = previousLine;
+                subject = line;
+            }
+            previousLine = line;
+        }
+
+        lines.clear();
+        previousLine = null;
+        while ((line = reader.readLine()) != null) {
+            if (FeedParser.isEnd(line))
+                break;
+            if (isSubject(line) && isDate(previousLine)) {
+                // The record had no terminator, and its last line was the date
+                // of the next record
+                lines.remove(lines.size() - 1);
+                pendingDate = previousLine;
+                pendingSubject = line;
+                break;
+            }
+            lines.add(line);
+            previousLine = line;
+        }
+        previousLine = null;
+        parseRecord(date, subject);
+        return true;
+    }
+
+    /**
+     * Returns the title of the post of the current comment, or {@code null} if
+     * the post is not known.
+     */
+    public String title() {
+        return title;
+    }
+
+    /**
+     * Returns the name of the author of the current comment, or {@code null}
+     * if it is not known.
+     */
+    public String commenter() {
+        return commenter;
+    }
+
+    /**
+     * Returns the timestamp of the current comment.
+     */
+    public String timestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the body of the current comment.
+     */
+    public String body() {
+        return body;
+    }
+
+    /**
+     * Passes each of the remaining comments to the handler, and then closes
+     * the dump.
+     */
+    public void parse(CommentHandler handler) throws IOException {
+        try {
+            while (next())
+                handler.handle(title, commenter, timestamp, body);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Closes the dump.
+     */
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * Extracts the title, commenter, timestamp and body of the record from its
+     * date, subject and {@link #lines}.
+     */
+    private void parseRecord(String date, String subject) {
+        title = null;
+        commenter = null;
+        timestamp = null;
+        List<String> recordLines = lines;
+
+        // Older notifications are quoted-printable encoded, which is marked by
+        // the encoded space on the line after the subject
+        if (!recordLines.isEmpty() && recordLines.get(0).equals("=20"))
+            recordLines = decodeQuotedPrintable(recordLines);
+
+        // The subject names the post, either on the same line or, in
+        // notifications with MIME headers, on the next
+        int i = 0;
+        String topic = subject.substring(subject.indexOf(']') + 1).trim();
+        if (topic.length() == 0 && !recordLines.isEmpty())
+            topic = recordLines.get(i++).trim();
+        if (topic.startsWith(NEW_COMMENT)) {
+            title = topic.substring(NEW_COMMENT.length()).trim();
+            // the subject ends with a period that is not part of the title
+            if (title.endsWith("."))
+                title = title.substring(0, title.length() - 1);
+        }
+
+        // Skip any MIME headers before the header of the comment, which
+        // names the commenter and is followed by the body
+        int n = recordLines.size();
+        for (int j = i; j < n; ++j) {
+            String line = recordLines.get(j);
+            int hasLeft = line.indexOf(HAS_LEFT);
+            if (hasLeft >= 0) {
+                commenter = line.substring(0, hasLeft).trim();
+                // the quoted title of the post may be wrapped over several
+                // lines, and ends with a colon
+                while (j < n && !recordLines.get(j).trim().endsWith("\":"))
+                    j++;
+                i = j + 1;
+                break;
+            }
+        }
+
+        StringBuilder bodyBuilder = new StringBuilder();
+        String posted = null;
+        for (; i < n; ++i) {
+            String line = recordLines.get(i);
+            if (line.startsWith(MODERATE)) {
+                while (i < n && !recordLines.get(i).startsWith(POSTED_BY))
+                    i++;
+                posted = joinPosted(recordLines, i, 0);
+                break;
+            }
+            if (line.startsWith(POSTED_BY)) {
+                posted = joinPosted(recordLines, i, 0);
+                break;
+            }
+            int inline = line.indexOf(INLINE_POSTED_BY);
+            if (inline >= 0) {
+                bodyBuilder.append(line.substring(0, inline)).append('\n');
+                posted = joinPosted(recordLines, i, inline + 2);
+                break;
+            }
+            bodyBuilder.append(line).append('\n');
+        }
+        body = bodyBuilder.toString().trim();
+
+        // The commenter's name and the timestamp are separated from the name
+        // of the blog by the last " to " and " at "
+        if (posted != null) {
+            posted = posted.substring(POSTED_BY.length());
+            int at = posted.lastIndexOf(" at ");
+            int to = (at < 0) ? -1 : posted.lastIndexOf(" to ", at);
+            if (to >= 0) {
+                commenter = posted.substring(0, to).trim();
+                timestamp = posted.substring(at + 4).trim();
+            }
+        }
+        // Older subjects hold the timestamp of the comment instead of the
+        // title of the post
+        if (timestamp == null)
+            timestamp = (title == null && topic.length() > 0)
+                ? topic : date.trim();
+    }
+
+    /**
+     * Returns the text of the {@code Posted by} line that starts at {@code
+     * offset} of line {@code i}, joined with the following lines up to a blank
+     * line or a MIME boundary, or {@code null} if there is no such line.
+     */
+    private static String joinPosted(List<String> lines, int i, int offset) {
+        if (i >= lines.size())
+            return null;
+        StringBuilder posted =
+            new StringBuilder(lines.get(i).substring(offset).trim());
+        for (int j = i + 1; j < lines.size(); ++j) {
+            String line = lines.get(j).trim();
+            if (line.length() == 0 || line.startsWith("--"))
+                break;
+            posted.append(' ').append(line);
+        }
+        return posted.toString();
+    }
+
+    /**
+     * Returns the lines decoded from the quoted-printable encoding, where a
+     * line ending in {@code =} continues on the next line and {@code =XX}
+     * encodes the byte with hexadecimal value {@code XX}.  The bytes of each
+     * line are decoded as UTF-8, the character set of the encoded
+     * notifications.
+     */
+    static List<String> decodeQuotedPrintable(List<String> encoded) {
+        List<String> decoded = new ArrayList<String>(encoded.size());
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        for (String text : encoded) {
+            int end = text.length();
+            boolean softBreak = end > 0 && text.charAt(end - 1) == '=';
+            if (softBreak)
+                end--;
+            for (int k = 0; k < end; ++k) {
+                char c = text.charAt(k);
+                if (c == '=' && k + 2 < end) {
+                    int hi = Character.digit(text.charAt(k + 1), 16);
+                    int lo = Character.digit(text.charAt(k + 2), 16);
+                    if (hi >= 0 && lo >= 0) {
+                        line.write((hi << 4) | lo);
+                        k += 2;
+                        continue;
+                    }
+                }
+                line.write(c);
+            }
+            if (!softBreak) {
+                decoded.add(new String(line.toByteArray(), UTF_8));
+                line.reset();
+            }
+        }
+        if (line.size() > 0)
+            decoded.add(new String(line.toByteArray(), UTF_8));
+        return decoded;
+    }
+
+    /**
+     * Returns whether the line is the subject of a notification, which starts
+     * with a name in square brackets.
+     */
+    private static boolean isSubject(String line) {
+        return line.length() > 2 && line.charAt(0) == '['
+            && line.indexOf(']') > 1;
+    }
+
+    /**
+     * Returns whether the line starts with a date such as {@code Apr 18,
+     * 2009}.
+     */
+    private static boolean isDate(String line) {
+        if (line == null || line.length() < 11 || line.charAt(3) != ' ')
+            return false;
+        int month = MONTHS.indexOf(line.substring(0, 3));
+        if (month < 0 || month % 3 != 0)
+            return false;
+        int i = 4;
+        while (i < line.length() && Character.isDigit(line.charAt(i)))
+            i++;
+        if (i == 4 || i + 6 > line.length() || line.charAt(i) != ',' ||
+                line.charAt(i + 1) != ' ')
+            return false;
+        for (int k = i + 2; k < i + 6; ++k) {
+            if (!Character.isDigit(line.charAt(k)))
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,289 @@
+package edu.ucla.sspace.lsa;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+
+import java.nio.channels.FileChannel;
+
+import java.nio.charset.Charset;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.Callable;
+
+/**
+ * A reader of uncompressed feed files in the format of {@link FeedParser} that
+ * parses the file with several threads.  The file is memory-mapped and divided
+ * into regions of about the same size.  Each thread finds the first record
+ * that starts after the beginning of its region and after the beginning of
+ * the next region, and parses the records between them, so the regions are
+ * split only at record boundaries and no thread reads the whole file.
+ *
+ * <p>
+ *
+ * A region starts at the first header line after its nominal offset whose
+ * previous line is not also a header, which is always the start of a record
+ * when the file is parsed from its beginning.  The records found are
+ * therefore the same as those found by a single {@code FeedParser} reading
+ * the whole file.
+ *
+ * <p>
+ *
+ * Records are passed to a {@link FeedParser.RecordHandler} either by the
+ * thread that parsed them, which lets the handler do its own work, such as
+ * tokenizing and counting a document, in parallel, or in the order of the
+ * file from the calling thread.  The file is read with the platform's default
+ * character set, which must encode line feeds as single bytes.
+ */
+public class MappedFeedReader {
+
+    /**
+     * The smallest region given to a thread
+     */
+    private static final long MIN_REGION_BYTES = 1 << 16;
+
+    /**
+     * The largest region given to a thread, which bounds the memory used by
+     * the records of a region waiting to be handled in order
+     */
+    private static final long MAX_REGION_BYTES = 1 << 23;
+
+    /**
+     * The character set used to decode lines that may be headers
+     */
+    private static final Charset LATIN_1 = Charset.forName("ISO-8859-1");
+
+    private final File feed;
+
+    private final Charset charset;
+
+    /**
+     * Creates a reader of the feed file.
+     */
+    public MappedFeedReader(File feed) {
+        this.feed = feed;
+        this.charset = Charset.defaultCharset();
+    }
+
+    /**
+     * Parses the feed with up to {@code numThreads} threads and passes each
+     * record to the handler from the thread that parsed it.  The handler must
+     * be thread-safe, and records are not handled in the order of the file.
+     */
+    public void parse(final FeedParser.RecordHandler handler, int numThreads)
+            throws IOException {
+        RandomAccessFile file = new RandomAccessFile(feed, "r");
+        try {
+            final FileChannel channel = file.getChannel();
+            final long[] offsets = regionOffsets(channel.size(), numThreads);
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+            for (int i = 0; i + 1 < offsets.length; ++i) {
+                final int region = i;
+                tasks.add(new Callable<Void>() {
+                        public Void call() throws IOException {
+                            FeedParser parser =
+                                openRegion(channel, offsets, region);
+                            if (parser != null)
+                                parser.parse(handler);
+                            return null;
+                        }
+                    });
+            }
+            ParallelTasks.invokeAll(tasks, numThreads);
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Parses the feed with up to {@code numThreads} threads and passes each
+     * record to the handler from the calling thread, in the order of the
+     * file.
+     */
+    public void parseInOrder(final FeedParser.RecordHandler handler,
+                             int numThreads) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(feed, "r");
+        try {
+            final FileChannel channel = file.getChannel();
+            final long[] offsets = regionOffsets(channel.size(), numThreads);
+            List<Callable<List<String[]>>> tasks =
+                new ArrayList<Callable<List<String[]>>>();
+            for (int i = 0; i + 1 < offsets.length; ++i) {
+                final int region = i;
+                tasks.add(new Callable<List<String[]>>() {
+                        public List<String[]> call() throws IOException {
+                            final List<String[]> records =
+                                new ArrayList<String[]>();
+                            FeedParser parser =
+                                openRegion(channel, offsets, region);
+                            if (parser != null) {
+                                parser.parse(new FeedParser.RecordHandler() {
+                                        public void handle(String title,
+                                                           String comment) {
+                                            records.add(new String[] {
+                                                title, comment });
+                                        }
+                                    });
+                            }
+                            return records;
+                        }
+                    });
+            }
+            ParallelTasks.invokeInOrder(tasks, numThreads,
+                new ParallelTasks.ResultHandler<List<String[]>>() {
+                    public void handle(List<String[]> records)
+                            throws IOException {
+                        for (String[] record : records)
+                            handler.handle(record[0], record[1]);
+                    }
+                });
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Returns the nominal offsets of the regions of a file of the provided
+     * size, followed by the size of the file.
+     */
+    static long[] regionOffsets(long size, int numThreads) {
+        // Use several regions per thread so that threads given regions with
+        // fewer records do not sit idle
+        long regionBytes = size / (4 * Math.max(1, numThreads));
+        regionBytes = Math.max(MIN_REGION_BYTES,
+                               Math.min(MAX_REGION_BYTES, regionBytes));
+        int regions = (int)Math.max(1, (size + regionBytes - 1) / regionBytes);
+        return ParallelTasks.partition(size, regions);
+    }
+
+    /**
+     * Returns a parser of the records of the region, or {@code null} if no
+     * record starts in it.
+     */
+    private FeedParser openRegion(FileChannel channel, long[] offsets,
+                                  int region) throws IOException {
+        int last = offsets.length - 1;
+        long start = (region == 0)
+            ? 0
+            : recordStart(channel, offsets[region]);
+        long end = (region + 1 == last)
+            ? offsets[last]
+            : recordStart(channel, offsets[region + 1]);
+        if (start >= end)
+            return null;
+        if (end - start > Integer.MAX_VALUE)
+            throw new IOException("the records at offset " + start + " of " +
+                                  feed + " are too large to map");
+        ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY,
+                                       start, end - start);
+        return new FeedParser(new InputStreamReader(
+            new ByteBufferInputStream(bytes), charset));
+    }
+
+    /**
+     * Returns the offset of the first header line after the line containing
+     * {@code offset} whose previous line is not a header, or the size of the
+     * file if there is none.  Only the 2 GB after {@code offset} are searched,
+     * so a record longer than that cannot be parsed.
+     */
+    static long recordStart(FileChannel channel, long offset)
+            throws IOException {
+        long size = channel.size();
+        ByteBuffer bytes = channel.map(
+            FileChannel.MapMode.READ_ONLY, offset,
+            Math.min(size - offset, Integer.MAX_VALUE));
+        int limit = bytes.limit();
+        int lineStart = nextLine(bytes, 0);
+        boolean previousIsHeader = true;
+        while (lineStart < limit) {
+            int next = nextLine(bytes, lineStart);
+            boolean isHeader = isHeader(bytes, lineStart, next);
+            if (isHeader && !previousIsHeader)
+                return offset + lineStart;
+            previousIsHeader = isHeader;
+            lineStart = next;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the position after the first line feed at or after {@code i},
+     * or the limit of the buffer if there is none.
+     */
+    private static int nextLine(ByteBuffer bytes, int i) {
+        int limit = bytes.limit();
+        while (i < limit && bytes.get(i) != '\n')
+            i++;
+        return Math.min(i + 1, limit);
+    }
+
+    /**
+     * Returns whether the bytes from {@code start} to {@code end} are a
+     * header line.  Only lines whose first word starts with the letters of
+     * {@code from} are decoded and checked in full.
+     */
+    private static boolean isHeader(ByteBuffer bytes, int start, int end) {
+        int i = start;
+        while (i < end && (bytes.get(i) == ' ' || bytes.get(i) == '\t'))
+            i++;
+        if (end - i < 4 || (bytes.get(i) | 0x20) != 'f' ||
+                (bytes.get(i + 1) | 0x20) != 'r' ||
+                (bytes.get(i + 2) | 0x20) != 'o' ||
+                (bytes.get(i + 3) | 0x20) != 'm')
+            return false;
+        // Only the ASCII characters of the line are examined, so any
+        // single-byte decoding gives the same answer
+        byte[] line = new byte[end - start];
+        for (int j = 0; j < line.length; ++j)
+            line[j] = bytes.get(start + j);
+        return FeedParser.isHeader(stripLineEnd(
+            new String(line, LATIN_1)));
+    }
+
+    /**
+     * Returns the line without its line terminator.
+     */
+    private static String stripLineEnd(String line) {
+        int end = line.length();
+        while (end > 0 && (line.charAt(end - 1) == '\n' ||
+                           line.charAt(end - 1) == '\r'))
+            end--;
+        return line.substring(0, end);
+    }
+
+    /**
+     * An input stream over the remaining bytes of a buffer.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer bytes;
+
+        public ByteBufferInputStream(ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        public int read() {
+            return (bytes.hasRemaining()) ? bytes.get() & 0xff : -1;
+        }
+
+        public int read(byte[] b, int off, int len) {
+            if (len == 0)
+                return 0;
+            if (!bytes.hasRemaining())
+                return -1;
+            len = Math.min(len, bytes.remaining());
+            bytes.get(b, off, len);
+            return len;
+        }
+
+        public int available() {
+            return bytes.remaining();
+        }
+    }
+}
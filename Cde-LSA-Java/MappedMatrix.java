@@ -0,0 +1,218 @@
+package edu.ucla.sspace.lsa;
+
+import java.io.IOException;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+
+import java.nio.channels.FileChannel;
+
+/**
+ * A read-only, dense matrix whose rows are stored contiguously in a file and
+ * read through memory-mapped buffers rather than copied onto the heap.  Opening
+ * a matrix only maps its region of the file, so it takes the same short time
+ * for any size of matrix, and the pages of the file are loaded by the operating
+ * system as they are read and shared by every process that maps the file.
+ *
+ * <p>
+ *
+ * The values are stored in row-major order in little-endian byte order, as
+ * {@code double}, {@code float} or quantized {@code byte} values according to
+ * the {@link ElementType}.  The bytes of an {@link ElementType#INT8} matrix
+ * are followed by the {@code float} scale of each row, starting at the next
+ * multiple of eight bytes, as described by {@link CompactMatrix}.  A single
+ * mapped buffer is limited to 2 GB, so larger matrices are mapped as several
+ * buffers, each holding a whole number of rows.
+ *
+ * <p>
+ *
+ * The mapping is released when the matrix is garbage collected; it remains
+ * valid after the channel it was mapped from is closed.  The matrix may be
+ * read by any number of threads concurrently.
+ *
+ * @see MappedSemanticSpace
+ */
+public class MappedMatrix {
+
+    private final int rows;
+
+    private final int columns;
+
+    private final ElementType type;
+
+    /**
+     * The number of rows in each mapped buffer, except possibly the last
+     */
+    private final int rowsPerChunk;
+
+    /**
+     * The mapped buffers, viewed as {@code DoubleBuffer}, {@code FloatBuffer}
+     * or {@code ByteBuffer} according to the element type
+     */
+    private final Buffer[] chunks;
+
+    /**
+     * The scale of each row of an {@code INT8} matrix, or {@code null}
+     */
+    private final FloatBuffer scales;
+
+    /**
+     * Maps the matrix of the provided size and type that starts at {@code
+     * offset} in the channel, which must be open for reading.
+     */
+    public MappedMatrix(FileChannel channel, long offset, int rows,
+                        int columns, ElementType type) throws IOException {
+        this.rows = rows;
+        this.columns = columns;
+        this.type = type;
+        long rowBytes = (long)columns * type.bytes();
+        rowsPerChunk = (rowBytes == 0)
+            ? Math.max(rows, 1)
+            : (int)Math.max(1, Math.min(rows, Integer.MAX_VALUE / rowBytes));
+        int numChunks = (rows + rowsPerChunk - 1) / rowsPerChunk;
+        chunks = new Buffer[numChunks];
+        for (int i = 0; i < numChunks; ++i) {
+            int chunkRows = Math.min(rowsPerChunk, rows - i * rowsPerChunk);
+            ByteBuffer bytes = channel.map(
+                FileChannel.MapMode.READ_ONLY,
+                offset + i * rowsPerChunk * rowBytes, chunkRows * rowBytes);
+            bytes.order(ByteOrder.LITTLE_ENDIAN);
+            switch (type) {
+            case DOUBLE:
+                chunks[i] = bytes.asDoubleBuffer();
+                break;
+            case FLOAT:
+                chunks[i] = bytes.asFloatBuffer();
+                break;
+            default:
+                chunks[i] = bytes;
+            }
+        }
+        if (type == ElementType.INT8) {
+            ByteBuffer bytes = channel.map(
+                FileChannel.MapMode.READ_ONLY,
+                offset + scalesOffset(rows, columns), 4L * rows);
+            bytes.order(ByteOrder.LITTLE_ENDIAN);
+            scales = bytes.asFloatBuffer();
+        }
+        else
+            scales = null;
+    }
+
+    /**
+     * Returns the number of bytes used by a matrix of the provided size and
+     * type.
+     */
+    public static long bytes(int rows, int columns, ElementType type) {
+        long values = (long)rows * columns * type.bytes();
+        return (type == ElementType.INT8)
+            ? align(values) + 4L * rows
+            : values;
+    }
+
+    /**
+     * Returns the offset of the scales of an {@code INT8} matrix relative to
+     * the start of the matrix.
+     */
+    static long scalesOffset(int rows, int columns) {
+        return align((long)rows * columns);
+    }
+
+    /**
+     * Returns the offset rounded up to a multiple of eight bytes.
+     */
+    static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    /**
+     * Returns the number of rows.
+     */
+    public int rows() {
+        return rows;
+    }
+
+    /**
+     * Returns the number of columns.
+     */
+    public int columns() {
+        return columns;
+    }
+
+    /**
+     * Returns the type of the stored values.
+     */
+    public ElementType getElementType() {
+        return type;
+    }
+
+    /**
+     * Returns the value at the provided row and column.
+     */
+    public double get(int row, int column) {
+        checkRow(row);
+        if (column < 0 || column >= columns)
+            throw new IndexOutOfBoundsException(
+                "column " + column + " is not in [0, " + columns + ")");
+        int index = (row % rowsPerChunk) * columns + column;
+        Buffer chunk = chunks[row / rowsPerChunk];
+        switch (type) {
+        case DOUBLE:
+            return ((DoubleBuffer)chunk).get(index);
+        case FLOAT:
+            return ((FloatBuffer)chunk).get(index);
+        default:
+            return scales.get(row) * ((ByteBuffer)chunk).get(index);
+        }
+    }
+
+    /**
+     * Returns a copy of the row.
+     */
+    public double[] getRow(int row) {
+        double[] values = new double[columns];
+        getRow(row, values);
+        return values;
+    }
+
+    /**
+     * Copies the row into the first {@link #columns()} values of the provided
+     * array.
+     */
+    public void getRow(int row, double[] values) {
+        checkRow(row);
+        int start = (row % rowsPerChunk) * columns;
+        Buffer chunk = chunks[row / rowsPerChunk];
+        switch (type) {
+        case DOUBLE: {
+            // Read through a duplicate so that concurrent readers do not
+            // share a position
+            DoubleBuffer buffer = ((DoubleBuffer)chunk).duplicate();
+            buffer.position(start);
+            buffer.get(values, 0, columns);
+            break;
+        }
+        case FLOAT: {
+            FloatBuffer buffer = (FloatBuffer)chunk;
+            for (int j = 0; j < columns; ++j)
+                values[j] = buffer.get(start + j);
+            break;
+        }
+        default: {
+            ByteBuffer buffer = (ByteBuffer)chunk;
+            float scale = scales.get(row);
+            for (int j = 0; j < columns; ++j)
+                values[j] = scale * buffer.get(start + j);
+        }
+        }
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= rows)
+            throw new IndexOutOfBoundsException(
+                "row " + row + " is not in [0, " + rows + ")");
+    }
+}
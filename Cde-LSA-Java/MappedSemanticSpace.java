@@ -0,0 +1,566 @@
+package edu.ucla.sspace.lsa;
+
+import edu.ucla.sspace.common.SemanticSpace;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import java.nio.channels.FileChannel;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * A read-only {@link SemanticSpace} backed by a file of the reduced word and
+ * document spaces of {@link LatentSemanticAnalysis}, which is read through
+ * memory-mapped buffers.  Opening a space reads only its header and maps the
+ * rest of the file, so a query service can start in milliseconds whatever the
+ * size of the space, and processes that open the same file share its pages
+ * rather than each holding a copy of the space on its heap.  Spaces are
+ * written by {@link LatentSemanticAnalysis#save(File,ElementType)
+ * LatentSemanticAnalysis.save}.
+ *
+ * <p>
+ *
+ * A space file begins with a fixed-size header of {@value #HEADER_BYTES}
+ * bytes containing, in order, the magic number, the format version, the
+ * {@link ElementType} of the matrices as its ordinal, the number
+ * of dimensions, the number of terms and the number of documents (all {@code
+ * int}s), followed by the byte offsets of the vocabulary, the singular values,
+ * the word matrix and the document matrix (all {@code long}s).  Each section
+ * starts at a multiple of eight bytes:
+ *
+ * <ul>
+ *
+ *   <li> The vocabulary holds {@code terms + 1} {@code int} offsets of each
+ *   term's UTF-8 bytes relative to the end of the section's tables, then the
+ *   {@code terms} term numbers sorted by their UTF-8 bytes, then the bytes of
+ *   the terms.  Term {@code i} is the word of row {@code i} of the word
+ *   matrix.
+ *
+ *   <li> The singular values are {@code dimensions} {@code double}s in
+ *   descending order.
+ *
+ *   <li> The word matrix is {@code terms x dimensions} and the document matrix
+ *   is {@code documents x dimensions}, both in row-major order, as described
+ *   by {@link MappedMatrix}.
+ *
+ * </ul>
+ *
+ * All values are written in little-endian byte order, which is the native
+ * order of most processors, so that the mapped matrices are read without
+ * reordering their bytes.  Words are found by a binary search of the sorted
+ * term numbers that compares the mapped bytes directly, so opening a space
+ * does not build a map of its vocabulary.
+ *
+ * <p>
+ *
+ * The space may be read by any number of threads concurrently.
+ */
+public class MappedSemanticSpace implements SemanticSpace {
+
+    /**
+     * The first four bytes of every space file.
+     */
+    static final int MAGIC = 0x4C534153;
+
+    /**
+     * The current version of the space format.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * The number of bytes in the file header.
+     */
+    public static final int HEADER_BYTES = 56;
+
+    /**
+     * The size of the buffer used when writing a space.
+     */
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    /**
+     * The name of the space, which is that of the space it was saved from
+     */
+    private static final String SPACE_NAME = "lsa-semantic-space";
+
+    /**
+     * A source of the rows of a matrix to be written.
+     */
+    public interface RowSource {
+
+        /**
+         * Returns the row, or {@code null} if the row is all zero.
+         */
+        double[] getRow(int row);
+    }
+
+    private final int dimensions;
+
+    private final int terms;
+
+    private final double[] singularValues;
+
+    /**
+     * The mapped vocabulary section
+     */
+    private final ByteBuffer vocabulary;
+
+    /**
+     * The position in {@link #vocabulary} of the sorted term numbers
+     */
+    private final int sortedStart;
+
+    /**
+     * The position in {@link #vocabulary} of the bytes of the terms
+     */
+    private final int bytesStart;
+
+    private final MappedMatrix wordSpace;
+
+    private final MappedMatrix documentSpace;
+
+    /**
+     * Opens the space stored in the file.
+     *
+     * @throws IOException if the file is not a space file of a supported
+     *         version
+     */
+    public MappedSemanticSpace(File file) throws IOException {
+        FileInputStream fis = new FileInputStream(file);
+        FileChannel channel = fis.getChannel();
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0)
+                    throw new IOException(file + " is too short to be a " +
+                                          "semantic space file");
+            }
+            header.flip();
+            if (header.getInt() != MAGIC)
+                throw new IOException(file + " is not a semantic space file");
+            int version = header.getInt();
+            if (version != VERSION)
+                throw new IOException(file + " has unsupported version " +
+                                      version);
+            int typeOrdinal = header.getInt();
+            ElementType[] types =
+                ElementType.values();
+            if (typeOrdinal < 0 || typeOrdinal >= types.length)
+                throw new IOException(file + " has unknown element type " +
+                                      typeOrdinal);
+            ElementType type = types[typeOrdinal];
+            dimensions = header.getInt();
+            terms = header.getInt();
+            int documents = header.getInt();
+            long vocabularyOffset = header.getLong();
+            long singularValuesOffset = header.getLong();
+            long wordsOffset = header.getLong();
+            long documentsOffset = header.getLong();
+
+            vocabulary = channel.map(FileChannel.MapMode.READ_ONLY,
+                                     vocabularyOffset,
+                                     singularValuesOffset - vocabularyOffset);
+            vocabulary.order(ByteOrder.LITTLE_ENDIAN);
+            sortedStart = 4 * (terms + 1);
+            bytesStart = sortedStart + 4 * terms;
+
+            ByteBuffer values = channel.map(FileChannel.MapMode.READ_ONLY,
+                                            singularValuesOffset,
+                                            8L * dimensions);
+            values.order(ByteOrder.LITTLE_ENDIAN);
+            singularValues = new double[dimensions];
+            values.asDoubleBuffer().get(singularValues);
+
+            wordSpace = new MappedMatrix(channel, wordsOffset, terms,
+                                         dimensions, type);
+            documentSpace = new MappedMatrix(channel, documentsOffset,
+                                             documents, dimensions, type);
+        } finally {
+            fis.close();
+        }
+    }
+
+    /**
+     * Writes a space to the file.
+     *
+     * @param termList the terms of the word space, where term {@code i} is
+     *        the word of row {@code i}
+     * @param singularValues the singular values, which also determine the
+     *        number of dimensions
+     * @param words the rows of the word space
+     * @param documents the number of documents
+     * @param documentRows the rows of the document space
+     * @param type the type used to store the values of both spaces
+     */
+    public static void write(File file, String[] termList,
+                             double[] singularValues, RowSource words,
+                             int documents, RowSource documentRows,
+                             ElementType type)
+            throws IOException {
+        int dimensions = singularValues.length;
+        int terms = termList.length;
+
+        // Encode the terms and sort their numbers by the encoded bytes, which
+        // is the order used by the lookups
+        final byte[][] encoded = new byte[terms][];
+        int[] termOffsets = new int[terms + 1];
+        for (int i = 0; i < terms; ++i) {
+            encoded[i] = encode(termList[i]);
+            termOffsets[i + 1] = termOffsets[i] + encoded[i].length;
+        }
+        Integer[] sorted = new Integer[terms];
+        for (int i = 0; i < terms; ++i)
+            sorted[i] = Integer.valueOf(i);
+        Arrays.sort(sorted, new Comparator<Integer>() {
+                public int compare(Integer i, Integer j) {
+                    return compareBytes(encoded[i.intValue()],
+                                        encoded[j.intValue()]);
+                }
+            });
+
+        long vocabularyOffset = HEADER_BYTES;
+        long vocabularyBytes = 8L * terms + 4 + termOffsets[terms];
+        long singularValuesOffset =
+            MappedMatrix.align(vocabularyOffset + vocabularyBytes);
+        long wordsOffset =
+            MappedMatrix.align(singularValuesOffset + 8L * dimensions);
+        long documentsOffset = MappedMatrix.align(
+            wordsOffset + MappedMatrix.bytes(terms, dimensions, type));
+
+        FileOutputStream fos = new FileOutputStream(file);
+        FileChannel channel = fos.getChannel();
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(type.ordinal()).
+                putInt(dimensions).putInt(terms).putInt(documents).
+                putLong(vocabularyOffset).putLong(singularValuesOffset).
+                putLong(wordsOffset).putLong(documentsOffset);
+
+            for (int offset : termOffsets)
+                putInt(channel, buffer, offset);
+            for (Integer i : sorted)
+                putInt(channel, buffer, i.intValue());
+            for (byte[] bytes : encoded) {
+                for (byte b : bytes) {
+                    if (!buffer.hasRemaining())
+                        flush(channel, buffer);
+                    buffer.put(b);
+                }
+            }
+            pad(channel, buffer, singularValuesOffset);
+
+            for (double value : singularValues)
+                putDouble(channel, buffer, value);
+            pad(channel, buffer, wordsOffset);
+            writeRows(channel, buffer, words, terms, dimensions, type);
+            pad(channel, buffer, documentsOffset);
+            writeRows(channel, buffer, documentRows, documents, dimensions,
+                      type);
+            flush(channel, buffer);
+        } finally {
+            fos.close();
+        }
+    }
+
+    /**
+     * Writes the rows of a matrix with the provided element type.  The scales
+     * of an {@code INT8} matrix are kept until all of its bytes are written.
+     */
+    private static void writeRows(FileChannel channel, ByteBuffer buffer,
+                                  RowSource source, int rows, int dimensions,
+                                  ElementType type)
+            throws IOException {
+        long start = channel.position() + buffer.position();
+        double[] zero = new double[dimensions];
+        byte[] quantized = new byte[dimensions];
+        float[] scales = (type == ElementType.INT8) ? new float[rows] : null;
+        for (int row = 0; row < rows; ++row) {
+            double[] values = source.getRow(row);
+            if (values == null)
+                values = zero;
+            switch (type) {
+            case DOUBLE:
+                for (int d = 0; d < dimensions; ++d)
+                    putDouble(channel, buffer, values[d]);
+                break;
+            case FLOAT:
+                for (int d = 0; d < dimensions; ++d)
+                    putFloat(channel, buffer, (float)values[d]);
+                break;
+            default:
+                scales[row] =
+                    CompactMatrix.quantize(values, dimensions, quantized, 0);
+                for (byte b : quantized) {
+                    if (!buffer.hasRemaining())
+                        flush(channel, buffer);
+                    buffer.put(b);
+                }
+            }
+        }
+        if (type == ElementType.INT8) {
+            pad(channel, buffer,
+                start + MappedMatrix.scalesOffset(rows, dimensions));
+            for (float scale : scales)
+                putFloat(channel, buffer, scale);
+        }
+    }
+
+    private static void putInt(FileChannel channel, ByteBuffer buffer,
+                               int value) throws IOException {
+        if (buffer.remaining() < 4)
+            flush(channel, buffer);
+        buffer.putInt(value);
+    }
+
+    private static void putFloat(FileChannel channel, ByteBuffer buffer,
+                                 float value) throws IOException {
+        if (buffer.remaining() < 4)
+            flush(channel, buffer);
+        buffer.putFloat(value);
+    }
+
+    private static void putDouble(FileChannel channel, ByteBuffer buffer,
+                                  double value) throws IOException {
+        if (buffer.remaining() < 8)
+            flush(channel, buffer);
+        buffer.putDouble(value);
+    }
+
+    /**
+     * Writes zero bytes until the file reaches the provided offset.
+     */
+    private static void pad(FileChannel channel, ByteBuffer buffer,
+                            long offset) throws IOException {
+        long position = channel.position() + buffer.position();
+        for (; position < offset; ++position) {
+            if (!buffer.hasRemaining())
+                flush(channel, buffer);
+            buffer.put((byte)0);
+        }
+    }
+
+    /**
+     * Writes the contents of the buffer to the channel and clears it.
+     */
+    private static void flush(FileChannel channel, ByteBuffer buffer)
+            throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    private static byte[] encode(String term) {
+        try {
+            return term.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException uee) {
+            // UTF-8 is always supported
+            throw new Error(uee);
+        }
+    }
+
+    /**
+     * Compares two byte arrays lexicographically as unsigned bytes, which
+     * orders UTF-8 strings by code point.
+     */
+    private static int compareBytes(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; ++i) {
+            int diff = (a[i] & 0xff) - (b[i] & 0xff);
+            if (diff != 0)
+                return diff;
+        }
+        return a.length - b.length;
+    }
+
+    /**
+     * Returns the row of the term, or {@code -1} if it is not in the space.
+     */
+    public int findTerm(String term) {
+        byte[] key = encode(term);
+        int low = 0;
+        int high = terms - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int row = vocabulary.getInt(sortedStart + 4 * mid);
+            int cmp = compareTerm(row, key);
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return row;
+        }
+        return -1;
+    }
+
+    /**
+     * Compares the mapped bytes of the term in the row with the key.
+     */
+    private int compareTerm(int row, byte[] key) {
+        int start = bytesStart + vocabulary.getInt(4 * row);
+        int length = bytesStart + vocabulary.getInt(4 * (row + 1)) - start;
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; ++i) {
+            int diff = (vocabulary.get(start + i) & 0xff) - (key[i] & 0xff);
+            if (diff != 0)
+                return diff;
+        }
+        return length - key.length;
+    }
+
+    /**
+     * Returns the term of the row.
+     */
+    public String getTerm(int row) {
+        if (row < 0 || row >= terms)
+            throw new IndexOutOfBoundsException(
+                "row " + row + " is not in [0, " + terms + ")");
+        int start = bytesStart + vocabulary.getInt(4 * row);
+        int length = bytesStart + vocabulary.getInt(4 * (row + 1)) - start;
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; ++i)
+            bytes[i] = vocabulary.get(start + i);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException uee) {
+            throw new Error(uee);
+        }
+    }
+
+    /**
+     * Returns a view of the words in the space, which decodes each word as it
+     * is iterated over.
+     */
+    public Set<String> getWords() {
+        return new AbstractSet<String>() {
+            public int size() {
+                return terms;
+            }
+
+            public boolean contains(Object o) {
+                return (o instanceof String) && findTerm((String)o) >= 0;
+            }
+
+            public Iterator<String> iterator() {
+                return new Iterator<String>() {
+                    private int next = 0;
+
+                    public boolean hasNext() {
+                        return next < terms;
+                    }
+
+                    public String next() {
+                        if (next >= terms)
+                            throw new NoSuchElementException();
+                        return getTerm(next++);
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double[] getVectorFor(String word) {
+        int row = findTerm(word);
+        return (row < 0) ? null : wordSpace.getRow(row);
+    }
+
+    /**
+     * Returns the vector of the document, as {@link
+     * LatentSemanticAnalysis#getDocumentVector(int)} returned it when the space
+     * was saved.
+     *
+     * @throws IllegalArgumentException if the document number is not in the
+     *         space
+     */
+    public double[] getDocumentVector(int documentNumber) {
+        if (documentNumber < 0 || documentNumber >= documentSpace.rows())
+            throw new IllegalArgumentException(
+                "Document number is not within the bounds of the number of "
+                + "documents: " + documentNumber);
+        return documentSpace.getRow(documentNumber);
+    }
+
+    /**
+     * Returns the number of documents in the space.
+     */
+    public int getDocumentCount() {
+        return documentSpace.rows();
+    }
+
+    /**
+     * Returns a copy of the singular values in descending order.
+     */
+    public double[] getSingularValues() {
+        return singularValues.clone();
+    }
+
+    /**
+     * Returns the mapped word space, whose rows are in the order of {@link
+     * #getTerm(int)}.
+     */
+    public MappedMatrix getWordSpace() {
+        return wordSpace;
+    }
+
+    /**
+     * Returns the mapped document space.
+     */
+    public MappedMatrix getDocumentSpace() {
+        return documentSpace;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getSpaceName() {
+        return SPACE_NAME;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getVectorSize() {
+        return dimensions;
+    }
+
+    /**
+     * Throws {@code UnsupportedOperationException}, since a mapped space is
+     * read-only.
+     */
+    public void processDocument(BufferedReader document) {
+        throw new UnsupportedOperationException(
+            "a mapped space cannot be modified");
+    }
+
+    /**
+     * Throws {@code UnsupportedOperationException}, since a mapped space is
+     * read-only.
+     */
+    public void processSpace(Properties properties) {
+        throw new UnsupportedOperationException(
+            "a mapped space cannot be modified");
+    }
+}
@@ -27,7 +27,9 @@ import java.io.IOException;
 /**
  * A class that transforms one matrix into another using properites of the
  * matrix itself.  Instances of this interface is most commonly used with
- * post-processing a term-document matrix.
+ * post-processing a term-document matrix.  A matrix is either stored in a file,
+ * in the binary format described by {@link TermDocumentMatrixIO}, or held in
+ * memory as a {@link SparseTermDocumentMatrix}.
  */
 public interface MatrixTransformer {
 
@@ -39,4 +41,35 @@ public interface MatrixTransformer {
 
     void transform(File matrixInput, File matrixOutput) throws IOException;
 
+    /**
+     * Transforms the provided input, writing the result to the output file,
+     * using up to {@code numThreads} threads.  Implementations may partition
+     * the entries of the input between the threads; the output has the same
+     * entries, in the same order, as a single-threaded transform.
+     */
+    void transform(File matrixInput, File matrixOutput, int numThreads)
+        throws IOException;
+
+    /**
+     * Transforms the values of the in-memory matrix in place using up to
+     * {@code numThreads} threads.
+     */
+    void transform(SparseTermDocumentMatrix matrix, int numThreads);
+
+    /**
+     * Weights the entries of a document that was not part of the matrix most
+     * recently transformed by this instance, such as a document folded into
+     * an existing semantic space, in the same way as the entries of that
+     * matrix.  The first {@code size} elements of {@code terms} and {@code
+     * values} hold the document's entries, with terms indexed from 1.  Terms
+     * greater than the number of rows of the matrix are treated as occurring
+     * in no other document.  The weight of each entry is stored at the same
+     * position of {@code weights}.
+     *
+     * @throws IllegalStateException if this instance has not transformed a
+     *         matrix
+     */
+    void weightDocument(int[] terms, float[] values, int size,
+                        double[] weights);
+
 }
\ No newline at end of file
@@ -0,0 +1,470 @@
+package edu.ucla.sspace.lsa;
+
+import java.io.IOError;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.Callable;
+
+/**
+ * An exact cosine similarity search over a fixed set of vectors, such as the
+ * reduced word vectors of a semantic space.  The vectors are normalized to
+ * unit length once, when the index is created, and stored contiguously in a
+ * single row-major {@link CompactMatrix}, so that the similarity of two
+ * vectors is a plain dot product over adjacent memory.  Storing the vectors as
+ * {@code float}s or quantized bytes makes the index smaller and faster to
+ * scan, at the cost of slightly less accurate similarities.
+ *
+ * <p>
+ *
+ * Searches for many rows at once, as done by {@link #nearest(int,int,int)} and
+ * {@link #allNearest(int)}, compare a block of query rows against a block of
+ * candidate rows at a time.  Each candidate block is small enough to stay in
+ * the processor cache while every query in the block is compared with it, so
+ * the vectors are read from main memory once per query block rather than once
+ * per query.  The best matches are kept in a {@link TopKHeap} for each query.
+ * {@link #allNearest(int,int,NeighborHandler)} splits the rows between
+ * threads and hands back each row's neighbors as soon as they are found.
+ *
+ * <p>
+ *
+ * The index is not modified after it is created, so any number of threads may
+ * search it concurrently.
+ *
+ * @see RandomProjectionIndex
+ */
+public class NearestNeighbors {
+
+    /**
+     * The number of query rows compared against each candidate block
+     */
+    private static final int QUERY_BLOCK_SIZE = 32;
+
+    /**
+     * The number of values in a candidate block, which is sized to fit in the
+     * cache of a single core
+     */
+    private static final int CANDIDATE_BLOCK_VALUES = 16 * 1024;
+
+    /**
+     * The number of query rows searched by each task of a parallel search
+     */
+    private static final int ROWS_PER_TASK = 8 * QUERY_BLOCK_SIZE;
+
+    /**
+     * The fewest values worth scanning in a separate thread for a single
+     * query, which takes about a millisecond and is a hundred times the cost
+     * of handing a task to a shared pool
+     */
+    private static final int MIN_VALUES_PER_THREAD = 1024 * 1024;
+
+    private final int rows;
+
+    private final int dimensions;
+
+    /**
+     * The unit length vectors.  Vectors of zero length remain zero.
+     */
+    private final CompactMatrix vectors;
+
+    /**
+     * Creates an index of the provided vectors, which must all have the same
+     * length.  The vectors are copied and are not modified.
+     *
+     * @throws IllegalArgumentException if the vectors differ in length
+     */
+    public NearestNeighbors(double[][] vectors) {
+        this(vectors, ElementType.DOUBLE);
+    }
+
+    /**
+     * Creates an index of the provided vectors, which must all have the same
+     * length, stored with the provided precision.  The vectors are copied and
+     * are not modified.
+     *
+     * @throws IllegalArgumentException if the vectors differ in length
+     */
+    public NearestNeighbors(double[][] vectors, ElementType type) {
+        this(copy(vectors, type));
+    }
+
+    /**
+     * Creates an index of the rows of the {@code rows x dimensions} row-major
+     * array, which is copied and not modified.
+     */
+    public NearestNeighbors(double[] vectors, int rows, int dimensions) {
+        this(copy(vectors, rows, dimensions));
+    }
+
+    /**
+     * Creates an index of the rows of the matrix, which are compared with the
+     * precision that they are stored with.  The matrix is not copied: its rows
+     * are scaled to unit length in place, and it must not be modified
+     * afterwards.
+     */
+    public NearestNeighbors(CompactMatrix vectors) {
+        this.rows = vectors.rows();
+        this.dimensions = vectors.columns();
+        this.vectors = vectors;
+        vectors.normalizeRows();
+    }
+
+    private static CompactMatrix copy(double[][] vectors, ElementType type) {
+        int dimensions = (vectors.length == 0) ? 0 : vectors[0].length;
+        CompactMatrix copy =
+            new CompactMatrix(vectors.length, dimensions, type);
+        for (int i = 0; i < vectors.length; ++i) {
+            if (vectors[i].length != dimensions)
+                throw new IllegalArgumentException(
+                    "vector " + i + " has " + vectors[i].length +
+                    " dimensions instead of " + dimensions);
+            copy.setRow(i, vectors[i]);
+        }
+        return copy;
+    }
+
+    private static CompactMatrix copy(double[] vectors, int rows,
+                                      int dimensions) {
+        if (vectors.length < rows * dimensions)
+            throw new IllegalArgumentException(
+                "array has " + vectors.length + " values instead of " +
+                rows + " x " + dimensions);
+        CompactMatrix copy =
+            new CompactMatrix(rows, dimensions, ElementType.DOUBLE);
+        double[] row = new double[dimensions];
+        for (int i = 0; i < rows; ++i) {
+            System.arraycopy(vectors, i * dimensions, row, 0, dimensions);
+            copy.setRow(i, row);
+        }
+        return copy;
+    }
+
+    /**
+     * Returns the number of vectors in the index.
+     */
+    public int rows() {
+        return rows;
+    }
+
+    /**
+     * Returns the number of dimensions of each vector.
+     */
+    public int dimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Returns the cosine similarity of two rows, or {@code 0} if either has
+     * zero length.
+     */
+    public double similarity(int row1, int row2) {
+        checkRow(row1);
+        checkRow(row2);
+        return vectors.dot(row1, row2);
+    }
+
+    /**
+     * Returns the unit length copy of the row that is used for comparisons.
+     */
+    public double[] getVector(int row) {
+        checkRow(row);
+        return vectors.getRow(row);
+    }
+
+    /**
+     * Returns the {@code k} rows most similar to the provided row, not
+     * including the row itself, sorted by decreasing similarity.
+     */
+    public TopKHeap nearest(int row, int k) {
+        checkRow(row);
+        return nearest(row, row + 1, k)[0];
+    }
+
+    /**
+     * Returns the {@code k} rows most similar to the provided vector, sorted by
+     * decreasing similarity.  The vector need not have unit length.
+     *
+     * @throws IllegalArgumentException if the vector does not have {@link
+     *         #dimensions()} values
+     */
+    public TopKHeap nearest(double[] vector, int k) {
+        return search(unitQuery(vector), -1, k, 1);
+    }
+
+    /**
+     * Returns the {@code k} rows most similar to the provided row, not
+     * including the row itself, as {@link #nearest(int,int)} does, splitting
+     * the rows between {@code numThreads} threads.
+     */
+    public TopKHeap nearestToRow(int row, int k, int numThreads) {
+        checkRow(row);
+        return search(getVector(row), row, k, numThreads);
+    }
+
+    /**
+     * Returns the {@code k} rows most similar to the provided vector, as {@link
+     * #nearest(double[],int)} does, splitting the rows between {@code
+     * numThreads} threads.
+     */
+    public TopKHeap nearest(double[] vector, int k, int numThreads) {
+        return search(unitQuery(vector), -1, k, numThreads);
+    }
+
+    /**
+     * Returns the {@code k} rows most similar to the unit length query, other
+     * than {@code excludedRow}, by scanning a contiguous range of rows in each
+     * thread and merging their heaps.  The ranges are scanned by the shared
+     * pools of {@link ParallelTasks}, so no threads are started for a query,
+     * and an index too small to give each thread {@link
+     * #MIN_VALUES_PER_THREAD} values is scanned in the calling thread.
+     */
+    private TopKHeap search(final double[] query, final int excludedRow,
+                            final int k, int numThreads) {
+        final int capacity = Math.max(0, Math.min(k, rows));
+        long values = (long)rows * dimensions;
+        int parts = (int)Math.max(1, Math.min(numThreads,
+                                              values / MIN_VALUES_PER_THREAD));
+        TopKHeap merged = new TopKHeap(capacity);
+        if (parts == 1) {
+            scan(query, 0, rows, excludedRow, merged);
+            merged.sort();
+            return merged;
+        }
+
+        final long[] bounds = ParallelTasks.partition(rows, parts);
+        List<Callable<TopKHeap>> tasks = new ArrayList<Callable<TopKHeap>>();
+        for (int i = 0; i < parts; ++i) {
+            final int from = (int)bounds[i];
+            final int to = (int)bounds[i + 1];
+            tasks.add(new Callable<TopKHeap>() {
+                    public TopKHeap call() {
+                        TopKHeap heap = new TopKHeap(capacity);
+                        scan(query, from, to, excludedRow, heap);
+                        return heap;
+                    }
+                });
+        }
+        try {
+            for (TopKHeap heap : ParallelTasks.invokeAll(tasks, parts)) {
+                heap.sort();
+                for (int i = 0; i < heap.size(); ++i)
+                    merged.offer(heap.getId(i), heap.getScore(i));
+            }
+        } catch (IOException ioe) {
+            throw new IOError(ioe);
+        }
+        merged.sort();
+        return merged;
+    }
+
+    /**
+     * Offers the rows in {@code [from, to)}, other than {@code excludedRow},
+     * to the heap, scored by their similarity to the unit length query.
+     */
+    private void scan(double[] query, int from, int to, int excludedRow,
+                      TopKHeap heap) {
+        double threshold = heap.threshold();
+        for (int i = from; i < to; ++i) {
+            double sum = vectors.dot(i, query);
+            if (sum > threshold && i != excludedRow && heap.offer(i, sum))
+                threshold = heap.threshold();
+        }
+    }
+
+    /**
+     * Returns the {@code k} most similar rows for each row in {@code [fromRow,
+     * toRow)}, not including the row itself, with each set sorted by
+     * decreasing similarity.  Element {@code i} of the result holds the
+     * neighbors of row {@code fromRow + i}.
+     */
+    public TopKHeap[] nearest(int fromRow, int toRow, int k) {
+        if (fromRow < 0 || toRow > rows || fromRow > toRow)
+            throw new IndexOutOfBoundsException(
+                "rows [" + fromRow + ", " + toRow + ") are not in [0, " +
+                rows + ")");
+        int capacity = Math.max(0, Math.min(k, rows - 1));
+        TopKHeap[] heaps = new TopKHeap[toRow - fromRow];
+        for (int i = 0; i < heaps.length; ++i)
+            heaps[i] = new TopKHeap(capacity);
+
+        int candidateBlock = Math.max(
+            1, CANDIDATE_BLOCK_VALUES / Math.max(1, dimensions));
+        double[] scores = new double[QUERY_BLOCK_SIZE * candidateBlock];
+        double[] queries = new double[QUERY_BLOCK_SIZE * dimensions];
+        double[] candidates = new double[candidateBlock * dimensions];
+
+        for (int q0 = fromRow; q0 < toRow; q0 += QUERY_BLOCK_SIZE) {
+            int q1 = Math.min(q0 + QUERY_BLOCK_SIZE, toRow);
+            decode(q0, q1, queries);
+            for (int c0 = 0; c0 < rows; c0 += candidateBlock) {
+                int c1 = Math.min(c0 + candidateBlock, rows);
+                int width = c1 - c0;
+
+                // Score the whole block before touching the heaps so that the
+                // inner loop is only the dot product
+                decode(c0, c1, candidates);
+                scoreBlock(queries, q1 - q0, candidates, width, scores);
+                for (int q = q0; q < q1; ++q) {
+                    TopKHeap heap = heaps[q - fromRow];
+                    int sOffset = (q - q0) * width;
+                    double threshold = heap.threshold();
+                    for (int c = c0; c < c1; ++c) {
+                        double score = scores[sOffset + c - c0];
+                        if (score > threshold && c != q
+                                && heap.offer(c, score))
+                            threshold = heap.threshold();
+                    }
+                }
+            }
+        }
+        for (TopKHeap heap : heaps)
+            heap.sort();
+        return heaps;
+    }
+
+    /**
+     * Copies the rows {@code [from, to)} into the buffer as {@code double}s,
+     * so that a block of rows stored with any precision is decoded once and
+     * then compared many times.
+     */
+    private void decode(int from, int to, double[] buffer) {
+        for (int i = from; i < to; ++i)
+            vectors.getRow(i, buffer, (i - from) * dimensions);
+    }
+
+    /**
+     * Computes the dot products of the {@code numQueries} decoded query rows
+     * with the {@code numCandidates} decoded candidate rows into {@code
+     * scores}, with one row of scores for each query.  Four queries are scored
+     * against each candidate together, so that each candidate value is loaded
+     * once for all four.
+     */
+    private void scoreBlock(double[] queries, int numQueries,
+                            double[] candidates, int numCandidates,
+                            double[] scores) {
+        int q = 0;
+        for (; q + 4 <= numQueries; q += 4) {
+            int o0 = q * dimensions;
+            int o1 = o0 + dimensions;
+            int o2 = o1 + dimensions;
+            int o3 = o2 + dimensions;
+            int s0 = q * numCandidates;
+            for (int c = 0; c < numCandidates; ++c) {
+                int offset = c * dimensions;
+                double sum0 = 0;
+                double sum1 = 0;
+                double sum2 = 0;
+                double sum3 = 0;
+                for (int j = 0; j < dimensions; ++j) {
+                    double value = candidates[offset + j];
+                    sum0 += queries[o0 + j] * value;
+                    sum1 += queries[o1 + j] * value;
+                    sum2 += queries[o2 + j] * value;
+                    sum3 += queries[o3 + j] * value;
+                }
+                scores[s0 + c] = sum0;
+                scores[s0 + numCandidates + c] = sum1;
+                scores[s0 + 2 * numCandidates + c] = sum2;
+                scores[s0 + 3 * numCandidates + c] = sum3;
+            }
+        }
+        for (; q < numQueries; ++q) {
+            int qOffset = q * dimensions;
+            int sOffset = q * numCandidates;
+            for (int c = 0; c < numCandidates; ++c) {
+                int offset = c * dimensions;
+                double sum = 0;
+                for (int j = 0; j < dimensions; ++j)
+                    sum += queries[qOffset + j] * candidates[offset + j];
+                scores[sOffset + c] = sum;
+            }
+        }
+    }
+
+    /**
+     * Returns the {@code k} most similar rows for every row, as {@link
+     * #nearest(int,int,int) nearest(0, rows(), k)} does.
+     */
+    public TopKHeap[] allNearest(int k) {
+        return nearest(0, rows, k);
+    }
+
+    /**
+     * A consumer of the neighbors found by {@link
+     * NearestNeighbors#allNearest(int,int,NeighborHandler)}.
+     */
+    public interface NeighborHandler {
+
+        /**
+         * Processes the sorted neighbors of the row.
+         */
+        void handle(int row, TopKHeap neighbors) throws IOException;
+    }
+
+    /**
+     * Finds the {@code k} most similar rows for every row using {@code
+     * numThreads} threads, and passes them to the handler in increasing order
+     * of row as each block of rows is finished.  Only the neighbors of the
+     * blocks in progress are held in memory, so the results can be written out
+     * as they are found for any number of rows.  The handler is called from the
+     * calling thread.
+     *
+     * @throws IOException if the handler throws an {@code IOException}
+     */
+    public void allNearest(final int k, int numThreads,
+                           final NeighborHandler handler)
+            throws IOException {
+        List<Callable<TopKHeap[]>> tasks =
+            new ArrayList<Callable<TopKHeap[]>>();
+        for (int start = 0; start < rows; start += ROWS_PER_TASK) {
+            final int from = start;
+            final int to = Math.min(start + ROWS_PER_TASK, rows);
+            tasks.add(new Callable<TopKHeap[]>() {
+                    public TopKHeap[] call() {
+                        return nearest(from, to, k);
+                    }
+                });
+        }
+        ParallelTasks.invokeInOrder(
+            tasks, numThreads, new ParallelTasks.ResultHandler<TopKHeap[]>() {
+                    private int row = 0;
+                    public void handle(TopKHeap[] block) throws IOException {
+                        for (TopKHeap neighbors : block)
+                            handler.handle(row++, neighbors);
+                    }
+                });
+    }
+
+    /**
+     * Returns a unit length copy of the query vector.
+     */
+    double[] unitQuery(double[] vector) {
+        if (vector.length != dimensions)
+            throw new IllegalArgumentException(
+                "vector has " + vector.length + " dimensions instead of " +
+                dimensions);
+        double sum = 0;
+        for (double d : vector)
+            sum += d * d;
+        double scale = (sum == 0) ? 0 : 1 / Math.sqrt(sum);
+        double[] query = new double[dimensions];
+        for (int j = 0; j < dimensions; ++j)
+            query[j] = vector[j] * scale;
+        return query;
+    }
+
+    /**
+     * Returns the dot product of a unit length query and a row.
+     */
+    double similarity(double[] query, int row) {
+        return vectors.dot(row, query);
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= rows)
+            throw new IndexOutOfBoundsException(
+                "row " + row + " is not in [0, " + rows + ")");
+    }
+}
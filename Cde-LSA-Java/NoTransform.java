@@ -29,7 +29,8 @@ import java.io.IOException;
 import java.nio.channels.FileChannel;
 
 /**
- * Performs no transform on the input matrix.
+ * Performs no transform on the input matrix.  Since the input and output
+ * formats are the same, the matrix is returned or copied as-is.
  */
 public class NoTransform implements MatrixTransformer {
 
@@ -50,6 +51,30 @@ public class NoTransform implements MatrixTransformer {
         copy.close();
     }
 
+    /**
+     * Copies the input to the output.  Since there are no values to compute,
+     * the number of threads is ignored.
+     */
+    public void transform(File matrixInput, File matrixOutput, int numThreads)
+            throws IOException {
+        transform(matrixInput, matrixOutput);
+    }
+
+    /**
+     * Leaves the matrix unchanged.
+     */
+    public void transform(SparseTermDocumentMatrix matrix, int numThreads) { }
+
+    /**
+     * Copies the values to the weights, which need no statistics, so a matrix
+     * need not have been transformed first.
+     */
+    public void weightDocument(int[] terms, float[] values, int size,
+                               double[] weights) {
+        for (int i = 0; i < size; ++i)
+            weights[i] = values[i];
+    }
+
     public String toString() {
         return "no";
     }
@@ -0,0 +1,244 @@
+package edu.ucla.sspace.lsa;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Utility methods for running a fixed set of independent tasks on a number of
+ * threads and collecting their results.
+ *
+ * <p>
+ *
+ * The tasks are run by shared, fixed-size pools of daemon threads, one for
+ * each number of threads requested, which are created the first time they
+ * are needed and then kept for the life of the JVM.  Callers that run many
+ * small batches of tasks, such as each step of an iterative decomposition or
+ * each nearest-neighbor query, therefore do not pay for starting threads on
+ * every call.  Tasks that themselves call these methods run their subtasks in
+ * their own thread, so that a pool never waits on tasks queued behind it.
+ */
+public class ParallelTasks {
+
+    /**
+     * The shared pool for each number of threads
+     */
+    private static final ConcurrentMap<Integer,ExecutorService> EXECUTORS =
+        new ConcurrentHashMap<Integer,ExecutorService>();
+
+    /**
+     * A thread of one of the shared pools.
+     */
+    private static class PoolThread extends Thread {
+        public PoolThread(Runnable target, String name) {
+            super(target, name);
+            setDaemon(true);
+        }
+    }
+
+    /**
+     * Uninstantiable
+     */
+    private ParallelTasks() { }
+
+    /**
+     * Returns the number of threads to use when the caller has not specified
+     * one, which is the number of available processors.
+     */
+    public static int defaultThreads() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Returns the shared pool of {@code numThreads} threads, creating it if
+     * this is the first request for that many threads.
+     */
+    private static ExecutorService executor(final int numThreads) {
+        Integer key = Integer.valueOf(numThreads);
+        ExecutorService executor = EXECUTORS.get(key);
+        if (executor != null)
+            return executor;
+        synchronized(EXECUTORS) {
+            // recheck to see if the pool was created while blocking
+            executor = EXECUTORS.get(key);
+            if (executor == null) {
+                executor = Executors.newFixedThreadPool(
+                    numThreads, new ThreadFactory() {
+                        private int count = 0;
+                        public synchronized Thread newThread(Runnable r) {
+                            return new PoolThread(
+                                r, "ParallelTasks-" + numThreads + "-" +
+                                (++count));
+                        }
+                    });
+                EXECUTORS.put(key, executor);
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Returns whether the tasks should be run in the calling thread, which is
+     * the case if only one thread or task is requested, or if the caller is
+     * itself a task of a shared pool.
+     */
+    private static boolean runInCaller(int numTasks, int numThreads) {
+        return numThreads <= 1 || numTasks <= 1
+            || Thread.currentThread() instanceof PoolThread;
+    }
+
+    /**
+     * Cancels the tasks that have not finished, which are those left after a
+     * task failed.
+     */
+    private static void cancel(List<? extends Future<?>> futures) {
+        for (Future<?> future : futures)
+            future.cancel(true);
+    }
+
+    /**
+     * Runs all of the tasks using at most {@code numThreads} threads and
+     * returns their results in the same order as the tasks.  If only one
+     * thread is requested, the tasks are run in the calling thread.
+     *
+     * @throws IOException if any task throws an {@code IOException}
+     */
+    public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks,
+                                        int numThreads) throws IOException {
+        List<T> results = new ArrayList<T>(tasks.size());
+        if (runInCaller(tasks.size(), numThreads)) {
+            for (Callable<T> task : tasks) {
+                try {
+                    results.add(task.call());
+                } catch (Exception e) {
+                    rethrow(e);
+                }
+            }
+            return results;
+        }
+
+        ExecutorService executor = executor(numThreads);
+        List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+        try {
+            for (Callable<T> task : tasks)
+                futures.add(executor.submit(task));
+            for (Future<T> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException ee) {
+                    rethrow(ee.getCause());
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while waiting for " +
+                                          "parallel tasks");
+                }
+            }
+        } finally {
+            cancel(futures);
+        }
+        return results;
+    }
+
+    /**
+     * A consumer of task results, which are delivered one at a time in the
+     * order of the tasks.
+     */
+    public interface ResultHandler<T> {
+
+        /**
+         * Processes the result of the next task.
+         */
+        void handle(T result) throws IOException;
+    }
+
+    /**
+     * Runs all of the tasks using at most {@code numThreads} threads and passes
+     * each result to the handler, in the same order as the tasks, as soon as
+     * it and all earlier results are available.  At most {@code 2 *
+     * numThreads} results are waiting to be handled at any time, so the
+     * results of all tasks never need to be held in memory at once.  The
+     * handler is always called from the calling thread.
+     *
+     * @throws IOException if any task or the handler throws an {@code
+     *         IOException}
+     */
+    public static <T> void invokeInOrder(List<? extends Callable<T>> tasks,
+                                         int numThreads,
+                                         ResultHandler<? super T> handler)
+            throws IOException {
+        if (runInCaller(tasks.size(), numThreads)) {
+            for (Callable<T> task : tasks) {
+                T result = null;
+                try {
+                    result = task.call();
+                } catch (Exception e) {
+                    rethrow(e);
+                }
+                handler.handle(result);
+            }
+            return;
+        }
+
+        ExecutorService executor = executor(numThreads);
+        LinkedList<Future<T>> pending = new LinkedList<Future<T>>();
+        try {
+            int window = 2 * numThreads;
+            int next = 0;
+            while (next < tasks.size() || !pending.isEmpty()) {
+                while (next < tasks.size() && pending.size() < window)
+                    pending.add(executor.submit(tasks.get(next++)));
+                Future<T> future = pending.removeFirst();
+                T result = null;
+                try {
+                    result = future.get();
+                } catch (ExecutionException ee) {
+                    rethrow(ee.getCause());
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while waiting for " +
+                                          "parallel tasks");
+                }
+                handler.handle(result);
+            }
+        } finally {
+            cancel(pending);
+        }
+    }
+
+    /**
+     * Rethrows the cause of a task's failure, wrapping checked exceptions
+     * other than {@code IOException} in an {@code Error}.
+     */
+    private static void rethrow(Throwable t) throws IOException {
+        if (t instanceof IOException)
+            throw (IOException)t;
+        if (t instanceof RuntimeException)
+            throw (RuntimeException)t;
+        if (t instanceof Error)
+            throw (Error)t;
+        throw new Error(t);
+    }
+
+    /**
+     * Returns the boundaries of {@code parts} contiguous ranges that evenly
+     * divide {@code [0, size)}.  Range {@code i} is {@code [bounds[i],
+     * bounds[i + 1])}.
+     */
+    public static long[] partition(long size, int parts) {
+        long[] bounds = new long[parts + 1];
+        for (int i = 0; i <= parts; ++i)
+            bounds[i] = size * i / parts;
+        return bounds;
+    }
+}
@@ -0,0 +1,209 @@
+package edu.ucla.sspace.lsa;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * An approximate cosine similarity search over the vectors of a {@link
+ * NearestNeighbors} index, using locality sensitive hashing with random
+ * hyperplanes.  This is the scheme described in
+ *
+ * <ul>
+ *
+ *   <li style="font-family:Garamond, Georgia, serif"> Charikar, M. S. (2002).
+ *     Similarity estimation techniques from rounding algorithms.  In
+ *     <i>Proceedings of the 34th Annual ACM Symposium on Theory of
+ *     Computing</i>, 380-388. </li>
+ *
+ * </ul>
+ *
+ * Each of the hash tables assigns a vector the signs of its projections onto
+ * {@code bits} random hyperplanes.  Two vectors at an angle {@code theta}
+ * agree on each sign with probability {@code 1 - theta / pi}, so similar
+ * vectors tend to share a signature.  A query gathers the vectors whose
+ * signature equals its own, or differs from it in a single bit, in any of the
+ * tables, and ranks only those candidates by their exact similarity.
+ *
+ * <p>
+ *
+ * A table is stored as the row numbers sorted by signature, so it takes one
+ * {@code int} for each row and a lookup is a binary search.  More tables raise
+ * the chance of finding the true neighbors, and more bits per table make the
+ * buckets smaller and the queries faster.  The results match those of
+ * {@link NearestNeighbors#nearest(int,int)} only when every true neighbor is
+ * among the candidates, so this index suits interactive queries over large
+ * spaces, while batch jobs over every row should use the exact, blocked
+ * search.
+ *
+ * <p>
+ *
+ * The index is not modified after it is created, so any number of threads may
+ * search it concurrently.
+ */
+public class RandomProjectionIndex {
+
+    private final NearestNeighbors vectors;
+
+    private final int bits;
+
+    /**
+     * The hyperplane normals of each table, as a {@code bits x dimensions}
+     * row-major array.
+     */
+    private final double[][] hyperplanes;
+
+    /**
+     * The row numbers of each table, sorted by signature
+     */
+    private final int[][] tableRows;
+
+    /**
+     * The signatures of each table, in the same order as the rows
+     */
+    private final int[][] tableSignatures;
+
+    /**
+     * Creates an index with the provided number of hash tables and signature
+     * bits.
+     *
+     * @throws IllegalArgumentException if {@code tables} is not positive or
+     *         {@code bits} is not in {@code [1, 30]}
+     */
+    public RandomProjectionIndex(NearestNeighbors vectors, int tables,
+                                 int bits, long seed) {
+        if (tables < 1)
+            throw new IllegalArgumentException(
+                "must have at least one table: " + tables);
+        if (bits < 1 || bits > 30)
+            throw new IllegalArgumentException(
+                "bits must be in [1, 30]: " + bits);
+        this.vectors = vectors;
+        this.bits = bits;
+        int rows = vectors.rows();
+        int dimensions = vectors.dimensions();
+
+        Random random = new Random(seed);
+        hyperplanes = new double[tables][bits * dimensions];
+        tableRows = new int[tables][];
+        tableSignatures = new int[tables][];
+        long[] keys = new long[rows];
+        for (int t = 0; t < tables; ++t) {
+            double[] planes = hyperplanes[t];
+            for (int i = 0; i < planes.length; ++i)
+                planes[i] = random.nextGaussian();
+
+            // Sort the rows by signature by packing both into a long
+            for (int row = 0; row < rows; ++row) {
+                int signature = signature(planes, vectors.getVector(row));
+                keys[row] = ((long) signature << 32) | row;
+            }
+            Arrays.sort(keys);
+            int[] sortedRows = new int[rows];
+            int[] signatures = new int[rows];
+            for (int i = 0; i < rows; ++i) {
+                sortedRows[i] = (int) keys[i];
+                signatures[i] = (int) (keys[i] >>> 32);
+            }
+            tableRows[t] = sortedRows;
+            tableSignatures[t] = signatures;
+        }
+    }
+
+    /**
+     * Returns the signature of the vector for the table's hyperplanes.
+     */
+    private int signature(double[] planes, double[] vector) {
+        int dimensions = vector.length;
+        int signature = 0;
+        for (int b = 0, offset = 0; b < bits; ++b, offset += dimensions) {
+            double sum = 0;
+            for (int j = 0; j < dimensions; ++j)
+                sum += planes[offset + j] * vector[j];
+            if (sum > 0)
+                signature |= 1 << b;
+        }
+        return signature;
+    }
+
+    /**
+     * Returns the number of hash tables.
+     */
+    public int tables() {
+        return tableRows.length;
+    }
+
+    /**
+     * Returns the number of signature bits in each table.
+     */
+    public int bits() {
+        return bits;
+    }
+
+    /**
+     * Returns approximately the {@code k} rows most similar to the provided
+     * row, not including the row itself, sorted by decreasing similarity.
+     * Fewer than {@code k} rows are returned if there are fewer candidates.
+     */
+    public TopKHeap nearest(int row, int k) {
+        return search(vectors.getVector(row), row, k);
+    }
+
+    /**
+     * Returns approximately the {@code k} rows most similar to the provided
+     * vector, sorted by decreasing similarity.  The vector need not have unit
+     * length.
+     */
+    public TopKHeap nearest(double[] vector, int k) {
+        return search(vectors.unitQuery(vector), -1, k);
+    }
+
+    private TopKHeap search(double[] query, int excludedRow, int k) {
+        TopKHeap heap = new TopKHeap(Math.max(0, Math.min(k, vectors.rows())));
+        BitSet seen = new BitSet(vectors.rows());
+        if (excludedRow >= 0)
+            seen.set(excludedRow);
+        for (int t = 0; t < tableRows.length; ++t) {
+            int signature = signature(hyperplanes[t], query);
+            probe(t, signature, query, seen, heap);
+            for (int b = 0; b < bits; ++b)
+                probe(t, signature ^ (1 << b), query, seen, heap);
+        }
+        heap.sort();
+        return heap;
+    }
+
+    /**
+     * Offers every row of the table's bucket for the signature that has not
+     * already been seen.
+     */
+    private void probe(int table, int signature, double[] query, BitSet seen,
+                       TopKHeap heap) {
+        int[] signatures = tableSignatures[table];
+        int[] rows = tableRows[table];
+        int i = lowerBound(signatures, signature);
+        for (; i < signatures.length && signatures[i] == signature; ++i) {
+            int row = rows[i];
+            if (seen.get(row))
+                continue;
+            seen.set(row);
+            heap.offer(row, vectors.similarity(query, row));
+        }
+    }
+
+    /**
+     * Returns the first index whose value is not less than the key.
+     */
+    private static int lowerBound(int[] sorted, int key) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] < key)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+}
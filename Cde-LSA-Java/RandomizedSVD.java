@@ -0,0 +1,248 @@
+package edu.ucla.sspace.lsa;
+
+import java.util.Properties;
+import java.util.Random;
+
+import java.util.logging.Logger;
+
+import edu.ucla.sspace.matrix.ArrayMatrix;
+import edu.ucla.sspace.matrix.Matrix;
+
+/**
+ * A truncated singular value decomposition of a {@link
+ * SparseTermDocumentMatrix} computed with a randomized range finder.  This is
+ * the algorithm described in
+ *
+ * <ul>
+ *
+ *   <li style="font-family:Garamond, Georgia, serif"> Halko, N., Martinsson,
+ *     P. G., & Tropp, J. A. (2011).  Finding structure with randomness:
+ *     Probabilistic algorithms for constructing approximate matrix
+ *     decompositions.  <i>SIAM Review</i>, <b>53</b>, 217-288. </li>
+ *
+ * </ul>
+ *
+ * The range of the matrix {@code A} is sampled by multiplying it with a random
+ * Gaussian matrix of {@code k + p} columns, where {@code p} is the amount of
+ * oversampling.  A few power iterations with {@code A A'} sharpen the sample
+ * when the singular values decay slowly, as they do for most term-document
+ * matrices.  The sample is orthonormalized to a basis {@code Q}, and the small
+ * matrix {@code Q'A} is decomposed exactly to give the leading singular
+ * triplets of {@code A}.
+ *
+ * <p>
+ *
+ * Each power iteration costs two passes over the non-zero entries, so the
+ * whole decomposition takes {@code O(nnz * (k + p) * (2q + 2))} time for the
+ * sparse products plus {@code O((rows + columns) * (k + p)^2)} time for the
+ * dense orthonormalizations, and only needs a few dense blocks of {@code k +
+ * p} columns in addition to the sparse matrix.
+ *
+ * <p>
+ *
+ * This class supports the following properties:
+ *
+ * <dl style="margin-left: 1em">
+ *
+ * <dt> <i>Property:</i> <code><b>{@value #OVERSAMPLING_PROPERTY}
+ *      </b></code> <br>
+ *      <i>Default:</i> the number of requested dimensions
+ *
+ * <dd style="padding-top: .5em">The number of random samples taken in
+ *       addition to the number of requested dimensions.  The singular values
+ *       of term-document matrices of short comments decay slowly, and fewer
+ *       samples leave the trailing dimensions inaccurate; see {@code
+ *       checks/RandomizedSVDCheck}.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>{@value #POWER_ITERATIONS_PROPERTY}
+ *      </b></code> <br>
+ *      <i>Default:</i> {@code 4}
+ *
+ * <dd style="padding-top: .5em">The number of power iterations used to refine
+ *       the sampled range.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>{@value #SEED_PROPERTY}
+ *      </b></code> <br>
+ *      <i>Default:</i> unset
+ *
+ * <dd style="padding-top: .5em">The seed of the random samples.  If unset, a
+ *       different seed is used for each decomposition.<p>
+ *
+ * </dl>
+ *
+ * @see LatentSemanticAnalysis#LSA_SVD_ALGORITHM_PROPERTY
+ */
+public class RandomizedSVD {
+
+    /**
+     * The prefix for naming publically accessible properties
+     */
+    private static final String PROPERTY_PREFIX =
+        "edu.ucla.sspace.lsa.RandomizedSVD";
+
+    /**
+     * The property to set the number of additional random samples
+     */
+    public static final String OVERSAMPLING_PROPERTY =
+        PROPERTY_PREFIX + ".oversampling";
+
+    /**
+     * The property to set the number of power iterations
+     */
+    public static final String POWER_ITERATIONS_PROPERTY =
+        PROPERTY_PREFIX + ".powerIterations";
+
+    /**
+     * The property to set the seed of the random samples
+     */
+    public static final String SEED_PROPERTY =
+        PROPERTY_PREFIX + ".seed";
+
+    /**
+     * The logger used to record all output
+     */
+    private static final Logger LOGGER =
+        Logger.getLogger(RandomizedSVD.class.getName());
+
+    /**
+     * The number of additional samples, or {@code -1} to take as many as the
+     * number of requested dimensions
+     */
+    private final int oversampling;
+
+    private final int powerIterations;
+
+    private final Random random;
+
+    /**
+     * Creates a decomposition with the default oversampling and power
+     * iterations.
+     */
+    public RandomizedSVD() {
+        this(new Properties());
+    }
+
+    /**
+     * Creates a decomposition configured by the provided properties.
+     */
+    public RandomizedSVD(Properties properties) {
+        oversampling = getInt(properties, OVERSAMPLING_PROPERTY, -1);
+        powerIterations = getInt(properties, POWER_ITERATIONS_PROPERTY, 4);
+        String seed = properties.getProperty(SEED_PROPERTY);
+        try {
+            random = (seed == null)
+                ? new Random()
+                : new Random(Long.parseLong(seed));
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException(
+                SEED_PROPERTY + " is not an integer: " + seed);
+        }
+    }
+
+    /**
+     * Returns the non-negative integer value of the property, or the default
+     * value if the property is unset.
+     */
+    private static int getInt(Properties properties, String property,
+                              int defaultValue) {
+        String value = properties.getProperty(property);
+        if (value == null)
+            return defaultValue;
+        try {
+            int i = Integer.parseInt(value);
+            if (i < 0)
+                throw new IllegalArgumentException(
+                    property + " must not be negative: " + value);
+            return i;
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException(
+                property + " is not an integer: " + value);
+        }
+    }
+
+    /**
+     * Computes the leading singular triplets of the matrix and returns them in
+     * the same form as {@link edu.ucla.sspace.matrix.SVD#svd(java.io.File,
+     * edu.ucla.sspace.matrix.SVD.Algorithm,int) SVD.svd}: the {@code rows x k}
+     * left singular vectors, the {@code k x k} diagonal matrix of singular
+     * values in descending order and the {@code k x columns} transposed right
+     * singular vectors.  If the matrix has fewer than {@code dimensions} rows
+     * or columns, {@code k} is the smaller of the two.
+     */
+    public Matrix[] svd(SparseTermDocumentMatrix matrix, int dimensions) {
+        return svd(matrix, dimensions, 1);
+    }
+
+    /**
+     * Computes the leading singular triplets of the matrix as {@link
+     * #svd(SparseTermDocumentMatrix,int)} does, using {@code numThreads}
+     * threads for the sparse matrix products.  With more than one thread, a
+     * transposed copy of the matrix is made so that both products can be split
+     * between the threads.
+     */
+    public Matrix[] svd(SparseTermDocumentMatrix matrix, int dimensions,
+                        int numThreads) {
+        SparseTermDocumentMatrix transpose =
+            (numThreads > 1) ? matrix.transpose() : null;
+        int m = matrix.rows();
+        int n = matrix.columns();
+        int k = Math.min(dimensions, Math.min(m, n));
+        int p = (oversampling < 0) ? k : oversampling;
+        int l = Math.min(k + p, Math.min(m, n));
+
+        // Sample the range of A with a Gaussian test matrix
+        double[] omega = new double[n * l];
+        for (int i = 0; i < omega.length; ++i)
+            omega[i] = random.nextGaussian();
+        double[] q = multiply(matrix, transpose, omega, l, numThreads);
+        omega = null;
+        DenseMatrices.orthonormalizeColumns(q, m, l);
+
+        // Refine the sample with power iterations, orthonormalizing after each
+        // product to keep the small singular values from being lost to
+        // rounding
+        for (int iter = 0; iter < powerIterations; ++iter) {
+            LOGGER.fine("randomized SVD power iteration " + (iter + 1) +
+                        " of " + powerIterations);
+            double[] z = matrix.transposeMultiply(q, l, numThreads);
+            DenseMatrices.orthonormalizeColumns(z, n, l);
+            q = multiply(matrix, transpose, z, l, numThreads);
+            DenseMatrices.orthonormalizeColumns(q, m, l);
+        }
+
+        // A ~ Q Q'A = Q B.  Rather than decompose the l x n matrix B directly,
+        // factor B' = A'Q = Qz R and decompose the small l x l matrix R, which
+        // gives B' = (Qz Ur) S Vr', and so A ~ (Q Vr) S (Qz Ur)'.
+        double[] qz = matrix.transposeMultiply(q, l, numThreads);
+        double[] r = DenseMatrices.orthonormalizeColumns(qz, n, l);
+        JacobiSVD small = new JacobiSVD(r, l, l);
+        double[] u = DenseMatrices.multiply(q, m, l, small.getV(), l);
+        double[] v = DenseMatrices.multiply(qz, n, l, small.getU(), l);
+        double[] s = small.getSingularValues();
+
+        Matrix uMatrix = new ArrayMatrix(m, k);
+        for (int i = 0; i < m; ++i)
+            for (int j = 0; j < k; ++j)
+                uMatrix.set(i, j, u[i * l + j]);
+        Matrix sMatrix = new ArrayMatrix(k, k);
+        for (int j = 0; j < k; ++j)
+            sMatrix.set(j, j, s[j]);
+        Matrix vtMatrix = new ArrayMatrix(k, n);
+        for (int i = 0; i < n; ++i)
+            for (int j = 0; j < k; ++j)
+                vtMatrix.set(j, i, v[i * l + j]);
+        return new Matrix[] { uMatrix, sMatrix, vtMatrix };
+    }
+
+    /**
+     * Returns the product of the matrix and {@code x}, using its transpose if
+     * one is available so that the product can be computed in parallel.
+     */
+    private static double[] multiply(SparseTermDocumentMatrix matrix,
+                                     SparseTermDocumentMatrix transpose,
+                                     double[] x, int k, int numThreads) {
+        return (transpose == null)
+            ? matrix.multiply(x, k)
+            : transpose.transposeMultiply(x, k, numThreads);
+    }
+}
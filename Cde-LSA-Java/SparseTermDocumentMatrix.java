@@ -0,0 +1,284 @@
+package edu.ucla.sspace.lsa;
+
+import java.io.IOError;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import java.util.concurrent.Callable;
+
+/**
+ * An in-memory term-document matrix in compressed sparse column form.  Each
+ * column holds the non-zero entries of one document, stored contiguously in
+ * primitive arrays, so the matrix uses only a few bytes per non-zero.  The
+ * entries within a column are in the order in which they were added, which is
+ * not necessarily sorted by row.
+ *
+ * <p>
+ *
+ * Unlike the binary file format, row and column indices of this class start at
+ * 0, so the term with index {@code t} in a {@link TermDictionary} is row {@code
+ * t - 1}, and likewise for documents.
+ *
+ * <p>
+ *
+ * The structure of the matrix cannot be changed after it is created, but the
+ * values may be updated in place, for example by a {@link MatrixTransformer}.
+ */
+public class SparseTermDocumentMatrix {
+
+    private final int rows;
+
+    private final int columns;
+
+    /**
+     * The position in {@link #rowIndices} and {@link #values} of the first
+     * entry of each column, followed by the total number of entries
+     */
+    private final int[] columnStarts;
+
+    /**
+     * The row of each entry
+     */
+    private final int[] rowIndices;
+
+    /**
+     * The value of each entry
+     */
+    private final float[] values;
+
+    /**
+     * Creates a matrix from its compressed sparse column arrays, which are
+     * used directly rather than copied.
+     */
+    SparseTermDocumentMatrix(int rows, int columns, int[] columnStarts,
+                             int[] rowIndices, float[] values) {
+        if (columnStarts.length != columns + 1)
+            throw new IllegalArgumentException(
+                "expected " + (columns + 1) + " column starts");
+        this.rows = rows;
+        this.columns = columns;
+        this.columnStarts = columnStarts;
+        this.rowIndices = rowIndices;
+        this.values = values;
+    }
+
+    /**
+     * Builds a matrix with the provided dimensions from the entries buffered in
+     * each of the in-memory segments.  The terms and documents of the segments
+     * are indexed from 1.
+     */
+    public static SparseTermDocumentMatrix fromSegments(
+            int rows, int columns, Collection<TermDocumentSegment> segments) {
+        // count the number of entries in each column, and then convert the
+        // counts into the start of each column
+        int[] columnStarts = new int[columns + 1];
+        long nonZeros = 0;
+        for (TermDocumentSegment segment : segments) {
+            for (int i = 0; i < segment.size(); ++i)
+                columnStarts[segment.document(i)]++;
+            nonZeros += segment.size();
+        }
+        if (nonZeros > Integer.MAX_VALUE)
+            throw new IllegalArgumentException(
+                "too many entries for an in-memory matrix: " + nonZeros);
+        for (int col = 0, start = 0; col <= columns; ++col) {
+            int count = columnStarts[col];
+            columnStarts[col] = start;
+            start += count;
+        }
+
+        // columnStarts[doc] is now the start of column doc - 1, so use it as
+        // the next free position in that column while filling the entries
+        int[] rowIndices = new int[(int)nonZeros];
+        float[] values = new float[(int)nonZeros];
+        for (TermDocumentSegment segment : segments) {
+            for (int i = 0; i < segment.size(); ++i) {
+                int pos = columnStarts[segment.document(i)]++;
+                rowIndices[pos] = segment.term(i) - 1;
+                values[pos] = segment.value(i);
+            }
+        }
+        columnStarts[0] = 0;
+        return new SparseTermDocumentMatrix(rows, columns, columnStarts,
+                                            rowIndices, values);
+    }
+
+    /**
+     * Returns the number of rows (terms) in the matrix.
+     */
+    public int rows() {
+        return rows;
+    }
+
+    /**
+     * Returns the number of columns (documents) in the matrix.
+     */
+    public int columns() {
+        return columns;
+    }
+
+    /**
+     * Returns the number of non-zero entries in the matrix.
+     */
+    public int nonZeros() {
+        return columnStarts[columns];
+    }
+
+    /**
+     * Returns the value at the provided row and column.  This requires a scan
+     * of the column and is intended for occasional access only.
+     */
+    public double get(int row, int column) {
+        for (int i = columnStarts[column]; i < columnStarts[column + 1]; ++i) {
+            if (rowIndices[i] == row)
+                return values[i];
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the product of this matrix and the {@code columns() x k} dense
+     * matrix {@code x}, which is a {@code rows() x k} matrix.  Dense matrices
+     * are row-major arrays, as described by {@link DenseMatrices}.
+     */
+    public double[] multiply(double[] x, int k) {
+        double[] y = new double[rows * k];
+        for (int col = 0; col < columns; ++col) {
+            int xRow = col * k;
+            for (int i = columnStarts[col]; i < columnStarts[col + 1]; ++i) {
+                int yRow = rowIndices[i] * k;
+                double v = values[i];
+                for (int j = 0; j < k; ++j)
+                    y[yRow + j] += v * x[xRow + j];
+            }
+        }
+        return y;
+    }
+
+    /**
+     * Returns the product of the transpose of this matrix and the {@code
+     * rows() x k} dense matrix {@code x}, which is a {@code columns() x k}
+     * matrix.
+     */
+    public double[] transposeMultiply(double[] x, int k) {
+        double[] y = new double[columns * k];
+        transposeMultiply(x, k, y, 0, columns);
+        return y;
+    }
+
+    /**
+     * Returns the product of the transpose of this matrix and the {@code
+     * rows() x k} dense matrix {@code x} computed using {@code numThreads}
+     * threads.  Each thread computes the rows of the product for a range of
+     * columns with about the same number of entries, so the threads never
+     * write to the same memory.
+     *
+     * <p>
+     *
+     * The product with this matrix itself cannot be split the same way, as
+     * every column may contribute to every row of the product.  Callers that
+     * need both products in parallel should {@link #transpose() transpose} the
+     * matrix once and use the product of its transpose instead.
+     */
+    public double[] transposeMultiply(final double[] x, final int k,
+                                      int numThreads) {
+        final double[] y = new double[columns * k];
+        if (numThreads <= 1) {
+            transposeMultiply(x, k, y, 0, columns);
+            return y;
+        }
+        int[] columnBounds = AbstractMatrixTransformer.partitionColumns(
+            columnStarts, numThreads);
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(numThreads);
+        for (int t = 0; t < numThreads; ++t) {
+            final int from = columnBounds[t];
+            final int to = columnBounds[t + 1];
+            tasks.add(new Callable<Void>() {
+                    public Void call() {
+                        transposeMultiply(x, k, y, from, to);
+                        return null;
+                    }
+                });
+        }
+        try {
+            ParallelTasks.invokeAll(tasks, numThreads);
+        } catch (IOException ioe) {
+            // the in-memory tasks do not perform any I/O
+            throw new IOError(ioe);
+        }
+        return y;
+    }
+
+    /**
+     * Computes the rows {@code [from, to)} of the product of the transpose of
+     * this matrix and {@code x}, storing them in {@code y}.
+     */
+    private void transposeMultiply(double[] x, int k, double[] y,
+                                   int from, int to) {
+        for (int col = from; col < to; ++col) {
+            int yRow = col * k;
+            for (int i = columnStarts[col]; i < columnStarts[col + 1]; ++i) {
+                int xRow = rowIndices[i] * k;
+                double v = values[i];
+                for (int j = 0; j < k; ++j)
+                    y[yRow + j] += v * x[xRow + j];
+            }
+        }
+    }
+
+    /**
+     * Returns a new matrix that is the transpose of this matrix.  The entries
+     * of each column of the transpose are sorted by row.  Later changes to the
+     * values of either matrix are not reflected in the other.
+     */
+    public SparseTermDocumentMatrix transpose() {
+        int nonZeros = nonZeros();
+        int[] rowStarts = new int[rows + 1];
+        for (int i = 0; i < nonZeros; ++i)
+            rowStarts[rowIndices[i] + 1]++;
+        for (int row = 0, start = 0; row <= rows; ++row) {
+            int count = rowStarts[row];
+            rowStarts[row] = start;
+            start += count;
+        }
+
+        // rowStarts[row + 1] is now the start of row, so use it as the next
+        // free position in that row while filling the entries
+        int[] columnIndices = new int[nonZeros];
+        float[] transposedValues = new float[nonZeros];
+        for (int col = 0; col < columns; ++col) {
+            for (int i = columnStarts[col]; i < columnStarts[col + 1]; ++i) {
+                int pos = rowStarts[rowIndices[i] + 1]++;
+                columnIndices[pos] = col;
+                transposedValues[pos] = values[i];
+            }
+        }
+        rowStarts[0] = 0;
+        return new SparseTermDocumentMatrix(columns, rows, rowStarts,
+                                            columnIndices, transposedValues);
+    }
+
+    /**
+     * Returns the backing array of column start positions.
+     */
+    int[] columnStarts() {
+        return columnStarts;
+    }
+
+    /**
+     * Returns the backing array of row indices.
+     */
+    int[] rowIndices() {
+        return rowIndices;
+    }
+
+    /**
+     * Returns the backing array of values, which may be modified in place.
+     */
+    float[] values() {
+        return values;
+    }
+}
@@ -0,0 +1,103 @@
+package edu.ucla.sspace.lsa;
+
+import java.util.Collections;
+import java.util.Set;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread-safe mapping from terms to the contiguous row indices they are
+ * assigned in a term-document matrix.  Indices start at 1 and are assigned in
+ * the order in which terms are first seen.
+ *
+ * <p>
+ *
+ * Lookups of existing terms never block.  Adding a new term locks only one of
+ * a fixed number of lock stripes chosen by the term's hash code, so threads
+ * adding different terms rarely contend with each other, and a term is never
+ * assigned more than one index.
+ */
+public class TermDictionary {
+
+    /**
+     * The number of locks used to guard the assignment of new indices.  This
+     * must be a power of two.
+     */
+    private static final int LOCK_STRIPES = 64;
+
+    /**
+     * A mapping from a term to its index
+     */
+    private final ConcurrentMap<String,Integer> termToIndex;
+
+    /**
+     * The counter for recording the current, largest term index
+     */
+    private final AtomicInteger termIndexCounter;
+
+    /**
+     * The locks used when adding new terms, selected by the term's hash code
+     */
+    private final Object[] locks;
+
+    /**
+     * Creates an empty dictionary.
+     */
+    public TermDictionary() {
+        termToIndex = new ConcurrentHashMap<String,Integer>();
+        termIndexCounter = new AtomicInteger(0);
+        locks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < locks.length; ++i)
+            locks[i] = new Object();
+    }
+
+    /**
+     * Returns the index of the term, assigning it the next available index if
+     * the term has not been seen before.
+     */
+    public int index(String term) {
+        Integer index = termToIndex.get(term);
+        if (index != null)
+            return index.intValue();
+
+        int hash = term.hashCode();
+        Object lock = locks[(hash ^ (hash >>> 16)) & (LOCK_STRIPES - 1)];
+        synchronized(lock) {
+            // recheck to see if the term was added while blocking.  Any other
+            // thread adding this term must hold the same lock.
+            index = termToIndex.get(term);
+            if (index == null) {
+                index = Integer.valueOf(termIndexCounter.incrementAndGet());
+                termToIndex.put(term, index);
+            }
+        }
+        return index.intValue();
+    }
+
+    /**
+     * Returns the index of the term, or {@code -1} if the term has not been
+     * added to this dictionary.
+     */
+    public int find(String term) {
+        Integer index = termToIndex.get(term);
+        return (index == null) ? -1 : index.intValue();
+    }
+
+    /**
+     * Returns the number of terms in this dictionary, which is also the largest
+     * index assigned.
+     */
+    public int size() {
+        return termIndexCounter.get();
+    }
+
+    /**
+     * Returns an unmodifiable view of the terms in this dictionary.
+     */
+    public Set<String> terms() {
+        return Collections.unmodifiableSet(termToIndex.keySet());
+    }
+}
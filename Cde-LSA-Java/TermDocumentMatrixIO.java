@@ -0,0 +1,240 @@
+package edu.ucla.sspace.lsa;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import java.nio.ByteBuffer;
+
+import java.nio.channels.FileChannel;
+
+import java.util.List;
+
+/**
+ * Constants and utility methods for the binary term-document matrix format
+ * used between the stages of {@link LatentSemanticAnalysis}.
+ *
+ * <p>
+ *
+ * A binary matrix file begins with a fixed-size header of {@value
+ * #HEADER_BYTES} bytes containing, in order, the magic number, the format
+ * version, the number of rows (terms), the number of columns (documents) and
+ * the number of non-zero entries stored in the file (a {@code long}).  The
+ * header is followed by the non-zero entries, each of which is {@value
+ * #ENTRY_BYTES} bytes wide: the {@code int} row, the {@code int} column and the
+ * {@code float} value.  As with the {@link
+ * edu.ucla.sspace.common.MatrixIO.Format#MATLAB_SPARSE MATLAB_SPARSE} format,
+ * row and column indices start at 1.  All values are written in big-endian
+ * byte order.
+ *
+ * <p>
+ *
+ * Because every entry has the same width, the entry at position {@code i} can
+ * be found at byte offset {@code HEADER_BYTES + i * ENTRY_BYTES} without
+ * scanning the file.
+ *
+ * @see TermDocumentMatrixReader
+ * @see TermDocumentMatrixWriter
+ */
+public class TermDocumentMatrixIO {
+
+    /**
+     * The first four bytes of every binary term-document matrix file.
+     */
+    static final int MAGIC = 0x4C534154;
+
+    /**
+     * The current version of the binary format.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * The number of bytes in the file header.
+     */
+    public static final int HEADER_BYTES = 24;
+
+    /**
+     * The number of bytes used by each non-zero entry.
+     */
+    public static final int ENTRY_BYTES = 12;
+
+    /**
+     * The default size of the buffers used for reading and writing, which is
+     * rounded to a whole number of entries.
+     */
+    static final int BUFFER_BYTES = ENTRY_BYTES * (1 << 13);
+
+    /**
+     * Uninstantiable
+     */
+    private TermDocumentMatrixIO() { }
+
+    /**
+     * Writes a header with the provided dimensions to the start of the channel
+     * without changing the channel's position.
+     */
+    static void writeHeader(FileChannel channel, int rows, int columns,
+                            long nonZeros) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).putInt(rows).putInt(columns).
+            putLong(nonZeros);
+        header.flip();
+        long position = 0;
+        while (header.hasRemaining())
+            position += channel.write(header, position);
+    }
+
+    /**
+     * Concatenates the entries of the binary matrices in {@code segments} into
+     * a single binary matrix written to {@code output}.  The entries are not
+     * reordered, and the dimensions of the output are the largest dimensions of
+     * the segments.  The segments are expected to contain disjoint entries, as
+     * is the case when each segment holds a different set of documents.
+     */
+    public static void concatenate(List<File> segments, File output)
+            throws IOException {
+        int rows = 0;
+        int columns = 0;
+        long nonZeros = 0;
+        FileChannel out = new FileOutputStream(output).getChannel();
+        out.position(HEADER_BYTES);
+        for (File segment : segments) {
+            TermDocumentMatrixReader reader =
+                new TermDocumentMatrixReader(segment);
+            rows = Math.max(rows, reader.rows());
+            columns = Math.max(columns, reader.columns());
+            nonZeros += reader.nonZeros();
+            long bytes = reader.nonZeros() * ENTRY_BYTES;
+            reader.close();
+
+            // copy the entries directly between the channels, which avoids
+            // decoding them
+            FileChannel in = new FileInputStream(segment).getChannel();
+            long position = HEADER_BYTES;
+            long end = HEADER_BYTES + bytes;
+            while (position < end)
+                position += in.transferTo(position, end - position, out);
+            in.close();
+        }
+        writeHeader(out, rows, columns, nonZeros);
+        out.close();
+    }
+
+    /**
+     * Reads the binary matrix in {@code binaryMatrix} into memory.  The file is
+     * read twice: once to count the entries of each column and once to fill
+     * them in, so no intermediate copy of the entries is needed.
+     *
+     * @throws IllegalArgumentException if the matrix has too many non-zero
+     *         entries to be held in arrays
+     */
+    public static SparseTermDocumentMatrix read(File binaryMatrix)
+            throws IOException {
+        TermDocumentMatrixReader reader =
+            new TermDocumentMatrixReader(binaryMatrix);
+        int rows = reader.rows();
+        int columns = reader.columns();
+        long nonZeros = reader.nonZeros();
+        if (nonZeros > Integer.MAX_VALUE)
+            throw new IllegalArgumentException(
+                "too many entries for an in-memory matrix: " + nonZeros);
+        int[] columnStarts = new int[columns + 1];
+        while (reader.next())
+            columnStarts[reader.document()]++;
+        reader.close();
+        for (int col = 0, start = 0; col <= columns; ++col) {
+            int count = columnStarts[col];
+            columnStarts[col] = start;
+            start += count;
+        }
+
+        // as in SparseTermDocumentMatrix.fromSegments, columnStarts[doc] is
+        // the next free position of column doc - 1 while filling the entries
+        int[] rowIndices = new int[(int)nonZeros];
+        float[] values = new float[(int)nonZeros];
+        reader = new TermDocumentMatrixReader(binaryMatrix);
+        while (reader.next()) {
+            int pos = columnStarts[reader.document()]++;
+            rowIndices[pos] = reader.term() - 1;
+            values[pos] = reader.value();
+        }
+        reader.close();
+        columnStarts[0] = 0;
+        return new SparseTermDocumentMatrix(rows, columns, columnStarts,
+                                            rowIndices, values);
+    }
+
+    /**
+     * Writes the binary matrix in {@code binaryMatrix} to {@code output} in
+     * {@link edu.ucla.sspace.common.MatrixIO.Format#MATLAB_SPARSE
+     * MATLAB_SPARSE} text format, with one {@code row column value} triple per
+     * line.
+     */
+    public static void toMatlabSparse(File binaryMatrix, File output)
+            throws IOException {
+        TermDocumentMatrixReader reader =
+            new TermDocumentMatrixReader(binaryMatrix);
+        PrintWriter pw = new PrintWriter(output);
+        StringBuilder sb = new StringBuilder(32);
+        while (reader.next()) {
+            sb.setLength(0);
+            sb.append(reader.term()).append(' ').
+                append(reader.document()).append(' ').append(reader.value());
+            pw.println(sb);
+        }
+        reader.close();
+        pw.close();
+    }
+
+    /**
+     * Writes the in-memory matrix to {@code output} in {@link
+     * edu.ucla.sspace.common.MatrixIO.Format#MATLAB_SPARSE MATLAB_SPARSE} text
+     * format, with one {@code row column value} triple per line.
+     */
+    public static void toMatlabSparse(SparseTermDocumentMatrix matrix,
+                                      File output) throws IOException {
+        int[] columnStarts = matrix.columnStarts();
+        int[] rowIndices = matrix.rowIndices();
+        float[] values = matrix.values();
+        PrintWriter pw = new PrintWriter(output);
+        StringBuilder sb = new StringBuilder(32);
+        for (int col = 0; col < matrix.columns(); ++col) {
+            for (int i = columnStarts[col]; i < columnStarts[col + 1]; ++i) {
+                // the text format indexes rows and columns from 1
+                sb.setLength(0);
+                sb.append(rowIndices[i] + 1).append(' ').
+                    append(col + 1).append(' ').append(values[i]);
+                pw.println(sb);
+            }
+        }
+        pw.close();
+    }
+
+    /**
+     * Returns a new temporary file containing the in-memory matrix in {@link
+     * edu.ucla.sspace.common.MatrixIO.Format#MATLAB_SPARSE MATLAB_SPARSE} text
+     * format.
+     */
+    public static File toMatlabSparse(SparseTermDocumentMatrix matrix)
+            throws IOException {
+        File output =
+            File.createTempFile("lsa-term-document-matrix.matlab-sparse", "dat");
+        toMatlabSparse(matrix, output);
+        return output;
+    }
+
+    /**
+     * Returns a new temporary file containing the binary matrix in {@code
+     * binaryMatrix} in {@link
+     * edu.ucla.sspace.common.MatrixIO.Format#MATLAB_SPARSE MATLAB_SPARSE} text
+     * format.
+     */
+    public static File toMatlabSparse(File binaryMatrix) throws IOException {
+        File output = File.createTempFile(binaryMatrix.getName() +
+                                          ".matlab-sparse", "dat");
+        toMatlabSparse(binaryMatrix, output);
+        return output;
+    }
+}
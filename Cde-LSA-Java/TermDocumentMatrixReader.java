@@ -0,0 +1,189 @@
+package edu.ucla.sspace.lsa;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+
+import java.nio.channels.FileChannel;
+
+import static edu.ucla.sspace.lsa.TermDocumentMatrixIO.BUFFER_BYTES;
+import static edu.ucla.sspace.lsa.TermDocumentMatrixIO.ENTRY_BYTES;
+import static edu.ucla.sspace.lsa.TermDocumentMatrixIO.HEADER_BYTES;
+import static edu.ucla.sspace.lsa.TermDocumentMatrixIO.MAGIC;
+import static edu.ucla.sspace.lsa.TermDocumentMatrixIO.VERSION;
+
+/**
+ * A sequential reader for term-document matrices stored in the binary format
+ * described by {@link TermDocumentMatrixIO}.  Entries are read one at a time
+ * with {@link #next()}, after which the entry's contents are available from
+ * {@link #term()}, {@link #document()} and {@link #value()}.  No objects are
+ * allocated per entry.
+ *
+ * <p>
+ *
+ * This class is not thread-safe.
+ */
+public class TermDocumentMatrixReader implements Closeable {
+
+    /**
+     * The channel from which the matrix is read
+     */
+    private final FileChannel channel;
+
+    /**
+     * The buffer of bytes read from the channel but not yet decoded
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * The number of rows in the matrix, as recorded in the header
+     */
+    private final int rows;
+
+    /**
+     * The number of columns in the matrix, as recorded in the header
+     */
+    private final int columns;
+
+    /**
+     * The number of non-zero entries in the matrix, as recorded in the header
+     */
+    private final long nonZeros;
+
+    /**
+     * The number of entries that have not yet been returned by {@link #next()}
+     */
+    private long remaining;
+
+    private int term;
+
+    private int document;
+
+    private float value;
+
+    /**
+     * Opens the binary matrix stored in the provided file and reads its header.
+     *
+     * @throws IOException if the file cannot be read or is not in the binary
+     *         term-document matrix format
+     */
+    public TermDocumentMatrixReader(File matrix) throws IOException {
+        this(matrix, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Opens the binary matrix stored in the provided file and reads its header,
+     * limiting the entries returned by {@link #next()} to those at positions
+     * {@code firstEntry} (inclusive) through {@code lastEntry} (exclusive).
+     * This allows separate threads to read disjoint parts of the same matrix.
+     *
+     * @throws IOException if the file cannot be read or is not in the binary
+     *         term-document matrix format
+     */
+    public TermDocumentMatrixReader(File matrix, long firstEntry,
+                                    long lastEntry) throws IOException {
+        channel = new FileInputStream(matrix).getChannel();
+        buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        buffer.limit(HEADER_BYTES);
+        fill(HEADER_BYTES);
+
+        int magic = buffer.getInt();
+        int version = buffer.getInt();
+        if (magic != MAGIC || version != VERSION) {
+            channel.close();
+            throw new IOException(matrix + " is not a binary term-document " +
+                                  "matrix (version " + VERSION + ")");
+        }
+        rows = buffer.getInt();
+        columns = buffer.getInt();
+        nonZeros = buffer.getLong();
+        firstEntry = Math.min(firstEntry, nonZeros);
+        remaining = Math.min(lastEntry, nonZeros) - firstEntry;
+        channel.position(HEADER_BYTES + firstEntry * ENTRY_BYTES);
+
+        buffer.clear();
+        buffer.flip();
+    }
+
+    /**
+     * Reads from the channel until at least {@code bytes} bytes are available
+     * in the buffer, leaving the buffer ready for decoding.
+     */
+    private void fill(int bytes) throws IOException {
+        while (buffer.position() < bytes) {
+            if (channel.read(buffer) < 0)
+                throw new EOFException("matrix file is truncated; expected " +
+                                       remaining + " more entries");
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Advances to the next non-zero entry in the matrix, returning {@code
+     * false} if all the entries have been read.
+     */
+    public boolean next() throws IOException {
+        if (remaining == 0)
+            return false;
+        if (buffer.remaining() < ENTRY_BYTES) {
+            buffer.compact();
+            fill(ENTRY_BYTES);
+        }
+        term = buffer.getInt();
+        document = buffer.getInt();
+        value = buffer.getFloat();
+        remaining--;
+        return true;
+    }
+
+    /**
+     * Returns the row (term) index of the current entry.
+     */
+    public int term() {
+        return term;
+    }
+
+    /**
+     * Returns the column (document) index of the current entry.
+     */
+    public int document() {
+        return document;
+    }
+
+    /**
+     * Returns the value of the current entry.
+     */
+    public float value() {
+        return value;
+    }
+
+    /**
+     * Returns the number of rows in the matrix.
+     */
+    public int rows() {
+        return rows;
+    }
+
+    /**
+     * Returns the number of columns in the matrix.
+     */
+    public int columns() {
+        return columns;
+    }
+
+    /**
+     * Returns the number of non-zero entries in the matrix, including those
+     * outside the range of entries being read.
+     */
+    public long nonZeros() {
+        return nonZeros;
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,114 @@
+package edu.ucla.sspace.lsa;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+
+import java.nio.channels.FileChannel;
+
+import static edu.ucla.sspace.lsa.TermDocumentMatrixIO.BUFFER_BYTES;
+import static edu.ucla.sspace.lsa.TermDocumentMatrixIO.ENTRY_BYTES;
+import static edu.ucla.sspace.lsa.TermDocumentMatrixIO.HEADER_BYTES;
+
+/**
+ * A writer for term-document matrices in the binary format described by {@link
+ * TermDocumentMatrixIO}.  Entries are buffered and written through a {@link
+ * FileChannel}.  The dimensions of the matrix are the largest row and column
+ * indices written, and the header is only completed when the writer is {@link
+ * #close() closed}.
+ *
+ * <p>
+ *
+ * This class is not thread-safe.
+ */
+public class TermDocumentMatrixWriter implements Closeable {
+
+    /**
+     * The file to which the matrix is written
+     */
+    private final File file;
+
+    /**
+     * The channel to which the matrix is written
+     */
+    private final FileChannel channel;
+
+    /**
+     * The buffer of encoded entries that have not yet been written
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * The largest row index written so far
+     */
+    private int rows;
+
+    /**
+     * The largest column index written so far
+     */
+    private int columns;
+
+    /**
+     * The number of entries written so far
+     */
+    private long nonZeros;
+
+    /**
+     * Creates a writer that writes a binary matrix to the provided file,
+     * replacing any existing contents.
+     */
+    public TermDocumentMatrixWriter(File matrix) throws IOException {
+        file = matrix;
+        channel = new FileOutputStream(matrix).getChannel();
+        buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        rows = 0;
+        columns = 0;
+        nonZeros = 0;
+        // reserve space for the header, which is written on close
+        channel.position(HEADER_BYTES);
+    }
+
+    /**
+     * Writes the value for the entry at the provided row (term) and column
+     * (document).
+     */
+    public void write(int term, int document, float value) throws IOException {
+        if (buffer.remaining() < ENTRY_BYTES)
+            flush();
+        buffer.putInt(term).putInt(document).putFloat(value);
+        if (term > rows)
+            rows = term;
+        if (document > columns)
+            columns = document;
+        nonZeros++;
+    }
+
+    /**
+     * Writes any buffered entries to the file.
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Returns the file to which this writer writes.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Writes any buffered entries, completes the header and closes the file.
+     */
+    public void close() throws IOException {
+        flush();
+        TermDocumentMatrixIO.writeHeader(channel, rows, columns, nonZeros);
+        channel.close();
+    }
+}
@@ -0,0 +1,136 @@
+package edu.ucla.sspace.lsa;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.Arrays;
+
+/**
+ * The part of a term-document matrix produced by a single thread.  Entries are
+ * buffered in primitive arrays until the segment is {@link #spill(File)
+ * spilled}, after which they are written directly to a file in the binary
+ * format described by {@link TermDocumentMatrixIO}.  Term and document indices
+ * start at 1, as in the binary format.
+ *
+ * <p>
+ *
+ * This class is not thread-safe; each segment is expected to be written by
+ * only one thread.
+ */
+public class TermDocumentSegment {
+
+    /**
+     * The number of entries for which space is initially allocated
+     */
+    private static final int INITIAL_CAPACITY = 1 << 12;
+
+    private int[] terms;
+
+    private int[] docs;
+
+    private float[] values;
+
+    /**
+     * The number of entries buffered in memory
+     */
+    private int size;
+
+    /**
+     * The writer for the spilled segment, or {@code null} if the segment is
+     * still in memory
+     */
+    private TermDocumentMatrixWriter writer;
+
+    /**
+     * Creates an empty, in-memory segment.
+     */
+    public TermDocumentSegment() {
+        terms = new int[INITIAL_CAPACITY];
+        docs = new int[INITIAL_CAPACITY];
+        values = new float[INITIAL_CAPACITY];
+        size = 0;
+        writer = null;
+    }
+
+    /**
+     * Adds the value for the entry at the provided term and document.
+     */
+    public void add(int term, int document, float value) throws IOException {
+        if (writer != null) {
+            writer.write(term, document, value);
+            return;
+        }
+        if (size == terms.length) {
+            int capacity = size + (size >> 1);
+            terms = Arrays.copyOf(terms, capacity);
+            docs = Arrays.copyOf(docs, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        terms[size] = term;
+        docs[size] = document;
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * Writes the buffered entries to the provided file and releases the
+     * memory used by them.  All entries added afterwards are written to the
+     * file.
+     */
+    public void spill(File file) throws IOException {
+        if (writer != null)
+            throw new IllegalStateException("segment has already been spilled");
+        writer = new TermDocumentMatrixWriter(file);
+        for (int i = 0; i < size; ++i)
+            writer.write(terms[i], docs[i], values[i]);
+        terms = null;
+        docs = null;
+        values = null;
+        size = 0;
+    }
+
+    /**
+     * Returns {@code true} if this segment has been spilled to a file.
+     */
+    public boolean isSpilled() {
+        return writer != null;
+    }
+
+    /**
+     * Completes the file of a spilled segment and returns it.
+     */
+    public File close() throws IOException {
+        if (writer == null)
+            throw new IllegalStateException("segment has not been spilled");
+        writer.close();
+        return writer.getFile();
+    }
+
+    /**
+     * Returns the number of entries buffered in memory.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the term of the buffered entry at the provided position.
+     */
+    public int term(int i) {
+        return terms[i];
+    }
+
+    /**
+     * Returns the document of the buffered entry at the provided position.
+     */
+    public int document(int i) {
+        return docs[i];
+    }
+
+    /**
+     * Returns the value of the buffered entry at the provided position.
+     */
+    public float value(int i) {
+        return values[i];
+    }
+}
@@ -22,9 +22,8 @@
 package edu.ucla.sspace.lsa;
 
 import java.io.*;
-import java.util.*;
 
-public class TfIdfTransformer implements MatrixTransformer {
+public class TfIdfTransformer extends AbstractMatrixTransformer {
 
     public static void main(String[] args) {
         try {
@@ -49,96 +48,88 @@ public class TfIdfTransformer implements MatrixTransformer {
         return output;
     }
 
-    public void transform(File input, File output) throws IOException {
-
-        // for each document and for each term in that document how many
-        // times did that term appear
-        Map<Pair,Integer> docToTermFreq =
-            new HashMap<Pair,Integer>();
-
-        // for each term, in how many documents did that term appear?
-        Map<Integer,Integer> termToDocOccurences =
-            new HashMap<Integer,Integer>();
-
-        // for each document, how many terms appeared in it
-        Map<Integer,Integer> docToTermCount =
-            new HashMap<Integer,Integer>();
-
-        // how many different terms and documents were used in the matrix
-        int numTerms = 0;
-        int numDocs = 0;
-
-        // calculate all the statistics on the original term-document matrix
-        BufferedReader br = new BufferedReader(new FileReader(input));
-        for (String line = null; (line = br.readLine()) != null; ) {
-            String[] termDocCount = line.split("\\s+");
-
-            Integer term  = Integer.valueOf(termDocCount[0]);
-            Integer doc   = Integer.valueOf(termDocCount[1]);
-            Integer count = Integer.valueOf(termDocCount[2]);
-
-            if (term.intValue() > numTerms)
-                numTerms = term.intValue();
-
-            if (doc.intValue() > numDocs)
-                numDocs = doc.intValue();
-
-            // increase the count for the number of documents in which this
-            // term was seen
-            Integer termOccurences = termToDocOccurences.get(term);
-            termToDocOccurences.put(term, (termOccurences == null)
-                                    ? Integer.valueOf(1)
-                                    : Integer.valueOf(termOccurences + 1));
-
-            // increase the total count of terms seen in ths document
-            Integer docTermCount = docToTermCount.get(doc);
-            docToTermCount.put(doc, (docTermCount == null)
-                               ? count
-                               : Integer.valueOf(count + docTermCount));
-
-            docToTermFreq.put(new Pair(term, doc), count);
-        }
-        br.close();
-
-        // the output the new matrix where the count value is replaced by
-        // the tf-idf value
-        PrintWriter pw = new PrintWriter(output);
-        for (Map.Entry<Pair,Integer> e : docToTermFreq.entrySet()) {
-            Pair p = e.getKey();
-            double count = e.getValue().intValue();
-            double tf = count / docToTermCount.get(p.doc);
-            double idf = Math.log((double)numDocs /
-                                  termToDocOccurences.get(p.term));
-            pw.println(p.term + "\t" +
-                       p.doc + "\t" +
-                       (tf * idf));
-        }
-        pw.close();
+    /**
+     * {@inheritDoc}
+     */
+    protected TermDocumentStatistics createStatistics(int numTerms,
+                                                      int numDocs) {
+        return new TfIdfStatistics(numTerms, numDocs);
     }
 
+    /**
+     * The number of documents in which each term occurs and the total number
+     * of terms in each document.  Only these per-term and per-document
+     * statistics are kept in memory, so the size of the matrix is not limited
+     * by the heap.
+     */
+    private static class TfIdfStatistics extends TermDocumentStatistics {
+
+        private final int numDocs;
+
+        /**
+         * For each term, in how many documents did that term appear?
+         */
+        private final int[] termToDocOccurences;
+
+        /**
+         * For each document, how many terms appeared in it
+         */
+        private final double[] docToTermCount;
+
+        /**
+         * The inverse document frequency of each term, computed once finished
+         */
+        private final double[] termToIdf;
+
+        public TfIdfStatistics(int numTerms, int numDocs) {
+            this.numDocs = numDocs;
+            // Terms and documents are indexed from 1, so the arrays need one
+            // extra element
+            termToDocOccurences = new int[numTerms + 1];
+            docToTermCount = new double[numDocs + 1];
+            termToIdf = new double[numTerms + 1];
+        }
 
-    private static class Pair {
-
-        Integer term;
-        Integer doc;
+        protected void add(int term, int document, float value) {
+            termToDocOccurences[term]++;
+            docToTermCount[document] += value;
+        }
 
-        public Pair(Integer term, Integer doc) {
-            this.term = term;
-            this.doc = doc;
+        protected void combine(TermDocumentStatistics other) {
+            TfIdfStatistics o = (TfIdfStatistics)other;
+            for (int term = 0; term < termToDocOccurences.length; ++term)
+                termToDocOccurences[term] += o.termToDocOccurences[term];
+            for (int doc = 0; doc < docToTermCount.length; ++doc)
+                docToTermCount[doc] += o.docToTermCount[doc];
         }
 
-        public boolean equals(Object o) {
-            if (o instanceof Pair) {
-                Pair p = (Pair)o;
-                return p.term.equals(term) && p.term.equals(term);
-            }
-            return false;
+        protected void finish() {
+            for (int term = 0; term < termToIdf.length; ++term)
+                termToIdf[term] =
+                    Math.log((double)numDocs / termToDocOccurences[term]);
         }
 
-        public int hashCode() {
-            return term.hashCode() + doc.hashCode();
+        protected double weight(int term, int document, float value) {
+            double tf = value / docToTermCount[document];
+            return tf * termToIdf[term];
         }
 
+        protected void weightDocument(int[] terms, float[] values, int size,
+                                      double[] weights) {
+            double termCount = 0;
+            for (int i = 0; i < size; ++i)
+                termCount += values[i];
+            // A term not seen in the matrix occurs in just this document
+            double newTermIdf = Math.log(numDocs);
+            for (int i = 0; i < size; ++i) {
+                int term = terms[i];
+                double idf = (term < termToIdf.length
+                              && termToDocOccurences[term] > 0)
+                    ? termToIdf[term]
+                    : newTermIdf;
+                weights[i] = values[i] / termCount * idf;
+            }
+        }
     }
 
     public String toString() {
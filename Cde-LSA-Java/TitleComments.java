@@ -0,0 +1,57 @@
+package edu.ucla.sspace.lsa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The comments made on a single title, such as a visualization of a feed or a
+ * blog post, in the order they were read.  This is the Java counterpart of the
+ * {@code TitleComments} class of the MATLAB code.  The groups are built by
+ * {@link TitleGrouper}, and their comments are compared with their titles by
+ * {@link CommentClassifier}.
+ */
+public class TitleComments {
+
+    private final String title;
+
+    private final List<String> comments;
+
+    /**
+     * Creates a group for the title with no comments.
+     */
+    public TitleComments(String title) {
+        this.title = title;
+        this.comments = new ArrayList<String>();
+    }
+
+    /**
+     * Returns the title, as it was spelled when it was first read.  As in the
+     * MATLAB code, the title of the first line of a file is in lower case.
+     */
+    public String title() {
+        return title;
+    }
+
+    /**
+     * Returns the comments on the title, in the order they were added.
+     */
+    public List<String> comments() {
+        return Collections.unmodifiableList(comments);
+    }
+
+    /**
+     * Adds a comment to the end of the comments on the title.
+     */
+    public void addComment(String comment) {
+        comments.add(comment);
+    }
+
+    /**
+     * Adds the comments of the other group to the end of the comments on the
+     * title.
+     */
+    void addComments(TitleComments other) {
+        comments.addAll(other.comments);
+    }
+}
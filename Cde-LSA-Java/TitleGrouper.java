@@ -0,0 +1,230 @@
+package edu.ucla.sspace.lsa;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+import java.nio.channels.FileChannel;
+
+import java.nio.charset.Charset;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Groups the comments of a title and comment file, such as the {@code
+ * IBMFeed_Matlab.dat} written by {@code FormatIBMFeed}, by their titles.  Each
+ * line of the file is split at its double quotes, and the second and fourth
+ * fields are the title and the comment, as in {@code
+ * LSAFunctions.generateDataBase} of the MATLAB code.  The first line holds the
+ * headings of the columns and is skipped, and lines with fewer than four
+ * fields are ignored.  As in the MATLAB code, the title and comment of the
+ * first line after the headings are converted to lower case, which matters to
+ * {@link CommentClassifier}, whose words are counted once for each spelling.
+ *
+ * <p>
+ *
+ * Titles that differ only in case belong to the same group.  Groups are
+ * returned in the order their titles first appear, and the comments of a group
+ * in the order of the file, which is the grouping made by the MATLAB code.
+ * Rather than comparing each title with the title of every group, the groups
+ * are found with a hash table keyed by the lower-case title, so grouping takes
+ * time linear in the size of the file.
+ *
+ * <p>
+ *
+ * Uncompressed files may be grouped by several threads.  As in {@link
+ * MappedFeedReader}, the file is memory-mapped and divided into regions, here
+ * at line boundaries.  Each region is grouped separately, and the groups of
+ * the regions are then merged in the order of the file, which gives the same
+ * groups as reading the file in one pass.
+ */
+public class TitleGrouper {
+
+    /**
+     * Uninstantiable
+     */
+    private TitleGrouper() { }
+
+    /**
+     * Groups the comments of the file, using all available processors.
+     */
+    public static List<TitleComments> group(File file) throws IOException {
+        return group(file, ParallelTasks.defaultThreads());
+    }
+
+    /**
+     * Groups the comments of the file with up to {@code numThreads} threads.
+     * The file is read with the platform's default character set, which must
+     * encode line feeds as single bytes.
+     */
+    public static List<TitleComments> group(File file, int numThreads)
+            throws IOException {
+        final Charset charset = Charset.defaultCharset();
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            final long[] offsets =
+                MappedFeedReader.regionOffsets(channel.size(), numThreads);
+            final long[] starts = new long[offsets.length];
+            starts[0] = 0;
+            for (int i = 1; i < offsets.length; ++i) {
+                starts[i] = (i + 1 == offsets.length)
+                    ? offsets[i]
+                    : lineStart(channel, offsets[i]);
+            }
+
+            List<Callable<Map<String,TitleComments>>> tasks =
+                new ArrayList<Callable<Map<String,TitleComments>>>();
+            for (int i = 0; i + 1 < starts.length; ++i) {
+                final int region = i;
+                tasks.add(new Callable<Map<String,TitleComments>>() {
+                        public Map<String,TitleComments> call()
+                                throws IOException {
+                            Map<String,TitleComments> groups =
+                                new LinkedHashMap<String,TitleComments>();
+                            long start = starts[region];
+                            long end = starts[region + 1];
+                            if (start >= end)
+                                return groups;
+                            if (end - start > Integer.MAX_VALUE)
+                                throw new IOException(
+                                    "the lines at offset " + start +
+                                    " are too large to map");
+                            ByteBuffer bytes = channel.map(
+                                FileChannel.MapMode.READ_ONLY,
+                                start, end - start);
+                            groupLines(charset.decode(bytes), region == 0,
+                                       groups);
+                            return groups;
+                        }
+                    });
+            }
+
+            // Merging the groups of the regions in order keeps both the
+            // order of the groups and the order of their comments
+            Map<String,TitleComments> groups =
+                new LinkedHashMap<String,TitleComments>();
+            for (Map<String,TitleComments> regionGroups :
+                     ParallelTasks.invokeAll(tasks, numThreads)) {
+                for (Map.Entry<String,TitleComments> e :
+                         regionGroups.entrySet()) {
+                    TitleComments group = groups.get(e.getKey());
+                    if (group == null)
+                        groups.put(e.getKey(), e.getValue());
+                    else
+                        group.addComments(e.getValue());
+                }
+            }
+            return new ArrayList<TitleComments>(groups.values());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Groups the comments of the lines read from the reader, and then closes
+     * it.
+     */
+    public static List<TitleComments> group(BufferedReader reader)
+            throws IOException {
+        Map<String,TitleComments> groups =
+            new LinkedHashMap<String,TitleComments>();
+        try {
+            // skip the headings
+            String line = reader.readLine();
+            boolean first = true;
+            while ((line = reader.readLine()) != null) {
+                addLine(line, first, groups);
+                first = false;
+            }
+        } finally {
+            reader.close();
+        }
+        return new ArrayList<TitleComments>(groups.values());
+    }
+
+    /**
+     * Adds the comment of each line of the text to its group.  If {@code
+     * isFileStart} is {@code true}, the text starts the file, so its first
+     * line is skipped and its second is converted to lower case.
+     */
+    private static void groupLines(CharBuffer text, boolean isFileStart,
+                                   Map<String,TitleComments> groups) {
+        int length = text.length();
+        int start = 0;
+        int line = (isFileStart) ? 0 : 2;
+        while (start < length) {
+            int end = start;
+            while (end < length && text.charAt(end) != '\n')
+                end++;
+            if (line > 0) {
+                int lineEnd = end;
+                if (lineEnd > start && text.charAt(lineEnd - 1) == '\r')
+                    lineEnd--;
+                addLine(text.subSequence(start, lineEnd).toString(),
+                        line == 1, groups);
+            }
+            line++;
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Adds the comment of the line to the group of its title, if the line has
+     * at least four fields, converting both to lower case if {@code
+     * lowerCase} is {@code true}.
+     */
+    private static void addLine(String line, boolean lowerCase,
+                                Map<String,TitleComments> groups) {
+        int first = line.indexOf('"');
+        int second = (first < 0) ? -1 : line.indexOf('"', first + 1);
+        int third = (second < 0) ? -1 : line.indexOf('"', second + 1);
+        if (third < 0)
+            return;
+        int fourth = line.indexOf('"', third + 1);
+        String title = line.substring(first + 1, second);
+        String comment = line.substring(third + 1,
+                                        (fourth < 0) ? line.length() : fourth);
+        String key = title.toLowerCase(Locale.ENGLISH);
+        if (lowerCase) {
+            title = key;
+            comment = comment.toLowerCase(Locale.ENGLISH);
+        }
+        TitleComments group = groups.get(key);
+        if (group == null) {
+            group = new TitleComments(title);
+            groups.put(key, group);
+        }
+        group.addComment(comment);
+    }
+
+    /**
+     * Returns the offset of the first line that starts at or after {@code
+     * offset}, or the size of the file if there is none.
+     */
+    static long lineStart(FileChannel channel, long offset)
+            throws IOException {
+        long size = channel.size();
+        if (offset == 0)
+            return 0;
+        ByteBuffer bytes = channel.map(
+            FileChannel.MapMode.READ_ONLY, offset - 1,
+            Math.min(size - offset + 1, Integer.MAX_VALUE));
+        int limit = bytes.limit();
+        for (int i = 0; i < limit; ++i) {
+            if (bytes.get(i) == '\n')
+                return offset + i;
+        }
+        return size;
+    }
+}
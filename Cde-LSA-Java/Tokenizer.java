@@ -0,0 +1,286 @@
+package edu.ucla.sspace.lsa;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A tokenizer that splits text on whitespace, removes every character of a
+ * token that is not a letter, a digit or an underscore, and makes the rest
+ * lower case.  This replaces splitting each line with {@code
+ * String.split("\\s")} and cleaning each word with {@code
+ * replaceAll("\\W", "")} and {@code toLowerCase()}, without compiling a
+ * regular expression or creating any strings for the words it has already
+ * seen.
+ *
+ * <p>
+ *
+ * Characters are scanned one at a time and the kept characters of the current
+ * token are lower-cased into a reusable buffer.  ASCII characters are
+ * classified by table lookup; other characters fall back to {@link Character},
+ * so that letters outside of ASCII are kept and lower-cased rather than
+ * removed.  Tokens left empty by the cleaning are skipped.
+ *
+ * <p>
+ *
+ * {@link #term()} looks the token up by its characters in a table of the terms
+ * already returned, so a {@code String} is only created the first time a term
+ * is seen.  This class is not thread-safe; each thread should use its own
+ * instance.
+ */
+public class Tokenizer {
+
+    /**
+     * The class of a character that separates tokens
+     */
+    private static final byte SEPARATOR = 0;
+
+    /**
+     * The class of a character that is removed from tokens
+     */
+    private static final byte REMOVED = 1;
+
+    /**
+     * The class of a character that is kept as it is
+     */
+    private static final byte KEPT = 2;
+
+    /**
+     * The class of an upper case ASCII letter
+     */
+    private static final byte UPPER = 3;
+
+    /**
+     * The class of each ASCII character.  The separators are the characters
+     * matched by the {@code \s} regular expression.
+     */
+    private static final byte[] ASCII_CLASSES = new byte[128];
+
+    static {
+        for (int c = 0; c < 128; ++c) {
+            if (c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c == '_')
+                ASCII_CLASSES[c] = KEPT;
+            else if (c >= 'A' && c <= 'Z')
+                ASCII_CLASSES[c] = UPPER;
+            else if (c == ' ' || c == '\t' || c == '\n' || c == '\u000B' ||
+                     c == '\f' || c == '\r')
+                ASCII_CLASSES[c] = SEPARATOR;
+            else
+                ASCII_CLASSES[c] = REMOVED;
+        }
+    }
+
+    /**
+     * The number of characters read from a {@code Reader} at a time
+     */
+    private static final int READ_SIZE = 8192;
+
+    /**
+     * The largest number of terms kept in the table of seen terms.  Once the
+     * table is full, the strings for new terms are created each time.
+     */
+    private static final int MAX_CACHED_TERMS = 1 << 18;
+
+    /**
+     * The characters being tokenized
+     */
+    private char[] input;
+
+    /**
+     * The position of the next character to scan in {@link #input}
+     */
+    private int position;
+
+    /**
+     * The number of valid characters in {@link #input}
+     */
+    private int limit;
+
+    /**
+     * The reader from which more input is read, or {@code null} if all of the
+     * input is already in {@link #input}
+     */
+    private Reader reader;
+
+    /**
+     * The cleaned characters of the current token
+     */
+    private char[] token;
+
+    /**
+     * The number of characters in the current token
+     */
+    private int length;
+
+    /**
+     * The {@link String#hashCode()} of the current token
+     */
+    private int hash;
+
+    /**
+     * An open-addressed table of the terms already returned
+     */
+    private String[] terms;
+
+    /**
+     * The hash codes of the terms in {@link #terms}
+     */
+    private int[] termHashes;
+
+    /**
+     * The number of terms in {@link #terms}
+     */
+    private int numTerms;
+
+    /**
+     * Creates a tokenizer with no input.
+     */
+    public Tokenizer() {
+        input = new char[READ_SIZE];
+        position = 0;
+        limit = 0;
+        reader = null;
+        token = new char[32];
+        length = 0;
+        terms = new String[1024];
+        termHashes = new int[1024];
+        numTerms = 0;
+    }
+
+    /**
+     * Starts tokenizing the provided text.
+     */
+    public void reset(String text) {
+        if (text.length() > input.length)
+            input = new char[text.length()];
+        text.getChars(0, text.length(), input, 0);
+        position = 0;
+        limit = text.length();
+        reader = null;
+    }
+
+    /**
+     * Starts tokenizing the text of the reader, which is read in blocks as it
+     * is needed.  The reader is not closed.
+     */
+    public void reset(Reader reader) {
+        position = 0;
+        limit = 0;
+        this.reader = reader;
+    }
+
+    /**
+     * Advances to the next token and returns {@code true}, or returns {@code
+     * false} if there are no more tokens.
+     */
+    public boolean next() throws IOException {
+        length = 0;
+        hash = 0;
+        while (true) {
+            if (position == limit && !fill())
+                return length > 0;
+            char c = input[position++];
+            byte type = (c < 128) ? ASCII_CLASSES[c] : classify(c);
+            if (type == SEPARATOR) {
+                if (length > 0)
+                    return true;
+                continue;
+            }
+            if (type == REMOVED)
+                continue;
+            if (type == UPPER)
+                c += 'a' - 'A';
+            else if (c >= 128)
+                c = Character.toLowerCase(c);
+            if (length == token.length) {
+                char[] larger = new char[token.length * 2];
+                System.arraycopy(token, 0, larger, 0, length);
+                token = larger;
+            }
+            token[length++] = c;
+            hash = 31 * hash + c;
+        }
+    }
+
+    /**
+     * Returns the class of a character outside of ASCII.
+     */
+    private static byte classify(char c) {
+        if (Character.isWhitespace(c) || Character.isSpaceChar(c))
+            return SEPARATOR;
+        return (Character.isLetterOrDigit(c)) ? KEPT : REMOVED;
+    }
+
+    /**
+     * Reads the next block of input, returning {@code false} if there is none.
+     */
+    private boolean fill() throws IOException {
+        if (reader == null)
+            return false;
+        if (input.length < READ_SIZE)
+            input = new char[READ_SIZE];
+        int read = reader.read(input, 0, READ_SIZE);
+        if (read <= 0)
+            return false;
+        position = 0;
+        limit = read;
+        return true;
+    }
+
+    /**
+     * Returns the current token.  The same {@code String} instance is returned
+     * each time a term is seen, as long as the table of seen terms is not full.
+     */
+    public String term() {
+        int mask = terms.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        String term;
+        while ((term = terms[slot]) != null) {
+            if (termHashes[slot] == hash && matches(term))
+                return term;
+            slot = (slot + 1) & mask;
+        }
+        term = new String(token, 0, length);
+        if (numTerms < MAX_CACHED_TERMS) {
+            terms[slot] = term;
+            termHashes[slot] = hash;
+            // Keep the table at most half full
+            if (++numTerms * 2 > terms.length)
+                rehash();
+        }
+        return term;
+    }
+
+    /**
+     * Returns whether the term has the same characters as the current token.
+     */
+    private boolean matches(String term) {
+        if (term.length() != length)
+            return false;
+        for (int i = 0; i < length; ++i) {
+            if (term.charAt(i) != token[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Doubles the size of the table of seen terms.
+     */
+    private void rehash() {
+        String[] oldTerms = terms;
+        int[] oldHashes = termHashes;
+        terms = new String[oldTerms.length * 2];
+        termHashes = new int[oldTerms.length * 2];
+        int mask = terms.length - 1;
+        for (int i = 0; i < oldTerms.length; ++i) {
+            if (oldTerms[i] == null)
+                continue;
+            int h = oldHashes[i];
+            int slot = (h ^ (h >>> 16)) & mask;
+            while (terms[slot] != null)
+                slot = (slot + 1) & mask;
+            terms[slot] = oldTerms[i];
+            termHashes[slot] = h;
+        }
+    }
+}
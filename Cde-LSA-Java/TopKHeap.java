@@ -0,0 +1,166 @@
+package edu.ucla.sspace.lsa;
+
+/**
+ * A bounded collection of the {@code k} highest scoring items, where each item
+ * is identified by an {@code int}.  The items are kept in a binary min-heap of
+ * primitive arrays, so offering an item costs {@code O(log k)} time at most
+ * and creates no objects, and an item that scores no higher than the current
+ * minimum is rejected with a single comparison.
+ *
+ * <p>
+ *
+ * Once all items have been offered, {@link #sort()} orders them by decreasing
+ * score for use with {@link #getId(int)} and {@link #getScore(int)}.  This
+ * class is not thread-safe.
+ */
+public class TopKHeap {
+
+    private final int[] ids;
+
+    private final double[] scores;
+
+    private int size;
+
+    private boolean sorted;
+
+    /**
+     * Creates a heap that keeps at most {@code capacity} items.
+     *
+     * @throws IllegalArgumentException if {@code capacity} is negative
+     */
+    public TopKHeap(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException(
+                "capacity must not be negative: " + capacity);
+        ids = new int[capacity];
+        scores = new double[capacity];
+        size = 0;
+        sorted = false;
+    }
+
+    /**
+     * Offers the item, keeping it if it is among the {@code k} highest scoring
+     * items offered so far, and returns whether it was kept.  Items with a
+     * score of {@code NaN} are never kept.
+     *
+     * @throws IllegalStateException if the heap has already been sorted
+     */
+    public boolean offer(int id, double score) {
+        if (sorted)
+            throw new IllegalStateException("heap has already been sorted");
+        if (size < ids.length) {
+            if (score != score)
+                return false;
+            // Sift the new item up from the bottom of the heap
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (scores[parent] <= score)
+                    break;
+                ids[i] = ids[parent];
+                scores[i] = scores[parent];
+                i = parent;
+            }
+            ids[i] = id;
+            scores[i] = score;
+            return true;
+        }
+        if (size == 0 || !(score > scores[0]))
+            return false;
+        siftDown(id, score, size);
+        return true;
+    }
+
+    /**
+     * Replaces the minimum item with the provided one and restores the heap
+     * order over the first {@code n} items.
+     */
+    private void siftDown(int id, double score, int n) {
+        int i = 0;
+        int half = n >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < n && scores[right] < scores[child])
+                child = right;
+            if (score <= scores[child])
+                break;
+            ids[i] = ids[child];
+            scores[i] = scores[child];
+            i = child;
+        }
+        ids[i] = id;
+        scores[i] = score;
+    }
+
+    /**
+     * Returns the lowest score that an item must exceed to be kept, which is
+     * {@link Double#NEGATIVE_INFINITY} until the heap is full.
+     */
+    public double threshold() {
+        return (size < ids.length || size == 0)
+            ? Double.NEGATIVE_INFINITY
+            : scores[0];
+    }
+
+    /**
+     * Orders the kept items by decreasing score.  No further items may be
+     * offered once the heap has been sorted.
+     */
+    public void sort() {
+        if (sorted)
+            return;
+        // Repeatedly move the minimum to the end of the heap, which leaves the
+        // array in decreasing order
+        for (int n = size - 1; n > 0; --n) {
+            int id = ids[n];
+            double score = scores[n];
+            ids[n] = ids[0];
+            scores[n] = scores[0];
+            siftDown(id, score, n);
+        }
+        sorted = true;
+    }
+
+    /**
+     * Returns the number of items kept.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the maximum number of items that can be kept.
+     */
+    public int capacity() {
+        return ids.length;
+    }
+
+    /**
+     * Returns the identifier of the item with the {@code i}th highest score.
+     *
+     * @throws IllegalStateException if the heap has not been sorted
+     */
+    public int getId(int i) {
+        checkSorted(i);
+        return ids[i];
+    }
+
+    /**
+     * Returns the {@code i}th highest score.
+     *
+     * @throws IllegalStateException if the heap has not been sorted
+     */
+    public double getScore(int i) {
+        checkSorted(i);
+        return scores[i];
+    }
+
+    private void checkSorted(int i) {
+        if (!sorted)
+            throw new IllegalStateException("heap has not been sorted");
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException(
+                "index " + i + " is not in [0, " + size + ")");
+    }
+}
@@ -0,0 +1,114 @@
+package edu.ucla.sspace.lsa;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the comments of the bundled feeds and builds term-document matrices of
+ * their raw term counts for the checks and benchmarks in this directory.  Two
+ * kinds of file are read: title and comment files such as {@code
+ * IBMFeed_Matlab.dat}, whose lines start with a double quote and are read by
+ * {@link TitleGrouper}, and raw feeds such as {@code Many eyes comments.dat},
+ * which are read by {@link FeedParser}.
+ */
+class FeedMatrices {
+
+    /**
+     * Uninstantiable
+     */
+    private FeedMatrices() { }
+
+    /**
+     * Returns the comments of each of the files, in the order of the files.
+     */
+    static List<String> comments(String[] files) throws IOException {
+        final List<String> comments = new ArrayList<String>();
+        for (String name : files) {
+            File file = new File(name);
+            if (isTitleCommentFile(file)) {
+                for (TitleComments group :
+                         TitleGrouper.group(FeedParser.open(file)))
+                    comments.addAll(group.comments());
+            }
+            else {
+                new FeedParser(FeedParser.open(file)).parse(
+                    new FeedParser.RecordHandler() {
+                        public void handle(String title, String comment) {
+                            comments.add(comment);
+                        }
+                    });
+            }
+        }
+        return comments;
+    }
+
+    /**
+     * Returns whether the file is a title and comment file, whose first line
+     * starts with a double quote.
+     */
+    private static boolean isTitleCommentFile(File file) throws IOException {
+        BufferedReader reader = FeedParser.open(file);
+        try {
+            String line = reader.readLine();
+            return line != null && line.startsWith("\"");
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Returns the matrix of the raw counts of the terms of each document.
+     * Documents with no terms are left out.  The terms are indexed in the
+     * order they are first seen.
+     */
+    static SparseTermDocumentMatrix countMatrix(List<String> documents)
+            throws IOException {
+        TermDictionary dictionary = new TermDictionary();
+        Tokenizer tokenizer = new Tokenizer();
+        TermDocumentSegment segment = new TermDocumentSegment();
+        Map<Integer,Integer> counts = new LinkedHashMap<Integer,Integer>();
+        int numDocs = 0;
+        for (String document : documents) {
+            counts.clear();
+            tokenizer.reset(document);
+            while (tokenizer.next()) {
+                Integer term =
+                    Integer.valueOf(dictionary.index(tokenizer.term()));
+                Integer count = counts.get(term);
+                counts.put(term, (count == null) ? 1 : count.intValue() + 1);
+            }
+            if (counts.isEmpty())
+                continue;
+            numDocs++;
+            for (Map.Entry<Integer,Integer> e : counts.entrySet())
+                segment.add(e.getKey().intValue(), numDocs,
+                            e.getValue().intValue());
+        }
+        return SparseTermDocumentMatrix.fromSegments(
+            dictionary.size(), numDocs, Collections.singletonList(segment));
+    }
+
+    /**
+     * Returns the matrix as a row-major dense array.
+     */
+    static double[] toDense(SparseTermDocumentMatrix matrix) {
+        int rows = matrix.rows();
+        int cols = matrix.columns();
+        int[] columnStarts = matrix.columnStarts();
+        int[] rowIndices = matrix.rowIndices();
+        float[] values = matrix.values();
+        double[] dense = new double[rows * cols];
+        for (int col = 0; col < cols; ++col) {
+            for (int i = columnStarts[col]; i < columnStarts[col + 1]; ++i)
+                dense[rowIndices[i] * cols + col] = values[i];
+        }
+        return dense;
+    }
+}
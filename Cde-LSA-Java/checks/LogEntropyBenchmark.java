@@ -0,0 +1,271 @@
+package edu.ucla.sspace.lsa;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static edu.ucla.sspace.common.Statistics.log2;
+import static edu.ucla.sspace.common.Statistics.log2_1p;
+
+/**
+ * Compares {@link LogEntropyTransformer} with the transformer it replaced,
+ * which read the matrix three times and kept its statistics in hash maps.
+ * The old transformer is kept here as {@link #oldTransform(File,File)
+ * oldTransform}.
+ *
+ * <p>
+ *
+ * The input is a matrix of random term counts with the requested number of
+ * non-zero entries, 10 million by default.  Each document has 100 distinct
+ * terms drawn from a vocabulary of 200,000 terms whose frequencies follow
+ * Zipf's law, and each count is 1 plus a geometrically distributed number, so
+ * most counts are 1 as in real documents.  The seed is fixed, so every run
+ * transforms the same matrix.
+ *
+ * <p>
+ *
+ * The old transform and the new transform with one thread and with the
+ * requested number of threads are each timed, and the fastest of three runs
+ * is printed.  The output of each new transform is then compared entry by
+ * entry with the output of the old one, and the number of bit-identical
+ * entries and the largest differences are printed.  The new transform
+ * computes the entropy of a term from the sum of {@code count * log2(count)}
+ * rather than the sum of {@code p * log2(p)}, and with several threads adds
+ * the partial sums of the threads together, so its weights may differ from
+ * the old ones in the last bits.
+ */
+public class LogEntropyBenchmark {
+
+    /**
+     * The number of distinct terms in each document
+     */
+    private static final int TERMS_PER_DOCUMENT = 100;
+
+    /**
+     * The number of terms in the vocabulary
+     */
+    private static final int VOCABULARY = 200000;
+
+    /**
+     * The number of times each transform is run
+     */
+    private static final int RUNS = 3;
+
+    /**
+     * Uninstantiable
+     */
+    private LogEntropyBenchmark() { }
+
+    public static void main(String[] args) throws IOException {
+        long nonZeros = (args.length > 0)
+            ? Long.parseLong(args[0])
+            : 10000000L;
+        int numThreads = (args.length > 1)
+            ? Integer.parseInt(args[1])
+            : Math.max(2, ParallelTasks.defaultThreads());
+
+        File input = File.createTempFile("log-entropy-benchmark", ".dat");
+        File oldOutput = File.createTempFile("log-entropy-old", ".dat");
+        File newOutput = File.createTempFile("log-entropy-new", ".dat");
+        try {
+            writeCounts(input, nonZeros);
+            System.out.println("input: " + nonZeros + " non-zeros, " +
+                               input.length() + " bytes");
+
+            long best = Long.MAX_VALUE;
+            for (int run = 0; run < RUNS; ++run) {
+                long start = System.nanoTime();
+                oldTransform(input, oldOutput);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            System.out.printf("old:               %8.0f ms%n", best / 1e6);
+
+            for (int threads : new int[] { 1, numThreads }) {
+                best = Long.MAX_VALUE;
+                for (int run = 0; run < RUNS; ++run) {
+                    long start = System.nanoTime();
+                    new LogEntropyTransformer().transform(
+                        input, newOutput, threads);
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                System.out.printf("new, %2d thread(s): %8.0f ms   ",
+                                  threads, best / 1e6);
+                compare(oldOutput, newOutput);
+            }
+        } finally {
+            input.delete();
+            oldOutput.delete();
+            newOutput.delete();
+        }
+    }
+
+    /**
+     * Writes a matrix of random term counts with the provided number of
+     * non-zero entries to the file.
+     */
+    private static void writeCounts(File file, long nonZeros)
+            throws IOException {
+        // The cumulative Zipf distribution of the terms, which is sampled by
+        // binary search
+        double[] cumulative = new double[VOCABULARY];
+        double sum = 0;
+        for (int i = 0; i < VOCABULARY; ++i) {
+            sum += 1.0 / (i + 1);
+            cumulative[i] = sum;
+        }
+
+        Random random = new Random(1);
+        boolean[] inDocument = new boolean[VOCABULARY + 1];
+        int[] terms = new int[TERMS_PER_DOCUMENT];
+        TermDocumentMatrixWriter writer = new TermDocumentMatrixWriter(file);
+        long written = 0;
+        for (int doc = 1; written < nonZeros; ++doc) {
+            int size = (int)Math.min(TERMS_PER_DOCUMENT, nonZeros - written);
+            for (int i = 0; i < size; ++i) {
+                int term;
+                do {
+                    int slot = Arrays.binarySearch(
+                        cumulative, random.nextDouble() * sum);
+                    term = ((slot < 0) ? -slot - 1 : slot) + 1;
+                } while (inDocument[term]);
+                inDocument[term] = true;
+                terms[i] = term;
+                int count = 1;
+                while (random.nextInt(3) == 0)
+                    count++;
+                writer.write(term, doc, count);
+            }
+            for (int i = 0; i < size; ++i)
+                inDocument[terms[i]] = false;
+            written += size;
+        }
+        writer.close();
+    }
+
+    /**
+     * Prints the number of entries of the new output that are bit-identical
+     * to those of the old output, and the largest difference between the two
+     * in units in the last place and relative to the old entry.
+     *
+     * @throws IllegalStateException if the outputs do not have the same
+     *         entries in the same order
+     */
+    private static void compare(File oldOutput, File newOutput)
+            throws IOException {
+        TermDocumentMatrixReader oldReader =
+            new TermDocumentMatrixReader(oldOutput);
+        TermDocumentMatrixReader newReader =
+            new TermDocumentMatrixReader(newOutput);
+        long entries = 0;
+        long identical = 0;
+        long maxUlps = 0;
+        double maxRelative = 0;
+        while (oldReader.next()) {
+            if (!newReader.next() ||
+                    oldReader.term() != newReader.term() ||
+                    oldReader.document() != newReader.document())
+                throw new IllegalStateException(
+                    "the outputs differ at entry " + entries);
+            float oldValue = oldReader.value();
+            float newValue = newReader.value();
+            entries++;
+            if (Float.floatToIntBits(oldValue) ==
+                    Float.floatToIntBits(newValue)) {
+                identical++;
+                continue;
+            }
+            maxUlps = Math.max(maxUlps, Math.abs(
+                (long)Float.floatToIntBits(oldValue) -
+                Float.floatToIntBits(newValue)));
+            if (oldValue != 0)
+                maxRelative = Math.max(maxRelative,
+                    Math.abs((newValue - oldValue) / oldValue));
+        }
+        if (newReader.next())
+            throw new IllegalStateException("the new output has more entries");
+        oldReader.close();
+        newReader.close();
+        System.out.printf("%d of %d identical, max %d ulps, max rel %.2e%n",
+                          identical, entries, maxUlps, maxRelative);
+    }
+
+    /**
+     * Transforms the matrix as {@code LogEntropyTransformer} did before its
+     * statistics were kept in arrays.  This is the old {@code transform}
+     * method, unchanged apart from its logging
+     * and unused variables.
+     */
+    static void oldTransform(File input, File output) throws IOException {
+
+        int numDocs = 0;
+
+        Map<Integer,Integer> termToGlobalCount = new HashMap<Integer,Integer>();
+
+        // calculate how many terms were in each document for the original
+        // term-document matrix
+        TermDocumentMatrixReader reader = new TermDocumentMatrixReader(input);
+        while (reader.next()) {
+            Integer term  = Integer.valueOf(reader.term());
+            int doc   = reader.document();
+            Integer count = Integer.valueOf((int)reader.value());
+
+            if (doc > numDocs)
+                numDocs = doc;
+
+            Integer termGlobalCount = termToGlobalCount.get(term);
+            termToGlobalCount.put(term, (termGlobalCount == null)
+                                  ? count
+                                  : termGlobalCount + count);
+        }
+
+        reader.close();
+
+        Map<Integer,Double> termToEntropySum = new HashMap<Integer,Double>();
+
+        // now go through and find the probability that the term appears in the
+        // document given how many terms it has to begin with
+        reader = new TermDocumentMatrixReader(input);
+        while (reader.next()) {
+            Integer term  = Integer.valueOf(reader.term());
+            Integer doc   = Integer.valueOf(reader.document());
+            Integer count = Integer.valueOf((int)reader.value());
+
+            double probability = count.doubleValue() /
+                termToGlobalCount.get(term).doubleValue();
+
+            double d = (probability * log2(probability));
+
+            // NOTE: keep the entropy sum a positive value
+            Double entropySum = termToEntropySum.get(term);
+            termToEntropySum.put(term, (entropySum == null)
+                                 ? d : entropySum + d);
+        }
+        reader.close();
+
+        TermDocumentMatrixWriter writer = new TermDocumentMatrixWriter(output);
+
+        // Last, rewrite the original matrix using the log-entropy
+        // transformation describe on page 17 of Landauer et al. "An
+        // Introduction to Latent Semantic Analysis"
+        reader = new TermDocumentMatrixReader(input);
+        while (reader.next()) {
+            Integer term  = Integer.valueOf(reader.term());
+            Integer doc   = Integer.valueOf(reader.document());
+            Integer count = Integer.valueOf((int)reader.value());
+
+            double log = log2_1p(count);
+
+            double entropySum = termToEntropySum.get(term).doubleValue();
+            double entropy = 1 + (entropySum / log2(numDocs));
+
+            // now write out the noralized values
+            writer.write(term, doc, (float)(log * entropy));
+        }
+        reader.close();
+        writer.close();
+    }
+}
@@ -0,0 +1,195 @@
+package edu.ucla.sspace.lsa;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import edu.ucla.sspace.matrix.Matrix;
+
+/**
+ * Checks the accuracy of {@link RandomizedSVD} against an exact decomposition
+ * computed with {@link JacobiSVD}.  The term-document matrix is built from the
+ * comments of the feeds given on the command line, such as the bundled {@code
+ * IBMFeed_Matlab.dat} and {@code Many eyes comments.dat}, and weighted with
+ * {@link LogEntropyTransformer}, the default transform of {@link
+ * LatentSemanticAnalysis}.
+ *
+ * <p>
+ *
+ * The exact decomposition of the dense {@code m x n} matrix costs {@code O(m *
+ * n^2)} per Jacobi sweep, so by default it is made for an evenly spaced sample
+ * of the documents.  The matrix is first factored as {@code A = Q R} and
+ * {@code R} is decomposed, which gives the singular values of {@code A} and
+ * its singular vectors {@code Q U} and {@code V}.
+ *
+ * <p>
+ *
+ * For each number of power iterations from 0 to 3, and for the default
+ * configuration, the check prints the largest relative error of the {@code k}
+ * singular values, and the largest principal angle between the subspaces
+ * spanned by the leading left and right singular vectors and those of the
+ * exact decomposition, for the leading {@code k/2} and all {@code k}
+ * dimensions.  The angle of all {@code k} dimensions is only meaningful when
+ * {@code s[k-1]} is well separated from {@code s[k]}, so the ratio of the two
+ * is printed too.  The check fails if, in the default configuration, a
+ * singular value is off by more than {@value #MAX_RELATIVE_ERROR} or the
+ * leading {@code k/2} dimensions are more than {@value #MAX_HALF_ANGLE}
+ * degrees apart.
+ */
+public class RandomizedSVDCheck {
+
+    /**
+     * The largest relative error of a singular value that passes the check
+     */
+    private static final double MAX_RELATIVE_ERROR = 0.01;
+
+    /**
+     * The largest angle in degrees between the exact and randomized subspaces
+     * of the leading {@code k/2} dimensions that passes the check
+     */
+    private static final double MAX_HALF_ANGLE = 1.0;
+
+    /**
+     * Uninstantiable
+     */
+    private RandomizedSVDCheck() { }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.out.println(
+                "usage: java RandomizedSVDCheck <dimensions> " +
+                "<documents|all> <feed>...");
+            System.exit(2);
+        }
+        int k = Integer.parseInt(args[0]);
+        List<String> comments = FeedMatrices.comments(
+            Arrays.copyOfRange(args, 2, args.length));
+        List<String> documents = comments;
+        if (!args[1].equals("all")) {
+            int sample = Integer.parseInt(args[1]);
+            if (sample < comments.size()) {
+                documents = new ArrayList<String>(sample);
+                for (int i = 0; i < sample; ++i)
+                    documents.add(comments.get(
+                        (int)((long)i * comments.size() / sample)));
+            }
+        }
+
+        SparseTermDocumentMatrix matrix =
+            FeedMatrices.countMatrix(documents);
+        new LogEntropyTransformer().transform(matrix, 1);
+        int m = matrix.rows();
+        int n = matrix.columns();
+        if (m < n || k >= n) {
+            System.out.println("the matrix is " + m + " x " + n +
+                               "; use fewer dimensions or more documents");
+            System.exit(2);
+        }
+        System.out.println("matrix: " + m + " x " + n + ", " +
+                           matrix.nonZeros() + " non-zeros");
+
+        long start = System.nanoTime();
+        double[] q = FeedMatrices.toDense(matrix);
+        double[] r = DenseMatrices.orthonormalizeColumns(q, m, n);
+        JacobiSVD exact = new JacobiSVD(r, n, n);
+        double[] s = exact.getSingularValues();
+        double[] u = DenseMatrices.multiply(q, m, n, exact.getU(), n);
+        double[] v = exact.getV();
+        r = null;
+        q = null;
+        System.out.printf("exact: %.1f s, s[0] = %.6g, s[k-1] / s[k] = %.4f%n",
+                          (System.nanoTime() - start) / 1e9, s[0],
+                          s[k - 1] / s[k]);
+
+        System.out.println("q   max rel err   left k/2   left k   " +
+                           "right k/2   right k   (degrees)");
+        for (int iterations = 0; iterations <= 3; ++iterations) {
+            Properties props = new Properties();
+            props.setProperty(RandomizedSVD.POWER_ITERATIONS_PROPERTY,
+                              String.valueOf(iterations));
+            print(String.valueOf(iterations),
+                  compare(matrix, k, props, s, u, v));
+        }
+
+        // The default configuration is the one used by LatentSemanticAnalysis
+        double[] errors = compare(matrix, k, new Properties(), s, u, v);
+        print("def", errors);
+        boolean passed = errors[0] <= MAX_RELATIVE_ERROR &&
+            errors[1] <= MAX_HALF_ANGLE && errors[3] <= MAX_HALF_ANGLE;
+        System.out.println((passed) ? "PASSED" : "FAILED");
+        System.exit((passed) ? 0 : 1);
+    }
+
+    /**
+     * Decomposes the matrix with a randomized SVD configured by the properties
+     * and returns the largest relative error of its singular values, and the
+     * largest angles between its left subspaces of {@code k/2} and {@code k}
+     * dimensions and those of the exact decomposition, followed by the same
+     * two angles for its right subspaces.
+     */
+    private static double[] compare(SparseTermDocumentMatrix matrix, int k,
+                                    Properties props, double[] s, double[] u,
+                                    double[] v) {
+        int m = matrix.rows();
+        int n = matrix.columns();
+        props.setProperty(RandomizedSVD.SEED_PROPERTY, "1");
+        Matrix[] usv = new RandomizedSVD(props).svd(matrix, k);
+
+        double maxError = 0;
+        for (int i = 0; i < k; ++i)
+            maxError = Math.max(
+                maxError, Math.abs(usv[1].get(i, i) - s[i]) / s[i]);
+        double[] left = new double[m * k];
+        for (int i = 0; i < m; ++i)
+            for (int j = 0; j < k; ++j)
+                left[i * k + j] = usv[0].get(i, j);
+        double[] right = new double[n * k];
+        for (int i = 0; i < n; ++i)
+            for (int j = 0; j < k; ++j)
+                right[i * k + j] = usv[2].get(j, i);
+        return new double[] {
+            maxError,
+            largestAngle(left, k, u, n, m, k / 2),
+            largestAngle(left, k, u, n, m, k),
+            largestAngle(right, k, v, n, n, k / 2),
+            largestAngle(right, k, v, n, n, k)
+        };
+    }
+
+    /**
+     * Prints a row of the table of errors.
+     */
+    private static void print(String label, double[] errors) {
+        System.out.printf("%-3s %11.3e   %8.4f   %6.3f   %9.4f   %7.3f%n",
+                          label, errors[0], errors[1], errors[2], errors[3],
+                          errors[4]);
+    }
+
+    /**
+     * Returns the largest principal angle, in degrees, between the subspaces
+     * spanned by the first {@code dims} columns of the row-major {@code rows x
+     * aCols} matrix {@code a} and of the {@code rows x bCols} matrix {@code
+     * b}, both of whose columns are orthonormal.  The cosines of the angles
+     * are the singular values of {@code a' b}.
+     */
+    private static double largestAngle(double[] a, int aCols, double[] b,
+                                       int bCols, int rows, int dims) {
+        double[] product = new double[dims * dims];
+        for (int i = 0; i < rows; ++i) {
+            for (int x = 0; x < dims; ++x) {
+                double value = a[i * aCols + x];
+                if (value == 0)
+                    continue;
+                for (int y = 0; y < dims; ++y)
+                    product[x * dims + y] += value * b[i * bCols + y];
+            }
+        }
+        double[] cosines =
+            new JacobiSVD(product, dims, dims).getSingularValues();
+        double smallest = Math.min(1, cosines[dims - 1]);
+        return Math.toDegrees(Math.acos(smallest));
+    }
+}
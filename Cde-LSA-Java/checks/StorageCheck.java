@@ -0,0 +1,227 @@
+package edu.ucla.sspace.lsa;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Checks how much storing a semantic space as {@code float}s or quantized
+ * bytes changes its nearest neighbors.  A {@link LatentSemanticAnalysis} space
+ * is built from the comments of the feeds given on the command line, such as
+ * the bundled {@code IBMFeed_Matlab.dat} and {@code Many eyes comments.dat},
+ * once for each {@link ElementType} of {@value
+ * LatentSemanticAnalysis#LSA_STORAGE_PROPERTY}.  Every space is decomposed by
+ * a {@link RandomizedSVD} with the same seed, so the spaces differ only in the
+ * precision with which their vectors are stored.
+ *
+ * <p>
+ *
+ * For the {@code FLOAT} and {@code INT8} spaces, the check prints the mean
+ * fraction of the {@code k} nearest documents of each document, found by
+ * {@link LatentSemanticAnalysis#findSimilarDocuments(int,int)
+ * findSimilarDocuments}, that are also among its {@code k} nearest documents
+ * in the {@code DOUBLE} space, and the fraction of documents whose nearest
+ * document is the same.  Neighbors exactly as similar as the last or first
+ * exact neighbor are counted as the same.  The same is printed for the
+ * nearest words of each word, compared by the cosine similarity of their
+ * vectors.  The check fails if a mean overlap is below {@value
+ * #MIN_FLOAT_OVERLAP} for {@code FLOAT} or below {@value #MIN_INT8_OVERLAP}
+ * for {@code INT8}.
+ */
+public class StorageCheck {
+
+    /**
+     * The smallest mean neighbor overlap of the {@code FLOAT} space that
+     * passes the check
+     */
+    private static final double MIN_FLOAT_OVERLAP = 0.99;
+
+    /**
+     * The smallest mean neighbor overlap of the {@code INT8} space that passes
+     * the check
+     */
+    private static final double MIN_INT8_OVERLAP = 0.9;
+
+    /**
+     * The largest difference in exact similarity of two neighbors that are
+     * counted as tied
+     */
+    private static final double TIE_TOLERANCE = 1e-9;
+
+    /**
+     * The exact similarities of the queries and their neighbors.
+     */
+    interface Similarity {
+
+        /**
+         * Returns the similarity of the neighbor to the query in the {@code
+         * DOUBLE} space.
+         */
+        double similarity(int query, int neighbor);
+    }
+
+    /**
+     * Uninstantiable
+     */
+    private StorageCheck() { }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.out.println(
+                "usage: java StorageCheck <dimensions> <k> <feed>...");
+            System.exit(2);
+        }
+        String dimensions = args[0];
+        int k = Integer.parseInt(args[1]);
+        List<String> comments = FeedMatrices.comments(
+            Arrays.copyOfRange(args, 2, args.length));
+
+        final LatentSemanticAnalysis exact =
+            build(comments, dimensions, ElementType.DOUBLE);
+        List<String> words = new ArrayList<String>(exact.getWords());
+        Collections.sort(words);
+        final int numDocs = exact.getDocumentCount();
+        System.out.println(numDocs + " documents, " + words.size() +
+                           " words, " + dimensions + " dimensions, k = " + k);
+        TopKHeap[] exactDocs = documentNeighbors(exact, k);
+        TopKHeap[] exactWords = wordNeighbors(exact, words, k);
+
+        // Documents are compared as findSimilarDocuments compares them, so
+        // all of the query's similarities are found at once
+        Similarity docSimilarity = new Similarity() {
+                private int query = -1;
+                private final double[] scores = new double[numDocs];
+                public double similarity(int query, int neighbor) {
+                    if (query != this.query) {
+                        TopKHeap all =
+                            exact.findSimilarDocuments(query, numDocs);
+                        for (int i = 0; i < all.size(); ++i)
+                            scores[all.getId(i)] = all.getScore(i);
+                        this.query = query;
+                    }
+                    return scores[neighbor];
+                }
+            };
+        final CompactMatrix wordVectors =
+            new CompactMatrix(words.size(), exact.getVectorSize(),
+                              ElementType.DOUBLE);
+        for (int i = 0; i < words.size(); ++i)
+            wordVectors.setRow(i, exact.getVectorFor(words.get(i)));
+        wordVectors.normalizeRows();
+        Similarity wordSimilarity = new Similarity() {
+                public double similarity(int query, int neighbor) {
+                    return wordVectors.dot(query, neighbor);
+                }
+            };
+
+        System.out.println("storage   documents: overlap   top 1   " +
+                           "words: overlap   top 1");
+        boolean passed = true;
+        for (ElementType type :
+                 new ElementType[] { ElementType.FLOAT, ElementType.INT8 }) {
+            LatentSemanticAnalysis space = build(comments, dimensions, type);
+            double[] docs = overlap(exactDocs, documentNeighbors(space, k),
+                                    docSimilarity);
+            double[] terms = overlap(exactWords,
+                                     wordNeighbors(space, words, k),
+                                     wordSimilarity);
+            System.out.printf("%-7s   %16.4f   %5.4f   %12.4f   %5.4f%n",
+                              type, docs[0], docs[1], terms[0], terms[1]);
+            double min = (type == ElementType.FLOAT)
+                ? MIN_FLOAT_OVERLAP
+                : MIN_INT8_OVERLAP;
+            passed &= docs[0] >= min && terms[0] >= min;
+        }
+        System.out.println((passed) ? "PASSED" : "FAILED");
+        System.exit((passed) ? 0 : 1);
+    }
+
+    /**
+     * Returns the space of the comments stored with the provided precision.
+     */
+    private static LatentSemanticAnalysis build(List<String> comments,
+                                                String dimensions,
+                                                ElementType type)
+            throws IOException {
+        Properties props = new Properties();
+        props.setProperty(LatentSemanticAnalysis.LSA_DIMENSIONS_PROPERTY,
+                          dimensions);
+        props.setProperty(LatentSemanticAnalysis.LSA_SVD_ALGORITHM_PROPERTY,
+                          LatentSemanticAnalysis.RANDOMIZED_SVD);
+        props.setProperty(LatentSemanticAnalysis.LSA_STORAGE_PROPERTY,
+                          type.name());
+        props.setProperty(RandomizedSVD.SEED_PROPERTY, "1");
+        LatentSemanticAnalysis space = new LatentSemanticAnalysis(props);
+        for (String comment : comments)
+            space.processDocument(
+                new BufferedReader(new StringReader(comment)));
+        space.processSpace(props);
+        return space;
+    }
+
+    /**
+     * Returns the {@code k} nearest documents of each document of the space.
+     */
+    private static TopKHeap[] documentNeighbors(LatentSemanticAnalysis space,
+                                                int k) {
+        TopKHeap[] neighbors = new TopKHeap[space.getDocumentCount()];
+        for (int doc = 0; doc < neighbors.length; ++doc)
+            neighbors[doc] = space.findSimilarDocuments(doc, k);
+        return neighbors;
+    }
+
+    /**
+     * Returns the {@code k} nearest words of each of the words, as indices
+     * into the list.  The vectors of the words are read from the space, so
+     * they have the precision with which it stores them.
+     */
+    private static TopKHeap[] wordNeighbors(LatentSemanticAnalysis space,
+                                            List<String> words, int k) {
+        double[][] vectors = new double[words.size()][];
+        for (int i = 0; i < vectors.length; ++i)
+            vectors[i] = space.getVectorFor(words.get(i));
+        return new NearestNeighbors(vectors).nearest(0, vectors.length, k);
+    }
+
+    /**
+     * Returns the mean fraction of the neighbors of each query that are among
+     * its exact neighbors, and the fraction of queries whose nearest neighbor
+     * is an exact nearest neighbor.  Comments are often repeated, and rare
+     * words often occur in a single comment, so many vectors are identical
+     * and there may be more than {@code k} exact neighbors.  A neighbor is
+     * therefore counted as exact if its exact similarity to the query is at
+     * least that of the last exact neighbor, or of the first for the nearest
+     * neighbor.
+     */
+    private static double[] overlap(TopKHeap[] exact, TopKHeap[] approximate,
+                                    Similarity similarity) {
+        double sum = 0;
+        int sameFirst = 0;
+        int queries = 0;
+        for (int q = 0; q < exact.length; ++q) {
+            int size = exact[q].size();
+            if (size == 0)
+                continue;
+            queries++;
+            double last = exact[q].getScore(size - 1) - TIE_TOLERANCE;
+            double first = exact[q].getScore(0) - TIE_TOLERANCE;
+            int shared = 0;
+            for (int i = 0; i < approximate[q].size(); ++i) {
+                double score =
+                    similarity.similarity(q, approximate[q].getId(i));
+                if (score >= last)
+                    shared++;
+                if (i == 0 && score >= first)
+                    sameFirst++;
+            }
+            sum += (double)Math.min(shared, size) / size;
+        }
+        return new double[] { sum / queries, (double)sameFirst / queries };
+    }
+}
@@ -0,0 +1,216 @@
+package edu.ucla.sspace.lsa;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the contention of assigning term indices from 1 to {@code N}
+ * threads, with {@link TermDictionary} and with the global lock that {@link
+ * LatentSemanticAnalysis} used before it.  The comments of a mailbucket dump,
+ * such as the bundled {@code Mailbuck_freshblogcomments.dat}, are tokenized
+ * once, and each run then looks up every token of every comment in a new,
+ * empty dictionary, so that the vocabulary grows during the run as it does at
+ * the start of a corpus.  The comments are divided between the threads in
+ * turn, as documents are between ingest threads.
+ *
+ * <p>
+ *
+ * For each number of threads, the fastest of the repetitions is printed for
+ * both dictionaries.  After each run, the check that the indices of the terms
+ * are exactly {@code 1} to the number of terms fails the benchmark if a term
+ * was given two indices or an index was skipped.  On a single processor the
+ * threads never run at the same time, so the times show only the cost of the
+ * locking; the contention shows on multi-core machines.
+ */
+public class TermDictionaryBenchmark {
+
+    /**
+     * The number of times the whole dump is looked up in each run
+     */
+    private static final int PASSES = 10;
+
+    /**
+     * A dictionary of terms to indices.
+     */
+    interface Dictionary {
+
+        /**
+         * Returns the index of the term, assigning it one if it has none.
+         */
+        int index(String term);
+
+        /**
+         * Returns the index of each term.
+         */
+        Iterable<Integer> indices();
+    }
+
+    /**
+     * The term assignment of {@code LatentSemanticAnalysis} before {@link
+     * TermDictionary}: each new term takes a lock on the whole analyzer, and
+     * the index is looked up again once the term has been added.
+     */
+    static class GlobalLockDictionary implements Dictionary {
+
+        private final ConcurrentMap<String,Integer> termToIndex =
+            new ConcurrentHashMap<String,Integer>();
+
+        private final AtomicInteger termIndexCounter = new AtomicInteger(0);
+
+        public int index(String term) {
+            addTerm(term);
+            return termToIndex.get(term).intValue();
+        }
+
+        private void addTerm(String term) {
+            Integer index = termToIndex.get(term);
+            if (index == null) {
+                synchronized(this) {
+                    index = termToIndex.get(term);
+                    if (index == null) {
+                        index = Integer.valueOf(
+                            termIndexCounter.incrementAndGet());
+                        termToIndex.put(term, index);
+                    }
+                }
+            }
+        }
+
+        public Iterable<Integer> indices() {
+            return termToIndex.values();
+        }
+    }
+
+    /**
+     * A {@link TermDictionary} seen as a {@link Dictionary}.
+     */
+    static class StripedDictionary implements Dictionary {
+
+        private final TermDictionary dictionary = new TermDictionary();
+
+        public int index(String term) {
+            return dictionary.index(term);
+        }
+
+        public Iterable<Integer> indices() {
+            List<Integer> indices = new ArrayList<Integer>();
+            for (String term : dictionary.terms())
+                indices.add(Integer.valueOf(dictionary.find(term)));
+            return indices;
+        }
+    }
+
+    /**
+     * Uninstantiable
+     */
+    private TermDictionaryBenchmark() { }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println(
+                "usage: java TermDictionaryBenchmark <dump> " +
+                "[max threads [repetitions]]");
+            System.exit(2);
+        }
+        int maxThreads = (args.length > 1)
+            ? Integer.parseInt(args[1])
+            : Math.max(4, ParallelTasks.defaultThreads());
+        int repetitions = (args.length > 2) ? Integer.parseInt(args[2]) : 20;
+
+        final List<String[]> documents = new ArrayList<String[]>();
+        MailbucketParser dump =
+            new MailbucketParser(MailbucketParser.open(new File(args[0])));
+        Tokenizer tokenizer = new Tokenizer();
+        long tokens = 0;
+        while (dump.next()) {
+            List<String> terms = new ArrayList<String>();
+            tokenizer.reset(dump.body());
+            while (tokenizer.next())
+                terms.add(tokenizer.term());
+            documents.add(terms.toArray(new String[terms.size()]));
+            tokens += terms.size();
+        }
+        dump.close();
+        System.out.println(documents.size() + " comments, " + tokens +
+                           " tokens, " + PASSES + " passes per run, " +
+                           ParallelTasks.defaultThreads() + " processors");
+        System.out.println("threads   global lock (ms)   striped (ms)");
+
+        for (int threads = 1; threads <= maxThreads; ++threads) {
+            long globalLock = Long.MAX_VALUE;
+            long striped = Long.MAX_VALUE;
+            for (int rep = 0; rep < repetitions; ++rep) {
+                globalLock = Math.min(globalLock,
+                                      run(false, documents, threads));
+                striped = Math.min(striped, run(true, documents, threads));
+            }
+            System.out.printf("%7d   %16.2f   %12.2f%n", threads,
+                              globalLock / 1e6, striped / 1e6);
+        }
+    }
+
+    /**
+     * Looks up the terms of the documents {@link #PASSES} times with {@code
+     * numThreads} threads, each time in a new {@link StripedDictionary} or
+     * {@link GlobalLockDictionary}, and returns the total time taken in
+     * nanoseconds.
+     *
+     * @throws IllegalStateException if a dictionary did not index its terms
+     *         from {@code 1} to the number of terms
+     */
+    private static long run(boolean striped, final List<String[]> documents,
+                            final int numThreads) throws IOException {
+        long time = 0;
+        for (int pass = 0; pass < PASSES; ++pass) {
+            final Dictionary dictionary = (striped)
+                ? new StripedDictionary()
+                : new GlobalLockDictionary();
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+            for (int t = 0; t < numThreads; ++t) {
+                final int thread = t;
+                tasks.add(new Callable<Void>() {
+                        public Void call() {
+                            for (int d = thread; d < documents.size();
+                                     d += numThreads) {
+                                for (String term : documents.get(d))
+                                    dictionary.index(term);
+                            }
+                            return null;
+                        }
+                    });
+            }
+            long start = System.nanoTime();
+            ParallelTasks.invokeAll(tasks, numThreads);
+            time += System.nanoTime() - start;
+            checkIndices(dictionary);
+        }
+        return time;
+    }
+
+    /**
+     * Checks that the indices of the dictionary are exactly {@code 1} to the
+     * number of terms.
+     */
+    private static void checkIndices(Dictionary dictionary) {
+        int size = 0;
+        for (Integer index : dictionary.indices())
+            size++;
+        boolean[] seen = new boolean[size + 1];
+        for (Integer index : dictionary.indices()) {
+            int i = index.intValue();
+            if (i < 1 || i > size || seen[i])
+                throw new IllegalStateException(
+                    "term index " + i + " is out of range or repeated");
+            seen[i] = true;
+        }
+    }
+}
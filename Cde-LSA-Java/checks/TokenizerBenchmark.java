@@ -0,0 +1,140 @@
+package edu.ucla.sspace.lsa;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares the throughput of {@link Tokenizer} with the tokenization it
+ * replaced, which split each line with {@code String.split("\\s")} and cleaned
+ * each word with {@code replaceAll("\\W", "")} and {@code toLowerCase()}.  The
+ * old tokenization is kept here as {@link #oldTokens(String) oldTokens}.  The
+ * input is the comments of the feeds given on the command line, such as the
+ * bundled {@code IBMFeed_Matlab.dat} and {@code Many eyes comments.dat}.
+ *
+ * <p>
+ *
+ * The tokens of both are first compared comment by comment, leaving out the
+ * empty words of the old tokenization, which {@code Tokenizer} skips.  The
+ * number of comments whose tokens differ is printed, with how many of them
+ * contain characters outside of ASCII, whose letters the old tokenization
+ * removed and {@code Tokenizer} keeps.  The benchmark fails if a comment of
+ * only ASCII characters is tokenized differently.
+ *
+ * <p>
+ *
+ * Each round then tokenizes all of the comments {@value #PASSES} times with
+ * each, and the fastest round of each is printed in millions of tokens per
+ * second.  The same {@code Tokenizer} is used throughout, as a thread of
+ * {@link LatentSemanticAnalysis} does, so after the first round it creates no
+ * strings for the terms it has already seen.
+ */
+public class TokenizerBenchmark {
+
+    /**
+     * The number of times the comments are tokenized in each round
+     */
+    private static final int PASSES = 10;
+
+    /**
+     * Uninstantiable
+     */
+    private TokenizerBenchmark() { }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println(
+                "usage: java TokenizerBenchmark <rounds> <feed>...");
+            System.exit(2);
+        }
+        int rounds = Integer.parseInt(args[0]);
+        List<String> comments = FeedMatrices.comments(
+            Arrays.copyOfRange(args, 1, args.length));
+        Tokenizer tokenizer = new Tokenizer();
+
+        long chars = 0;
+        long tokens = 0;
+        int differing = 0;
+        int nonAscii = 0;
+        for (String comment : comments) {
+            chars += comment.length();
+            List<String> expected = new ArrayList<String>();
+            for (String word : oldTokens(comment))
+                if (word.length() > 0)
+                    expected.add(word);
+            List<String> actual = new ArrayList<String>();
+            tokenizer.reset(comment);
+            while (tokenizer.next())
+                actual.add(tokenizer.term());
+            tokens += actual.size();
+            if (!expected.equals(actual)) {
+                differing++;
+                if (!isAscii(comment))
+                    nonAscii++;
+            }
+        }
+        System.out.println(comments.size() + " comments, " + chars +
+                           " characters, " + tokens + " tokens, " + PASSES +
+                           " passes per round");
+        System.out.println(differing + " comments tokenized differently, " +
+                           nonAscii + " of them with non-ASCII characters");
+
+        long oldBest = Long.MAX_VALUE;
+        long newBest = Long.MAX_VALUE;
+        // The hash codes of the tokens are summed so that no work is skipped
+        int checksum = 0;
+        for (int round = 0; round < rounds; ++round) {
+            long start = System.nanoTime();
+            for (int pass = 0; pass < PASSES; ++pass)
+                for (String comment : comments)
+                    for (String word : oldTokens(comment))
+                        checksum += word.hashCode();
+            oldBest = Math.min(oldBest, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int pass = 0; pass < PASSES; ++pass) {
+                for (String comment : comments) {
+                    tokenizer.reset(comment);
+                    while (tokenizer.next())
+                        checksum += tokenizer.term().hashCode();
+                }
+            }
+            newBest = Math.min(newBest, System.nanoTime() - start);
+        }
+        double total = (double)tokens * PASSES;
+        System.out.printf("old: %6.2fM tokens/s%n", total / (oldBest / 1e3));
+        System.out.printf("new: %6.2fM tokens/s   (%.1fx, checksum %d)%n",
+                          total / (newBest / 1e3),
+                          oldBest / (double)newBest, checksum);
+
+        boolean passed = differing == nonAscii;
+        System.out.println((passed) ? "PASSED" : "FAILED");
+        System.exit((passed) ? 0 : 1);
+    }
+
+    /**
+     * Returns the words of the text as {@code LSA} cleaned them before {@link
+     * Tokenizer}, including any left empty by the cleaning.
+     */
+    static String[] oldTokens(String text) {
+        // split the line based on whitespace
+        String[] words = text.split("\\s");
+        for (int i = 0; i < words.length; ++i) {
+            // remove all non-letter characters and make the word lower case
+            words[i] = words[i].replaceAll("\\W", "").toLowerCase();
+        }
+        return words;
+    }
+
+    /**
+     * Returns whether all of the characters of the text are ASCII.
+     */
+    private static boolean isAscii(String text) {
+        for (int i = 0; i < text.length(); ++i)
+            if (text.charAt(i) >= 128)
+                return false;
+        return true;
+    }
+}